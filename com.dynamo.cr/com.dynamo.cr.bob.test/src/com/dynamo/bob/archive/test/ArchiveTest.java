@@ -21,11 +21,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -38,6 +41,7 @@ import com.dynamo.bob.archive.ArchiveBuilder;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.WorkerPool;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
@@ -182,6 +186,158 @@ public class ArchiveTest {
         ar.close();
     }
     
+    private byte[][] writeArchive(List<String> filepaths, int numThreads) throws IOException {
+        ManifestBuilder mb = new ManifestBuilder();
+        mb.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), mb);
+        for (String filepath : filepaths) {
+            ab.add(filepath, true);
+            // Duplicates are ignored
+            ab.add(filepath, true);
+        }
+        assertEquals(filepaths.size(), ab.getArchiveEntrySize());
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        WorkerPool.setThreadCount(numThreads);
+        try {
+            ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        } finally {
+            WorkerPool.setThreadCount(WorkerPool.DEFAULT_THREAD_COUNT);
+        }
+        outFileIndex.close();
+        outFileData.close();
+        return new byte[][] { Files.readAllBytes(outputIndex.toPath()), Files.readAllBytes(outputData.toPath()) };
+    }
+
+    @Test
+    public void testParallelWriteIsDeterministic() throws IOException {
+        List<String> filepaths = new ArrayList<String>();
+        for (int i = 0; i < 200; ++i) {
+            // Mix of compressible, incompressible and encrypted entries of varying size
+            String ext = (i % 3 == 0) ? "luac" : "txt";
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < i * 7 + 1; ++j) {
+                content.append((i % 2 == 0) ? "a" : Integer.toString(j * 31 + i));
+            }
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "dummy" + i + "." + ext, content.toString().getBytes())));
+        }
+
+        byte[][] sequential = writeArchive(filepaths, 1);
+        byte[][] parallel = writeArchive(filepaths, 8);
+        assertArrayEquals(sequential[0], parallel[0]);
+        assertArrayEquals(sequential[1], parallel[1]);
+    }
+
+    private byte[][] writeArchiveIncremental(List<String> filepaths, File cacheFile, File previousIndex, File previousData) throws IOException {
+        ManifestBuilder mb = new ManifestBuilder();
+        mb.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), mb);
+        ab.setIncremental(cacheFile, previousIndex, previousData);
+        for (String filepath : filepaths) {
+            ab.add(filepath, true);
+        }
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // Replace the previous archive, as the build does
+        FileUtils.copyFile(outputIndex, previousIndex);
+        FileUtils.copyFile(outputData, previousData);
+        ab.saveIncrementalCache();
+        return new byte[][] { Files.readAllBytes(outputIndex.toPath()), Files.readAllBytes(outputData.toPath()) };
+    }
+
+    @Test
+    public void testIncrementalWrite() throws IOException {
+        List<String> filepaths = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            String ext = (i % 3 == 0) ? "luac" : "txt";
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < i * 13 + 1; ++j) {
+                content.append((i % 2 == 0) ? "a" : Integer.toString(j * 31 + i));
+            }
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "dummy" + i + "." + ext, content.toString().getBytes())));
+        }
+
+        File previousDir = Files.createTempDirectory("tmp.defold.previous_").toFile();
+        try {
+            File cacheFile = new File(previousDir, "game.arcd.cache");
+            File previousIndex = new File(previousDir, "game.arci");
+            File previousData = new File(previousDir, "game.arcd");
+
+            // No previous archive
+            byte[][] full = writeArchive(filepaths, 4);
+            byte[][] incremental = writeArchiveIncremental(filepaths, cacheFile, previousIndex, previousData);
+            assertArrayEquals(full[0], incremental[0]);
+            assertArrayEquals(full[1], incremental[1]);
+            assertTrue(cacheFile.isFile());
+
+            // Nothing changed
+            incremental = writeArchiveIncremental(filepaths, cacheFile, previousIndex, previousData);
+            assertArrayEquals(full[0], incremental[0]);
+            assertArrayEquals(full[1], incremental[1]);
+
+            // Changed and added entries
+            createDummyFile(contentRoot, "dummy3.luac", "changed".getBytes());
+            createDummyFile(contentRoot, "dummy4.txt", "changed too".getBytes());
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "added.txt", "added".getBytes())));
+            incremental = writeArchiveIncremental(filepaths, cacheFile, previousIndex, previousData);
+            full = writeArchive(filepaths, 4);
+            assertArrayEquals(full[0], incremental[0]);
+            assertArrayEquals(full[1], incremental[1]);
+
+            // Previous archive modified outside of the build, the cache is ignored
+            FileUtils.writeByteArrayToFile(previousData, new byte[] { 1, 2, 3 }, true);
+            incremental = writeArchiveIncremental(filepaths, cacheFile, previousIndex, previousData);
+            assertArrayEquals(full[0], incremental[0]);
+            assertArrayEquals(full[1], incremental[1]);
+        } finally {
+            FileUtils.deleteDirectory(previousDir);
+        }
+    }
+
+    @Test
+    public void testReaderLookupAndContent() throws IOException {
+        List<String> filepaths = new ArrayList<String>();
+        Set<String> contents = new HashSet<String>();
+        for (int i = 0; i < 50; ++i) {
+            String ext = (i % 3 == 0) ? "luac" : "txt";
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < i * 11 + 1; ++j) {
+                content.append((i % 2 == 0) ? "a" : Integer.toString(j * 31 + i));
+            }
+            contents.add(content.toString());
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "dummy" + i + "." + ext, content.toString().getBytes())));
+        }
+        writeArchive(filepaths, 4);
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(filepaths.size(), entries.size());
+        Set<String> readContents = new HashSet<String>();
+        for (ArchiveEntry entry : entries) {
+            assertTrue(entry == ar.findEntry(entry.hash));
+
+            ByteBuffer resource = ar.readEntry(entry);
+            assertEquals(entry.size, resource.remaining());
+            byte[] buffer = new byte[resource.remaining()];
+            resource.get(buffer);
+            readContents.add(new String(buffer));
+        }
+        assertEquals(contents, readContents);
+        assertEquals(null, ar.findEntry(new byte[ArchiveBuilder.HASH_MAX_LENGTH]));
+        ar.close();
+    }
+
     @Test
     public void testArchiveIndexAlignment() throws IOException {
     	ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
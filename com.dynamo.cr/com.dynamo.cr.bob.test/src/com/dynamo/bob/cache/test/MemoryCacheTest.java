@@ -0,0 +1,54 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.dynamo.bob.cache.MemoryCache;
+
+public class MemoryCacheTest {
+
+    @Test
+    public void testEviction() throws Exception {
+        MemoryCache<String, String> cache = new MemoryCache<String, String>(10);
+        cache.put("a", "A", 4);
+        cache.put("b", "B", 4);
+        assertEquals("A", cache.get("a"));
+        assertEquals(8, cache.getWeight());
+
+        // "b" is the least recently used
+        cache.put("c", "C", 4);
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(8, cache.getWeight());
+
+        // Replacing an entry updates the weight
+        cache.put("c", "CC", 6);
+        assertEquals("CC", cache.get("c"));
+        assertEquals(10, cache.getWeight());
+        assertEquals(2, cache.size());
+
+        // Too heavy to be cached
+        cache.put("d", "D", 11);
+        assertNull(cache.get("d"));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getWeight());
+    }
+}
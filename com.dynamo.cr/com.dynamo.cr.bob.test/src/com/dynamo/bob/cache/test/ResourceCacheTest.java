@@ -0,0 +1,191 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.cache.HttpResourceCache;
+import com.dynamo.bob.cache.IResourceCache;
+import com.dynamo.bob.cache.LocalResourceCache;
+import com.dynamo.bob.cache.ResourceCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResourceCacheTest {
+
+    private File dir;
+    private HttpServer server;
+    private Map<String, byte[]> serverEntries = new HashMap<String, byte[]>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("resource_cache").toFile();
+
+        // Stand-in for a remote cache server
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/cache", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String key = path.substring(path.lastIndexOf('/') + 1);
+                if (exchange.getRequestMethod().equals("PUT")) {
+                    InputStream is = exchange.getRequestBody();
+                    synchronized (serverEntries) {
+                        serverEntries.put(key, IOUtils.toByteArray(is));
+                    }
+                    exchange.sendResponseHeaders(201, -1);
+                } else {
+                    byte[] content;
+                    synchronized (serverEntries) {
+                        content = serverEntries.get(key);
+                    }
+                    if (content == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.sendResponseHeaders(200, content.length);
+                        OutputStream os = exchange.getResponseBody();
+                        os.write(content);
+                        os.close();
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private URL getServerUrl() throws Exception {
+        return new URL(String.format("http://localhost:%d/cache", server.getAddress().getPort()));
+    }
+
+    private static String key(int i) {
+        return ResourceCache.calculateKey("env", new byte[] { (byte) i }, "main/test.texturec");
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        assertEquals(40, key(0).length());
+        assertEquals(key(0), key(0));
+        assertNotEquals(key(0), key(1));
+        assertNotEquals(key(0), ResourceCache.calculateKey("env", new byte[] { 0 }, "main/other.texturec"));
+        assertNotEquals(key(0), ResourceCache.calculateKey("other", new byte[] { 0 }, "main/test.texturec"));
+    }
+
+    @Test
+    public void testLocal() throws Exception {
+        LocalResourceCache cache = new LocalResourceCache(dir, 1024);
+        assertNull(cache.get(key(0)));
+        cache.put(key(0), "abc".getBytes());
+        assertArrayEquals("abc".getBytes(), cache.get(key(0)));
+        cache.put(key(0), "abcd".getBytes());
+        assertArrayEquals("abcd".getBytes(), cache.get(key(0)));
+        assertEquals(4, cache.getSize());
+
+        // Entries are found when the cache is reopened
+        cache = new LocalResourceCache(dir, 1024);
+        assertArrayEquals("abcd".getBytes(), cache.get(key(0)));
+        assertEquals(4, cache.getSize());
+    }
+
+    @Test
+    public void testLocalEviction() throws Exception {
+        LocalResourceCache cache = new LocalResourceCache(dir, 300);
+        cache.put(key(0), new byte[100]);
+        cache.put(key(1), new byte[100]);
+        cache.put(key(2), new byte[100]);
+
+        // Touch the oldest entry, the second one is now least recently used
+        cache.get(key(0));
+        cache.put(key(3), new byte[100]);
+        assertEquals(300, cache.getSize());
+        assertNull(cache.get(key(1)));
+        assertArrayEquals(new byte[100], cache.get(key(0)));
+        assertArrayEquals(new byte[100], cache.get(key(2)));
+        assertArrayEquals(new byte[100], cache.get(key(3)));
+
+        // Reopening with a lower limit evicts entries
+        cache = new LocalResourceCache(dir, 100);
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        HttpResourceCache cache = new HttpResourceCache(getServerUrl());
+        assertNull(cache.get(key(0)));
+        cache.put(key(0), "abc".getBytes());
+        assertArrayEquals("abc".getBytes(), cache.get(key(0)));
+    }
+
+    @Test
+    public void testTiers() throws Exception {
+        LocalResourceCache local = new LocalResourceCache(dir, 1024);
+        ResourceCache cache = new ResourceCache();
+        cache.addCache(local);
+        cache.addCache(new HttpResourceCache(getServerUrl()));
+
+        cache.put(key(0), "abc".getBytes());
+        assertArrayEquals("abc".getBytes(), serverEntries.get(key(0)));
+        assertArrayEquals("abc".getBytes(), local.get(key(0)));
+
+        // Remote hits are copied to the local cache
+        serverEntries.put(key(1), "def".getBytes());
+        assertArrayEquals("def".getBytes(), cache.get(key(1)));
+        assertArrayEquals("def".getBytes(), local.get(key(1)));
+        assertNull(cache.get(key(2)));
+    }
+
+    @Test
+    public void testFailingCacheIsDisabled() throws Exception {
+        ResourceCache cache = new ResourceCache();
+        cache.addCache(new IResourceCache() {
+            @Override
+            public byte[] get(String key) throws IOException {
+                throw new IOException("unavailable");
+            }
+
+            @Override
+            public void put(String key, byte[] content) throws IOException {
+                throw new IOException("unavailable");
+            }
+        });
+        assertNull(cache.get(key(0)));
+        cache.put(key(0), "abc".getBytes());
+        assertEquals(false, cache.isEnabled());
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DefaultFileSystemTest {
+
+    private File dir;
+    private DefaultFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("default_file_system").toFile();
+        new File(dir, "build").mkdirs();
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(dir.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private File createFile(String path, String content) throws Exception {
+        File file = new File(dir, path);
+        FileUtils.writeStringToFile(file, content);
+        return file;
+    }
+
+    private static DefaultFileSystem.CacheEntry legacyEntry(long mTime, byte[] sha1) {
+        DefaultFileSystem.CacheEntry entry = new DefaultFileSystem.CacheEntry();
+        entry.mTime = mTime;
+        entry.sha1 = sha1;
+        return entry;
+    }
+
+    private void writeLegacyCache(Map<String, DefaultFileSystem.CacheEntry> entries) throws Exception {
+        ObjectOutputStream os = null;
+        try {
+            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, "build/digest_cache"))));
+            os.writeObject(entries);
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    @Test
+    public void testMigrateLegacyCache() throws Exception {
+        File current = createFile("current.txt", "current");
+        File stale = createFile("stale.txt", "stale");
+
+        // Cached digests that differ from the content, to tell cache hits from rehashing
+        byte[] cachedDigest = new byte[DigestStore.DIGEST_SIZE];
+        Arrays.fill(cachedDigest, (byte) 1);
+        HashMap<String, DefaultFileSystem.CacheEntry> entries = new HashMap<String, DefaultFileSystem.CacheEntry>();
+        entries.put("current.txt", legacyEntry(current.lastModified(), cachedDigest));
+        entries.put("stale.txt", legacyEntry(stale.lastModified() - 2000, cachedDigest));
+        entries.put("missing.txt", legacyEntry(0, cachedDigest));
+        writeLegacyCache(entries);
+
+        fileSystem.loadCache();
+        assertArrayEquals(cachedDigest, fileSystem.get("current.txt").sha1());
+        assertArrayEquals(DigestUtil.sha1(stale.toPath()), fileSystem.get("stale.txt").sha1());
+
+        // The migrated entries are saved in the new format and still hit after a reload
+        fileSystem.saveCache();
+        File cacheFile = new File(dir, "build/digest_cache");
+        assertTrue(DigestStore.isDigestStore(cacheFile));
+        fileSystem.loadCache();
+        assertArrayEquals(cachedDigest, fileSystem.get("current.txt").sha1());
+    }
+}
@@ -0,0 +1,246 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.DigestStore;
+
+public class DigestStoreTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("digest_store").toFile();
+        file = new File(dir, "state");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static byte[] digest(int value) {
+        byte[] digest = new byte[DigestStore.DIGEST_SIZE];
+        for (int i = 0; i < digest.length; ++i) {
+            digest[i] = (byte) (value + i);
+        }
+        return digest;
+    }
+
+    private DigestStore reload() throws IOException {
+        return DigestStore.load(file);
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        DigestStore store = DigestStore.load(file);
+        assertEquals(0, store.size());
+        store.put("a/b.png", 17, digest(1));
+        store.put("a/c.png", 18, digest(2));
+        store.put("failed", 0, new byte[0]);
+        store.save(file);
+
+        store = reload();
+        assertEquals(3, store.size());
+        assertArrayEquals(digest(1), store.getDigest("a/b.png"));
+        assertEquals(17, store.get("a/b.png").stamp);
+        assertArrayEquals(digest(2), store.getDigest("a/c.png"));
+        assertArrayEquals(new byte[0], store.getDigest("failed"));
+        assertNull(store.get("missing"));
+    }
+
+    @Test
+    public void testNoChangeNoWrite() throws Exception {
+        DigestStore store = DigestStore.load(file);
+        store.put("a", 1, digest(1));
+        store.save(file);
+        long length = file.length();
+        assertTrue(file.setLastModified(1000));
+
+        store = reload();
+        store.put("a", 1, digest(1));
+        store.save(file);
+        assertEquals(length, file.length());
+        assertEquals(1000, file.lastModified());
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        DigestStore store = DigestStore.load(file);
+        for (int i = 0; i < 100; ++i) {
+            store.put("path" + i, i, digest(i));
+        }
+        store.save(file);
+        long length = file.length();
+
+        store = reload();
+        store.put("path5", 1005, digest(5005));
+        store.put("new", 1, digest(7));
+        store.save(file);
+        // Only the changed entries are appended
+        assertTrue(file.length() > length);
+        assertTrue(file.length() < length + 200);
+
+        store = reload();
+        assertEquals(101, store.size());
+        assertArrayEquals(digest(5005), store.getDigest("path5"));
+        assertEquals(1005, store.get("path5").stamp);
+        assertArrayEquals(digest(7), store.getDigest("new"));
+        assertArrayEquals(digest(6), store.getDigest("path6"));
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        DigestStore store = DigestStore.load(file);
+        for (int i = 0; i < 10; ++i) {
+            store.put("path" + i, i, digest(i));
+        }
+        store.save(file);
+        long length = file.length();
+
+        // Overwrite all entries a couple of times
+        for (int j = 1; j < 4; ++j) {
+            store = reload();
+            for (int i = 0; i < 10; ++i) {
+                store.put("path" + i, i, digest(i + j));
+            }
+            store.save(file);
+        }
+        assertTrue(file.length() < length * 2);
+
+        store = reload();
+        assertEquals(10, store.size());
+        for (int i = 0; i < 10; ++i) {
+            assertArrayEquals(digest(i + 3), store.getDigest("path" + i));
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        DigestStore store = DigestStore.load(file);
+        store.put("a", 1, digest(1));
+        store.put("b", 2, digest(2));
+        store.save(file);
+
+        // Simulate an interrupted write
+        byte[] content = FileUtils.readFileToByteArray(file);
+        FileUtils.writeByteArrayToFile(file, Arrays.copyOf(content, content.length - 3));
+
+        store = reload();
+        assertArrayEquals(digest(1), store.getDigest("a"));
+        assertNull(store.get("b"));
+        store.put("b", 3, digest(3));
+        store.save(file);
+
+        store = reload();
+        assertEquals(2, store.size());
+        assertArrayEquals(digest(3), store.getDigest("b"));
+    }
+
+    @Test
+    public void testCorruptDigestLength() throws Exception {
+        for (int length : new int[] { -1, DigestStore.DIGEST_SIZE + 1 }) {
+            DigestStore store = DigestStore.load(file);
+            store.put("a", 1, digest(1));
+            store.put("b", 2, digest(2));
+            store.save(file);
+
+            // Corrupt the digest length of the last entry
+            byte[] content = FileUtils.readFileToByteArray(file);
+            content[content.length - DigestStore.DIGEST_SIZE - 1] = (byte) length;
+            FileUtils.writeByteArrayToFile(file, content);
+
+            store = reload();
+            assertArrayEquals(digest(1), store.getDigest("a"));
+            assertNull(store.get("b"));
+            store.put("b", 3, digest(3));
+            store.save(file);
+
+            store = reload();
+            assertEquals(2, store.size());
+            assertArrayEquals(digest(3), store.getDigest("b"));
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testConcurrentSave() throws Exception {
+        final DigestStore store = DigestStore.load(file);
+        for (int i = 0; i < 100; ++i) {
+            store.put("path" + i, i, digest(i));
+        }
+        store.save(file);
+
+        final DigestStore loaded = reload();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int n = 0; n < 100; ++n) {
+                    for (int i = 0; i < 100; ++i) {
+                        assertArrayEquals(digest(i), loaded.getDigest("path" + i));
+                    }
+                }
+            }
+        });
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        reader.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        reader.start();
+        // New paths grow the path table while the reader is running
+        for (int i = 100; i < 1000; ++i) {
+            loaded.put("path" + i, i, digest(i));
+            if (i % 100 == 0) {
+                loaded.save(file);
+            }
+        }
+        reader.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        loaded.save(file);
+        assertEquals(1000, reload().size());
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        DigestStore store = DigestStore.load((byte[]) null);
+        store.put("a", 1, digest(1));
+        byte[] content = store.toByteArray();
+        assertTrue(DigestStore.isDigestStore(content));
+        store = DigestStore.load(content);
+        assertArrayEquals(digest(1), store.getDigest("a"));
+    }
+}
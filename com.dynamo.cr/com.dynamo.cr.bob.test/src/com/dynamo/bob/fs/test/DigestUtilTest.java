@@ -0,0 +1,77 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.DigestUtil;
+
+public class DigestUtilTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("digest_util").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSha1() throws Exception {
+        // Larger than the read buffer
+        byte[] content = new byte[1024 * 1024 + 17];
+        new Random(4711).nextBytes(content);
+        File file = new File(dir, "large.bin");
+        FileUtils.writeByteArrayToFile(file, content);
+
+        byte[] expected = MessageDigest.getInstance("SHA1").digest(content);
+        assertArrayEquals(expected, DigestUtil.sha1(file.toPath()));
+        assertArrayEquals(expected, DigestUtil.sha1(new ByteArrayInputStream(content)));
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        File file = new File(dir, "file.txt");
+        assertEquals(0, DigestUtil.fingerprint(file.toPath()));
+        assertEquals(0, DigestUtil.fingerprint(dir.toPath()));
+
+        FileUtils.writeStringToFile(file, "abc");
+        file.setLastModified(10000);
+        long fingerprint = DigestUtil.fingerprint(file.toPath());
+        assertNotEquals(0, fingerprint);
+        assertEquals(fingerprint, DigestUtil.fingerprint(file.toPath()));
+
+        // Same modification time, different size
+        FileUtils.writeStringToFile(file, "abcd");
+        file.setLastModified(10000);
+        assertNotEquals(fingerprint, DigestUtil.fingerprint(file.toPath()));
+    }
+}
@@ -28,6 +28,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.rig.proto.Rig.AnimationSet;
 import com.dynamo.rig.proto.Rig.RigAnimation;
@@ -105,6 +106,25 @@ public class AnimationSetBuilderTest extends AbstractProtoBuilderTest {
         assertTrue(null != getAnim(anims, "testset2/testanim3"));
     }
 
+    @Test
+    public void testAnimationSetSharesDocuments() throws Exception {
+        // Identical files are only parsed once per build
+        addTestFile("testanim.dae", "testanim1.dae");
+        addTestFile("testanim.dae", "testanim2.dae");
+        addTestFile("testanim.dae", "testanim3.dae");
+        StringBuilder src = new StringBuilder();
+        src.append("animations { animation : \"/testanim1.dae\" }");
+        src.append("animations { animation : \"/testanim2.dae\" }");
+        src.append("animations { animation : \"/testanim3.dae\" }");
+        List<Message> outputs = build("/test.animationset", src.toString());
+
+        Map<Long, RigAnimation> anims = getAnims((AnimationSet)outputs.get(0));
+        assertEquals(3, anims.size());
+        CacheStatistics stats = getProject().getStatistics(ColladaUtil.DOCUMENT_CACHE);
+        assertEquals(1, stats.getMisses());
+        assertEquals(2, stats.getHits());
+    }
+
     @Test(expected=CompileExceptionError.class)
     public void testAnimationSetMultipleAnimationReference() throws Exception {
         addTestFile("testanim.dae", "testanim.dae");
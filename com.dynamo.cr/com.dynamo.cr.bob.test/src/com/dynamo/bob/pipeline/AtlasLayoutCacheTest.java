@@ -0,0 +1,108 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
+
+public class AtlasLayoutCacheTest {
+
+    private File dir;
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("atlas_layout_cache").toFile();
+        cacheFile = new File(dir, "test.texturesetc.layout");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static AtlasLayoutCache createCache(String settings) {
+        AtlasLayoutCache cache = new AtlasLayoutCache(settings);
+        SpriteGeometry geometry = SpriteGeometry.newBuilder().setWidth(16).setHeight(8).build();
+        cache.addImage(new AtlasLayoutCache.Image("/a.png", 0, new byte[] { 1, 2, 3 }, 16, 8, geometry));
+        cache.addImage(new AtlasLayoutCache.Image("/b.png", 0, new byte[] { 4, 5, 6 }, 16, 8, geometry));
+
+        BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_4BYTE_ABGR);
+        image.setRGB(1, 2, 0xff102030);
+        image.setRGB(20, 10, 0x80405060);
+        cache.setResult(new Layout(32, 32, Arrays.asList(new Rect("/a.png", 0, 0, 0, 16, 8), new Rect("/b.png", 1, 16, 0, 16, 8))), image);
+        return cache;
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        AtlasLayoutCache saved = createCache("settings");
+        saved.save(cacheFile);
+        assertFalse(new File(cacheFile.getPath() + ".tmp").exists());
+        // The pixels are deflated
+        assertTrue(cacheFile.length() < 32 * 32 * 4);
+
+        AtlasLayoutCache loaded = AtlasLayoutCache.load(cacheFile, "settings");
+        assertNotNull(loaded.getImage("/a.png", 0, new byte[] { 1, 2, 3 }));
+        assertNull(loaded.getImage("/a.png", 0, new byte[] { 1, 2, 4 }));
+        assertNull(loaded.getImage("/a.png", 4, new byte[] { 1, 2, 3 }));
+        AtlasLayoutCache.Image b = loaded.getImage("/b.png", 0, new byte[] { 4, 5, 6 });
+        assertEquals(16, b.width);
+        assertEquals(8, b.height);
+        assertEquals(16, b.geometry.getWidth());
+
+        assertEquals(2, loaded.getLayout().getRectangles().size());
+        assertEquals(16, loaded.getLayout().getRectangles().get(1).x);
+        assertArrayEquals(((DataBufferByte) saved.getImage().getRaster().getDataBuffer()).getData(),
+                ((DataBufferByte) loaded.getImage().getRaster().getDataBuffer()).getData());
+    }
+
+    @Test
+    public void testOtherSettings() throws Exception {
+        createCache("settings").save(cacheFile);
+        AtlasLayoutCache loaded = AtlasLayoutCache.load(cacheFile, "other");
+        assertNull(loaded.getImage("/a.png", 0, new byte[] { 1, 2, 3 }));
+        assertNull(loaded.getLayout());
+        assertNull(loaded.getImage());
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        createCache("settings").save(cacheFile);
+        byte[] data = FileUtils.readFileToByteArray(cacheFile);
+        FileUtils.writeByteArrayToFile(cacheFile, Arrays.copyOf(data, data.length - 8));
+        AtlasLayoutCache loaded = AtlasLayoutCache.load(cacheFile, "settings");
+        assertNull(loaded.getImage("/a.png", 0, new byte[] { 1, 2, 3 }));
+        assertNull(loaded.getLayout());
+    }
+}
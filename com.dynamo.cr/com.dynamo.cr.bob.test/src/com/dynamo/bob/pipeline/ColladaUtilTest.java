@@ -18,14 +18,19 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 
+import javax.vecmath.Point3i;
 import javax.vecmath.Point4i;
 import javax.vecmath.Quat4d;
 import javax.vecmath.Tuple3d;
@@ -34,11 +39,17 @@ import javax.vecmath.Tuple4f;
 import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 
+import org.jagatoo.loaders.models.collada.stax.XMLFloatArray;
+import org.jagatoo.loaders.models.collada.stax.XMLIntArray;
 import org.junit.Test;
 
+import com.dynamo.bob.test.util.AnimationCompressionTestUtil;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.MurmurHash;
+import com.dynamo.bob.util.RigUtil;
 
 import com.dynamo.proto.DdfMath.Point3;
 import com.dynamo.proto.DdfMath.Quat;
@@ -1052,6 +1063,175 @@ public class ColladaUtilTest {
         assertEquals(3, indices.get(5));
     }
 
+    /*
+     * Tests that welding finds the same vertices and indices as a linear search
+     */
+    @Test
+    public void testVertexWelder() throws Exception {
+        Random random = new Random(4711);
+        int count = 5000;
+        ColladaUtil.VertexWelder welder = new ColladaUtil.VertexWelder(1);
+        List<Point3i> expectedVertices = new ArrayList<Point3i>();
+        for (int i = 0; i < count; ++i) {
+            Point3i v = new Point3i(random.nextInt(20), random.nextInt(10), random.nextInt(5));
+            int expected = expectedVertices.indexOf(v);
+            if (expected == -1) {
+                expected = expectedVertices.size();
+                expectedVertices.add(v);
+            }
+            assertEquals(expected, welder.weld(v.x, v.y, v.z));
+        }
+        assertEquals(expectedVertices.size(), welder.size());
+        for (int i = 0; i < welder.size(); ++i) {
+            Point3i v = expectedVertices.get(i);
+            assertEquals(v.x, welder.getPosition(i));
+            assertEquals(v.y, welder.getTexcoord0(i));
+            assertEquals(v.z, welder.getNormal(i));
+        }
+    }
+
+    // Grid of size x size quads, with a position and texcoord per grid point
+    private InputStream createGridDAE(int size) {
+        StringBuilder positions = new StringBuilder();
+        StringBuilder texcoords = new StringBuilder();
+        for (int y = 0; y <= size; ++y) {
+            for (int x = 0; x <= size; ++x) {
+                positions.append(x).append(' ').append(y).append(" 0 ");
+                texcoords.append((float) x / size).append(' ').append((float) y / size).append(' ');
+            }
+        }
+        StringBuilder p = new StringBuilder();
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                int i0 = y * (size + 1) + x;
+                int i1 = i0 + 1;
+                int i2 = i0 + size + 1;
+                int i3 = i2 + 1;
+                for (int i : new int[] { i0, i1, i2, i2, i1, i3 }) {
+                    p.append(i).append(' ').append(i).append(' ');
+                }
+            }
+        }
+        int pointCount = (size + 1) * (size + 1);
+        String dae = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<COLLADA xmlns=\"http://www.collada.org/2005/11/COLLADASchema\" version=\"1.4.1\">\n"
+                + "<asset><unit meter=\"1\" name=\"meter\"></unit><up_axis>Y_UP</up_axis></asset>\n"
+                + "<library_geometries><geometry id=\"grid-lib\" name=\"grid\"><mesh>\n"
+                + "<source id=\"grid-POSITION\"><float_array id=\"grid-POSITION-array\" count=\"" + pointCount * 3 + "\">" + positions + "</float_array>"
+                + "<technique_common><accessor source=\"#grid-POSITION-array\" count=\"" + pointCount + "\" stride=\"3\">"
+                + "<param name=\"X\" type=\"float\"/><param name=\"Y\" type=\"float\"/><param name=\"Z\" type=\"float\"/></accessor></technique_common></source>\n"
+                + "<source id=\"grid-UV0\"><float_array id=\"grid-UV0-array\" count=\"" + pointCount * 2 + "\">" + texcoords + "</float_array>"
+                + "<technique_common><accessor source=\"#grid-UV0-array\" count=\"" + pointCount + "\" stride=\"2\">"
+                + "<param name=\"S\" type=\"float\"/><param name=\"T\" type=\"float\"/></accessor></technique_common></source>\n"
+                + "<vertices id=\"grid-VERTEX\"><input semantic=\"POSITION\" source=\"#grid-POSITION\"/></vertices>\n"
+                + "<triangles count=\"" + size * size * 2 + "\"><input semantic=\"VERTEX\" offset=\"0\" source=\"#grid-VERTEX\"/>"
+                + "<input semantic=\"TEXCOORD\" offset=\"1\" set=\"0\" source=\"#grid-UV0\"/><p>" + p + "</p></triangles>\n"
+                + "</mesh></geometry></library_geometries>\n"
+                + "</COLLADA>\n";
+        return new ByteArrayInputStream(dae.getBytes());
+    }
+
+    /*
+     * Tests welding of a large mesh, which requires 32-bit indices. This used to take minutes.
+     */
+    @Test
+    public void testLargeMesh() throws Exception {
+        int size = 300;
+        int pointCount = (size + 1) * (size + 1);
+        int indexCount = size * size * 6;
+
+        Rig.MeshSet.Builder meshSet = Rig.MeshSet.newBuilder();
+        ColladaUtil.loadMesh(createGridDAE(size), meshSet, true);
+        Rig.Mesh mesh = meshSet.getMeshAttachments(0);
+        assertEquals(pointCount, mesh.getVerticesCount());
+        assertEquals(Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_32, mesh.getIndicesFormat());
+        IntBuffer indices = mesh.getIndices().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        assertEquals(indexCount, indices.remaining());
+        for (int i = 0; i < indexCount; ++i) {
+            // Each grid point is a unique vertex, in order of first use
+            MeshVertexIndices vertex = mesh.getVertices(indices.get(i));
+            assertEquals((int) mesh.getPositionIndices(i), vertex.getPosition());
+            assertEquals((int) mesh.getTexcoord0Indices(i), vertex.getTexcoord0());
+        }
+
+        // Without optimization every index is a new vertex
+        meshSet = Rig.MeshSet.newBuilder();
+        ColladaUtil.loadMesh(createGridDAE(size), meshSet, false);
+        mesh = meshSet.getMeshAttachments(0);
+        assertEquals(indexCount, mesh.getVerticesCount());
+        indices = mesh.getIndices().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int i = 0; i < indexCount; ++i) {
+            assertEquals(i, indices.get(i));
+        }
+    }
+
+    @Test
+    public void testCompressTracks() throws Exception {
+        String[] fixtures = {"bonelist_anim_test.dae", "chest_open.dae", "rotating_box.dae", "skeleton_scale.dae", "testanim.dae", "translate_rot_test.dae", "two_bone.dae"};
+        int size = 0;
+        int compressedSize = 0;
+        for (String fixture : fixtures) {
+            Rig.AnimationSet.Builder animSetBuilder = Rig.AnimationSet.newBuilder();
+            ColladaUtil.loadAnimations(load(fixture), animSetBuilder, "", new ArrayList<String>());
+            AnimationCompressionTestUtil.Result result = AnimationCompressionTestUtil.assertCompression(animSetBuilder.build(), RigUtil.TrackTolerances.DEFAULT);
+            size += result.size;
+            compressedSize += result.compressedSize;
+        }
+        assertTrue(compressedSize <= size);
+    }
+
+    @Test
+    public void testParseNumberArrays() throws Exception {
+        Random random = new Random(17);
+        int count = 100000;
+        float[] expected = new float[count];
+        StringBuilder src = new StringBuilder();
+        src.append("<float_array id=\"values\" count=\"" + count + "\">");
+        for (int i = 0; i < count; ++i) {
+            String value;
+            switch (i % 4) {
+            case 0: value = String.format(Locale.US, "%.6f", (random.nextFloat() - 0.5f) * 1000.0f); break;
+            case 1: value = Float.toString(Float.intBitsToFloat(random.nextInt() & 0x7f7fffff)); break;
+            case 2: value = String.format(Locale.US, "%e", random.nextGaussian()); break;
+            // Written by the Maya exporter, parsed as zero
+            default: value = "-1.#IND00"; break;
+            }
+            expected[i] = value.startsWith("-1.#") ? 0.0f : Float.parseFloat(value);
+            src.append(i % 10 == 0 ? "\n" : " ").append(value);
+        }
+        src.append("</float_array>");
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(src.toString().getBytes()));
+        reader.nextTag();
+        XMLFloatArray floatArray = new XMLFloatArray();
+        floatArray.parse(reader);
+        assertEquals("values", floatArray.id);
+        assertEquals(count, floatArray.floats.length);
+        for (int i = 0; i < count; ++i) {
+            assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(floatArray.floats[i]));
+        }
+
+        // 15 significant digits, and values halfway between two floats that round to even
+        String[] exactValues = {"9.37367868423462", "0.100000001490116", "-123.456789012345", "1.5e-7",
+                "16777217", "16777219", "1.00000005960464477539062", "-8388609.5", "0.3", "3.4028235e38", "1.4e-45"};
+        StringBuilder exactSrc = new StringBuilder();
+        for (String value : exactValues) {
+            exactSrc.append(value).append(" ");
+        }
+        float[] exactFloats = XMLFloatArray.toArray(exactSrc.toString());
+        assertEquals(exactValues.length, exactFloats.length);
+        for (int i = 0; i < exactValues.length; ++i) {
+            assertEquals(exactValues[i], Float.floatToIntBits(Float.parseFloat(exactValues[i])), Float.floatToIntBits(exactFloats[i]));
+        }
+
+        int[] ints = XMLIntArray.toArray(" 0 1\n-2\t3  2147483647 -2147483648 ");
+        assertEquals(6, ints.length);
+        assertEquals(-2, ints[2]);
+        assertEquals(Integer.MAX_VALUE, ints[4]);
+        assertEquals(Integer.MIN_VALUE, ints[5]);
+    }
+
     /*
      * TODO
      * Future tests:
@@ -29,6 +29,7 @@ import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.test.util.PropertiesTestUtil;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
 import com.dynamo.gameobject.proto.GameObject.ComponentPropertyDesc;
@@ -411,6 +412,38 @@ public class CollectionBuilderTest extends AbstractProtoBuilderTest {
         Assert.assertTrue(instance.getComponentProperties(0).getProperties(0).getValue().equals("2"));
     }
 
+    @Test
+    public void testCollectionSharesParsedSubCollections() throws Exception {
+        // Sub collections are parsed once per build and shared by create and build
+        StringBuilder src = new StringBuilder();
+        src.append("name: \"sub\"\n");
+        src.append("embedded_instances {\n");
+        src.append("  id: \"go\"\n");
+        src.append("  data: \"\"\n");
+        src.append("}\n");
+        addFile("/sub.collection", src.toString());
+
+        src = new StringBuilder();
+        src.append("name: \"main\"\n");
+        src.append("collection_instances {\n");
+        src.append("  id: \"sub1\"\n");
+        src.append("  collection: \"/sub.collection\"\n");
+        src.append("}\n");
+        src.append("collection_instances {\n");
+        src.append("  id: \"sub2\"\n");
+        src.append("  collection: \"/sub.collection\"\n");
+        src.append("}\n");
+
+        List<Message> messages = build("/test.collection", src.toString());
+        CollectionDesc collection = (CollectionDesc)messages.get(0);
+        Assert.assertEquals(2, collection.getInstancesCount());
+        Assert.assertEquals(0, collection.getCollectionInstancesCount());
+
+        CacheStatistics stats = getProject().getStatistics(ProtoUtil.MESSAGE_CACHE);
+        Assert.assertTrue(stats.getHits() > 0);
+        Assert.assertTrue(stats.getMisses() > 0);
+    }
+
     /**
      * Test that embedded instances are properly extracted.
      * Structure:
@@ -24,8 +24,10 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.gui.proto.Gui;
 import com.google.protobuf.Message;
 
@@ -43,6 +45,36 @@ public class GuiBuilderTest extends AbstractProtoBuilderTest {
         return false;
     }
 
+    @Test
+    public void testSpineGuiSharesSpineScene() throws Exception {
+        // The spine scene is only loaded once for all spine nodes using it
+        addTestFiles();
+
+        StringBuilder src = new StringBuilder();
+        src.append("script: \"\"\n");
+        for (String id : new String[] {"spine1", "spine2"}) {
+            src.append("nodes {\n");
+            src.append("  type: TYPE_SPINE\n");
+            src.append("  id: \"" + id + "\"\n");
+            src.append("  spine_scene: \"spine_test\"\n");
+            src.append("}\n");
+        }
+        src.append("material: \"/builtins/materials/gui.material\"\n");
+        src.append("spine_scenes {\n");
+        src.append("  name: \"spine_test\"\n");
+        src.append("  spine_scene: \"/test.spinescene\"\n");
+        src.append("}");
+
+        List<Message> outputs = build("/test.gui", src.toString());
+        Gui.SceneDesc scene = (Gui.SceneDesc)outputs.get(0);
+        assertTrue(nodeExists(scene, "spine1/bone5"));
+        assertTrue(nodeExists(scene, "spine2/bone5"));
+
+        CacheStatistics stats = getProject().getStatistics(GuiBuilder.SPINE_SCENE_CACHE);
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getHits());
+    }
+
     @Test
     public void testSpineGui() throws Exception {
         addTestFiles();
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.test.util.PropertiesTestUtil;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.lua.proto.Lua.LuaModule;
 import com.dynamo.properties.proto.PropertiesProto.PropertyDeclarations;
@@ -91,4 +92,44 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
             assertEquals(2, e.getLineNumber());
         }
     }
+
+    @Test
+    public void testBytecode() throws Exception {
+        StringBuilder src = new StringBuilder();
+        src.append("function init(self)\n");
+        src.append("    self.value = 1\n");
+        src.append("end\n");
+        LuaModule luaModule = (LuaModule)build("/test.script", src.toString()).get(0);
+        assertTrue(luaModule.getSource().getBytecode().size() > 0);
+        assertTrue(luaModule.getSource().getBytecode64().size() > 0);
+    }
+
+    @Test
+    public void testSyntaxError() throws Exception {
+        StringBuilder src = new StringBuilder();
+        src.append("function init(self)\n");
+        src.append("    self.value = 1\n");
+        src.append("    self.value = = 2\n");
+        src.append("end\n");
+        try {
+            build("/test.script", src.toString());
+            assertTrue(false);
+        } catch (CompileExceptionError e) {
+            assertEquals(3, e.getLineNumber());
+        }
+    }
+
+    @Test
+    public void testScannerCache() throws Exception {
+        StringBuilder src = new StringBuilder();
+        src.append("go.property(\"number\", 1)\n");
+        src.append("function init(self)\n");
+        src.append("end\n");
+        build("/test.script", src.toString());
+
+        // The scan from create is reused by build
+        CacheStatistics stats = getProject().getStatistics(LuaBuilder.LUA_SCANNER_CACHE);
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getHits());
+    }
 }
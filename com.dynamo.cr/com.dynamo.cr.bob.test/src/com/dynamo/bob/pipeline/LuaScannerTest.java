@@ -93,6 +93,103 @@ public class LuaScannerTest {
         assertValidRequire("require ('foo.bar') --[[ some comment]]--", "foo.bar");
     }
 
+    @Test
+    public void testScannerLongBrackets() throws Exception {
+        String source = "local s = [==[\nrequire \"foo1\"\n]] still in string\n]==]\n"
+                + "--[=[\nrequire \"foo2\"\n]]\n]=]\n"
+                + "local t = s[1]\n"
+                + "require \"foo3\"\n"
+                + "local u = \"escaped \\\" require 'foo4'\"\n"
+                + "local v = myrequire \"foo5\"\n";
+        List<String> modules = LuaScanner.scan(source);
+        assertEquals(1, modules.size());
+        assertEquals("foo3", modules.get(0));
+    }
+
+    @Test
+    public void testStripPreservesLines() throws Exception {
+        String source = "--[[ comment\nspanning lines ]] local a = 1 -- trailing\r\n"
+                + "go.property(\"prop1\", vmath.vector3(1,\n 2, 3))\n"
+                + "local b = '--not a comment'\n";
+        LuaScanner scanner = new LuaScanner(source);
+        List<Property> properties = scanner.getProperties();
+        assertEquals(1, properties.size());
+        assertProperty(properties, "prop1", new Vector3d(1, 2, 3), 2);
+
+        String stripped = scanner.getStrippedSource();
+        String[] lines = stripped.split("\n", -1);
+        assertEquals(source.split("\n", -1).length, lines.length);
+        assertEquals("local a = 1", lines[1].trim());
+        assertEquals("", lines[2].trim());
+        assertEquals("", lines[3].trim());
+        assertEquals("local b = '--not a comment'", lines[4]);
+    }
+
+    @Test
+    public void testStripComments() throws Exception {
+        String source = "local a = 1 -- trailing\n"
+                + "-- whole line\n"
+                + "local b = \"-- in string\" --[[ block ]] local c = 2\n"
+                + "--[==[ long\n]] still comment ]==]\n"
+                + "local d = [[ --[[ in long string ]]\n";
+        String[] lines = LuaScanner.stripProperties(source).split("\n", -1);
+        assertEquals(7, lines.length);
+        assertEquals("local a = 1", lines[0].trim());
+        assertEquals("", lines[1].trim());
+        assertEquals("local b = \"-- in string\"   local c = 2", lines[2].trim());
+        assertEquals("", lines[3].trim());
+        assertEquals("", lines[4].trim());
+        assertEquals("local d = [[ --[[ in long string ]]", lines[5].trim());
+    }
+
+    @Test
+    public void testMultiLineProperty() throws Exception {
+        String source = "go.property(\"multi\",\n"
+                + "    vmath.vector3(1, 2, 3)) -- comment\n"
+                + "local a = 1 go.property(\"after_code\", 1)\n"
+                + "go.property(\"before_code\", 1) local b = 2\n"
+                + "go.property(\"semi_colon\",\n 1);\n";
+        LuaScanner scanner = new LuaScanner(source);
+        List<Property> properties = scanner.getProperties();
+        assertEquals(2, properties.size());
+        assertProperty(properties, "multi", new Vector3d(1, 2, 3), 0);
+        assertProperty(properties, "semi_colon", new Double(1), 4);
+
+        String[] lines = scanner.getStrippedSource().split("\n", -1);
+        assertEquals(source.split("\n", -1).length, lines.length);
+        assertEquals("", lines[0].trim());
+        assertEquals("", lines[1].trim());
+        assertEquals("local a = 1 go.property(\"after_code\", 1)", lines[2].trim());
+        assertEquals("go.property(\"before_code\", 1) local b = 2", lines[3].trim());
+        assertEquals("", lines[4].trim());
+        assertEquals("", lines[5].trim());
+    }
+
+    @Test
+    public void testScannerLarge() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        int count = 10000;
+        for (int i = 0; i < count; ++i) {
+            sb.append(String.format("local m%d = require(\"module%d\") -- comment %d\n", i, i, i));
+            sb.append(String.format("go.property(\"prop%d\", %d)\n", i, i));
+            sb.append("--[[\nlocal s = [[ require \"skip\" ]]\n--]]\n");
+        }
+        LuaScanner scanner = new LuaScanner(sb.toString());
+        List<String> modules = scanner.getModules();
+        List<Property> properties = scanner.getProperties();
+        assertEquals(count, modules.size());
+        assertEquals(count, properties.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals("module" + i, modules.get(i));
+            Property property = properties.get(i);
+            assertEquals("prop" + i, property.name);
+            assertEquals(Status.OK, property.status);
+            assertEquals(new Double(i), property.value);
+            assertEquals(i * 5 + 1, property.line);
+        }
+        assertEquals(count * 5 + 1, scanner.getStrippedSource().split("\n", -1).length);
+    }
+
     private Property findProperty(List<Property> properties, String name) {
         for (Property p : properties) {
             if (p.name != null && p.name.equals(name)) {
@@ -14,12 +14,15 @@ package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.NullProgress;
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.Message;
 
@@ -123,4 +126,27 @@ public class ShaderProgramBuilderTest extends AbstractProtoBuilderTest {
                 assertEquals(1, shader.getShadersCount());
         }
     }
+
+    @Test
+    public void testIdenticalShadersCompiledOnce() throws Exception {
+        addFile("/test_shader_a.vp", vp);
+        addFile("/test_shader_b.vp", vp);
+        getProject().setInputs(Arrays.asList("/test_shader_a.vp", "/test_shader_b.vp"));
+        getProject().build(new NullProgress(), "build");
+
+        CacheStatistics stats = getProject().getStatistics(ShaderProgramBuilder.SPIRV_CACHE);
+        switch(Platform.getHostPlatform())
+        {
+            case X86Darwin:
+            case X86_64Darwin:
+            case X86_64Linux:
+            case X86_64Win32:
+                assertEquals(1, stats.getMisses());
+                assertEquals(1, stats.getHits());
+                break;
+
+            default:
+                assertEquals(0, stats.getMisses());
+        }
+    }
 }
@@ -23,7 +23,9 @@ import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.test.util.AnimationCompressionTestUtil;
 import com.dynamo.bob.util.MurmurHash;
+import com.dynamo.bob.util.RigUtil;
 import com.dynamo.rig.proto.Rig;
 import com.dynamo.rig.proto.Rig.AnimationSet;
 import com.dynamo.rig.proto.Rig.AnimationTrack;
@@ -222,6 +224,36 @@ public class SpineSceneBuilderTest extends AbstractProtoBuilderTest {
         }
     }
 
+    @Test
+    public void testCompressTracks() throws Exception {
+        addImage("/test.png", 16, 16);
+        StringBuilder src = new StringBuilder();
+        src.append("images { image:  \"/test.png\" }");
+        build("/skeleton_atlas.atlas", src.toString());
+
+        for (String json : new String[] {"/skeleton.json", "/curve_skeleton.json"}) {
+            src = new StringBuilder();
+            src.append("spine_json: \"" + json + "\"");
+            src.append(" atlas: \"/skeleton_atlas.atlas\"");
+            List<Message> outputs = build("/test.spinescene", src.toString());
+            AnimationSet animationSet = (AnimationSet)outputs.get(3);
+            AnimationCompressionTestUtil.assertCompression(animationSet, RigUtil.TrackTolerances.DEFAULT);
+        }
+
+        // Compressed at build time when enabled
+        getProject().setOption("compress-animations", "true");
+        src = new StringBuilder();
+        src.append("spine_json: \"/skeleton.json\"");
+        src.append(" atlas: \"/skeleton_atlas.atlas\"");
+        List<Message> outputs = build("/test.spinescene", src.toString());
+        AnimationSet animationSet = (AnimationSet)outputs.get(3);
+        for (RigAnimation animation : animationSet.getAnimationsList()) {
+            for (AnimationTrack track : animation.getTracksList()) {
+                assertTrue(track.getPositionsCount() > 0 || track.getRotationsCount() > 0 || track.getScaleCount() > 0);
+            }
+        }
+    }
+
     // Simple test to make sure our parser+builder can read the updated Spine format >3.8
     @Test
     public void testSpine38Format() throws Exception {
@@ -16,15 +16,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.EnumSet;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.cache.LocalResourceCache;
+import com.dynamo.bob.cache.ResourceCache;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -381,6 +387,34 @@ public class TextureGeneratorTest {
 
     }
 
+    @Test
+    public void testTextureCache() throws TextureGeneratorException, IOException {
+        File dir = Files.createTempDirectory("texture_cache").toFile();
+        try {
+            ResourceCache resourceCache = new ResourceCache();
+            resourceCache.addCache(new LocalResourceCache(dir, 16 * 1024 * 1024));
+            CacheStatistics stats = new CacheStatistics("texture-cache");
+            TextureCache cache = new TextureCache(resourceCache, stats);
+
+            TextureImage texture1 = TextureGenerator.generate(createFlipTestImage(), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), cache);
+            assertEquals(0, stats.getHits());
+            assertEquals(1, stats.getMisses());
+
+            // Same pixels and settings
+            TextureImage texture2 = TextureGenerator.generate(createFlipTestImage(), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), cache);
+            assertEquals(1, stats.getHits());
+            assertEquals(1, stats.getMisses());
+            assertEquals(texture1, texture2);
+
+            // Different flip
+            TextureGenerator.generate(createFlipTestImage(), null, false, EnumSet.noneOf(FlipAxis.class), cache);
+            assertEquals(1, stats.getHits());
+            assertEquals(2, stats.getMisses());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
     @Test
     public void testTextureProfilesMaxSize() throws TextureGeneratorException, IOException {
 
@@ -19,8 +19,10 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
@@ -50,6 +53,7 @@ import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.test.util.MockFileSystem;
 import com.dynamo.bob.test.util.MockResource;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.TaskResult;
 
@@ -179,6 +183,57 @@ public class JBobTest {
         }
     }
 
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Input lines are either paths of resources to depend on, or "sleep <ms>" to wait when built
+    @BuilderParams(name = "WaitBuilder", inExts = ".wait", outExt = ".waitc")
+    public static class WaitBuilder extends Builder<Void> {
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            TaskBuilder<Void> builder = Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addInput(input)
+                    .addOutput(input.changeExt(params.outExt()));
+            for (String line : new String(input.getContent()).split("\n")) {
+                if (!line.isEmpty() && !line.startsWith("sleep ")) {
+                    builder.addInput(input.getResource(line).output());
+                }
+            }
+            return builder.build();
+        }
+
+        @Override
+        public void build(Task<Void> task) throws CompileExceptionError, IOException {
+            for (String line : new String(task.input(0).getContent()).split("\n")) {
+                if (line.startsWith("sleep ")) {
+                    sleep(Long.parseLong(line.substring(6)));
+                }
+            }
+            task.output(0).setContent(task.input(0).getContent());
+        }
+    }
+
+    // Like WaitBuilder, but creates a number task while being built
+    @BuilderParams(name = "LateBuilder", inExts = ".late", outExt = ".latec")
+    public static class LateBuilder extends WaitBuilder {
+        @Override
+        public void build(Task<Void> task) throws CompileExceptionError, IOException {
+            sleep(100);
+            String baseName = FilenameUtils.removeExtension(task.input(0).getPath());
+            IResource numberInput = task.input(0).getResource(baseName + "_late.number").output();
+            numberInput.setContent("5".getBytes());
+            project.buildResource(numberInput);
+            sleep(400);
+            task.output(0).setContent(task.input(0).getContent());
+        }
+    }
+
     @BuilderParams(name = "NumberBuilder", inExts = ".number", outExt = ".numberc")
     public static class NumberBuilder extends Builder<Void> {
         @Override
@@ -280,6 +335,28 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    @Test
+    public void testFailingTaskOnlySkipsDependants() throws Exception {
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        fileSystem.addFile("test3.dynamic", "1\n2\n".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in", "test3.dynamic"));
+        List<TaskResult> result = build();
+        // The archive depends on the failing task and is skipped, everything else is built
+        assertThat(result.size(), is(5));
+        int failed = 0;
+        for (TaskResult r : result) {
+            if (!r.isOk()) {
+                ++failed;
+            }
+        }
+        assertThat(failed, is(1));
+        assertThat(getResourceString("test2.out"), is("B"));
+        assertThat(getResourceString("test3_1.numberc"), is("20"));
+        assertFalse(fileSystem.get("test.arc").output().exists());
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
@@ -330,6 +407,72 @@ public class JBobTest {
         assertThat(result.size(), is(1));
     }
 
+    @Test
+    public void testResourceCache() throws Exception {
+        File cacheDir = Files.createTempDirectory("resource_cache").toFile();
+        try {
+            project.setOption("resource-cache-local", cacheDir.getAbsolutePath());
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(1));
+            CacheStatistics stats = project.getStatistics(Project.RESOURCE_CACHE_STATISTICS);
+            assertThat(stats.getMisses(), is(1L));
+
+            // remove output, restored from the cache
+            fileSystem.get("test.out").output().remove();
+            result = build();
+            assertThat(result.size(), is(1));
+            assertTrue(result.get(0).isOk());
+            stats = project.getStatistics(Project.RESOURCE_CACHE_STATISTICS);
+            assertThat(stats.getHits(), is(1L));
+            assertThat(getResourceString("test.out"), is("test data"));
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testResourceCachePlatforms() throws Exception {
+        File cacheDir = Files.createTempDirectory("resource_cache").toFile();
+        try {
+            project.setOption("resource-cache-local", cacheDir.getAbsolutePath());
+            project.setOption("platform", "x86_64-linux");
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(1));
+
+            // remove output, another platform doesn't share the cached entry
+            fileSystem.get("test.out").output().remove();
+            project.setOption("platform", "js-web");
+            result = build();
+            assertThat(result.size(), is(1));
+            assertTrue(result.get(0).isOk());
+            CacheStatistics stats = project.getStatistics(Project.RESOURCE_CACHE_STATISTICS);
+            assertThat(stats.getHits(), is(0L));
+            assertThat(stats.getMisses(), is(1L));
+
+            // nor another variant
+            fileSystem.get("test.out").output().remove();
+            project.setOption("variant", "debug");
+            result = build();
+            stats = project.getStatistics(Project.RESOURCE_CACHE_STATISTICS);
+            assertThat(stats.getHits(), is(0L));
+            assertThat(stats.getMisses(), is(1L));
+
+            // same platform and variant again
+            fileSystem.get("test.out").output().remove();
+            result = build();
+            stats = project.getStatistics(Project.RESOURCE_CACHE_STATISTICS);
+            assertThat(stats.getHits(), is(1L));
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
     @Test
     public void testRemoveGeneratedOutput() throws Exception {
         fileSystem.addFile("test.dynamic", "1\n2\n".getBytes());
@@ -399,6 +542,73 @@ public class JBobTest {
     }
 
 
+    @Test
+    public void testParallelJobs() throws Exception {
+        project.setOption("jobs", "4");
+        fileSystem.addFile("test.proj", "".getBytes());
+        List<String> inputs = new ArrayList<String>();
+        inputs.add("test.proj");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 32; ++i) {
+            String name = String.format("test%02d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+            expected.append(i);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(33));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        // The archive task depends on all other tasks and is reported last
+        assertThat(result.get(32).getTask().getOutputs().get(0).getPath(), is(fileSystem.get("test.arc").output().getPath()));
+        assertThat(getResourceString("test.arc"), is(expected.toString()));
+
+        // rebuild with same input
+        result = build();
+        assertThat(result.size(), is(0));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void testDynamicParallel() throws Exception {
+        project.setOption("jobs", "4");
+        fileSystem.addFile("test.dynamic", "1\n2\n3\n".getBytes());
+        project.setInputs(Arrays.asList("test.dynamic"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(4));
+        assertThat(getResourceString("test_0.numberc"), is("10"));
+        assertThat(getResourceString("test_1.numberc"), is("20"));
+        assertThat(getResourceString("test_2.numberc"), is("30"));
+        for (int i = 1; i < 4; ++i) {
+            assertThat(result.get(i).getTask().getProductOf(), is((Task) result.get(0).getTask()));
+        }
+    }
+
+    @Test
+    public void testCreatedTaskRank() throws Exception {
+        project.setOption("jobs", "4");
+        // Ranks: y and s 0, x and c 1, e 2 as x comes after it
+        fileSystem.addFile("e.wait", "x.waitc\n".getBytes());
+        fileSystem.addFile("x.wait", "y.waitc\n".getBytes());
+        fileSystem.addFile("c.late", "y.waitc\n".getBytes());
+        fileSystem.addFile("y.wait", "".getBytes());
+        fileSystem.addFile("s.wait", "sleep 300\n".getBytes());
+        project.setInputs(Arrays.asList("e.wait", "x.wait", "c.late", "y.wait", "s.wait"));
+        List<TaskResult> result = build();
+
+        // The number task created by c is ranked after c, even though the outcome
+        // of s is taken while c is still building
+        List<String> order = new ArrayList<String>();
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+            order.add(FilenameUtils.getName(r.getTask().input(0).getPath()));
+        }
+        assertThat(order, is(Arrays.asList("y.wait", "s.wait", "x.wait", "c.late", "e.wait", "c_late.number")));
+        assertThat(getResourceString("c_late.numberc"), is("50"));
+    }
+
     @Test
     public void testChangeOptions() throws Exception {
         fileSystem.addFile("test.c", "f();".getBytes());
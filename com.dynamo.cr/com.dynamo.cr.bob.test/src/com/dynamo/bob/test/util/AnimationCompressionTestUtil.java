@@ -0,0 +1,162 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+import com.dynamo.bob.util.RigUtil;
+import com.dynamo.bob.util.RigUtil.TrackTolerances;
+import com.dynamo.rig.proto.Rig.AnimationSet;
+import com.dynamo.rig.proto.Rig.AnimationTrack;
+import com.dynamo.rig.proto.Rig.RigAnimation;
+
+/**
+ * Size and accuracy checks of compressed animation tracks.
+ */
+public class AnimationCompressionTestUtil {
+
+    // Rounding of the float samples
+    private static final double SLACK = 0.000001;
+
+    public static class Result {
+        public final AnimationSet compressed;
+        public final int size;
+        public final int compressedSize;
+        public final int deflatedSize;
+        public final int compressedDeflatedSize;
+
+        Result(AnimationSet compressed, int size, int compressedSize, int deflatedSize, int compressedDeflatedSize) {
+            this.compressed = compressed;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.deflatedSize = deflatedSize;
+            this.compressedDeflatedSize = compressedDeflatedSize;
+        }
+    }
+
+    private static int deflatedSize(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+        deflater.write(data);
+        deflater.close();
+        return out.size();
+    }
+
+    // Samples of each property of each bone, keyed by "<bone index>:<property>"
+    private static Map<String, List<Float>> collectSamples(RigAnimation animation) {
+        Map<String, List<Float>> samples = new HashMap<String, List<Float>>();
+        for (AnimationTrack track : animation.getTracksList()) {
+            addSamples(samples, track.getBoneIndex() + ":position", track.getPositionsList());
+            addSamples(samples, track.getBoneIndex() + ":rotation", track.getRotationsList());
+            addSamples(samples, track.getBoneIndex() + ":scale", track.getScaleList());
+        }
+        return samples;
+    }
+
+    private static void addSamples(Map<String, List<Float>> samples, String key, List<Float> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        List<Float> list = samples.get(key);
+        if (list == null) {
+            list = new ArrayList<Float>();
+            samples.put(key, list);
+        }
+        list.addAll(values);
+    }
+
+    private static void assertWithinTolerance(String key, List<Float> expected, int index, float[] actual, TrackTolerances tolerances) {
+        if (key.endsWith(":rotation")) {
+            double dot = 0.0;
+            double expectedLength = 0.0;
+            double actualLength = 0.0;
+            for (int c = 0; c < 4; ++c) {
+                dot += expected.get(index + c) * actual[c];
+                expectedLength += expected.get(index + c) * expected.get(index + c);
+                actualLength += actual[c] * actual[c];
+            }
+            double angle = 2.0 * Math.acos(Math.min(1.0, Math.abs(dot) / Math.sqrt(expectedLength * actualLength)));
+            assertTrue(key, angle <= tolerances.rotation + SLACK);
+        } else {
+            double tolerance = key.endsWith(":position") ? tolerances.position : tolerances.scale;
+            for (int c = 0; c < actual.length; ++c) {
+                assertEquals(key, expected.get(index + c), actual[c], tolerance + SLACK);
+            }
+        }
+    }
+
+    private static float[] identity(String key) {
+        if (key.endsWith(":rotation")) {
+            return new float[] {0.0f, 0.0f, 0.0f, 1.0f};
+        } else if (key.endsWith(":scale")) {
+            return new float[] {1.0f, 1.0f, 1.0f};
+        }
+        return new float[] {0.0f, 0.0f, 0.0f};
+    }
+
+    /**
+     * Compress an animation set and check that no sample moved more than the tolerances,
+     * counting removed properties as the bind pose, and that it didn't grow. The deflated
+     * sizes approximate the size in a compressed archive.
+     * @param animationSet sampled animation set
+     * @param tolerances error bounds
+     * @return compressed animation set and its size, before and after deflate compression
+     */
+    public static Result assertCompression(AnimationSet animationSet, TrackTolerances tolerances) throws Exception {
+        AnimationSet.Builder builder = animationSet.toBuilder();
+        RigUtil.compressTracks(builder, tolerances);
+        AnimationSet compressed = builder.build();
+
+        assertEquals(animationSet.getAnimationsCount(), compressed.getAnimationsCount());
+        for (int a = 0; a < animationSet.getAnimationsCount(); ++a) {
+            RigAnimation animation = animationSet.getAnimations(a);
+            RigAnimation compressedAnimation = compressed.getAnimations(a);
+            assertEquals(animation.getId(), compressedAnimation.getId());
+            Map<String, List<Float>> samples = collectSamples(animation);
+            Map<String, List<Float>> compressedSamples = collectSamples(compressedAnimation);
+            for (Map.Entry<String, List<Float>> entry : samples.entrySet()) {
+                String key = entry.getKey();
+                List<Float> expected = entry.getValue();
+                List<Float> actual = compressedSamples.get(key);
+                float[] sample = identity(key);
+                if (actual != null) {
+                    // The runtime layout of animated properties is kept
+                    assertEquals(key, expected.size(), actual.size());
+                }
+                for (int i = 0; i < expected.size(); i += sample.length) {
+                    if (actual != null) {
+                        for (int c = 0; c < sample.length; ++c) {
+                            sample[c] = actual.get(i + c);
+                        }
+                    }
+                    assertWithinTolerance(key, expected, i, sample, tolerances);
+                }
+            }
+            assertTrue(samples.keySet().containsAll(compressedSamples.keySet()));
+        }
+
+        byte[] data = animationSet.toByteArray();
+        byte[] compressedData = compressed.toByteArray();
+        Result result = new Result(compressed, data.length, compressedData.length, deflatedSize(data), deflatedSize(compressedData));
+        assertTrue(result.compressedSize <= result.size);
+        return result;
+    }
+}
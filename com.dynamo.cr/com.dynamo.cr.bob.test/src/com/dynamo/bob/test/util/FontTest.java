@@ -16,7 +16,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
+import java.awt.Font;
 import java.awt.FontFormatException;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -41,11 +48,13 @@ import com.dynamo.bob.font.BMFont;
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.ChannelData;
 import com.dynamo.bob.font.BMFont.Char;
+import com.dynamo.bob.font.DistanceFieldGenerator;
 import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.font.Fontc.FontResourceResolver;
 import com.dynamo.render.proto.Font.FontDesc;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Font.FontMap.Glyph;
+import com.dynamo.render.proto.Font.FontTextureFormat;
 
 public class FontTest {
 
@@ -242,6 +251,54 @@ public class FontTest {
         assertEquals(0xF8FF, fontMap.getGlyphs(fontMap.getGlyphsCount() - 1).getCharacter());
     }
 
+    private FontMap compileFont(FontDesc fontDesc) throws Exception {
+        Fontc fontc = new Fontc();
+        InputStream fontInputStream = getClass().getResourceAsStream(fontDesc.getFont());
+        final String searchPath = FilenameUtils.getBaseName(fontDesc.getFont());
+
+        fontc.compile(fontInputStream, fontDesc, false, new FontResourceResolver() {
+                @Override
+                public InputStream getResource(String resourceName)
+                        throws FileNotFoundException {
+                    return new FileInputStream(Paths.get(searchPath, resourceName).toString());
+                }
+            });
+        fontInputStream.close();
+        return fontc.getFontMap();
+    }
+
+    @Test
+    public void testTTFDeterministic() throws Exception {
+
+        // Glyphs are generated concurrently, but must be stored in the same order every time
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2.0f)
+            .setOutlineAlpha(1.0f)
+            .setShadowAlpha(1.0f)
+            .setShadowBlur(2)
+            .setExtraCharacters("åäöÅÄÖ")
+            .build();
+
+        FontMap first = compileFont(fontDesc);
+        FontMap second = compileFont(fontDesc);
+        assertTrue(first.toByteString().equals(second.toByteString()));
+
+        int offset = 0;
+        for (Glyph glyph : first.getGlyphsList()) {
+            if (glyph.getGlyphDataSize() > 0) {
+                assertEquals(offset, glyph.getGlyphDataOffset());
+                offset += glyph.getGlyphDataSize();
+            }
+        }
+        assertEquals(first.getGlyphData().size(), offset);
+
+        fontDesc = fontDesc.toBuilder().setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD).build();
+        assertTrue(compileFont(fontDesc).toByteString().equals(compileFont(fontDesc).toByteString()));
+    }
+
     @Test
     public void testTTFJapaneseAllChars() throws Exception {
 
@@ -457,4 +514,80 @@ public class FontTest {
         int expectedCharCount = 96; // Taken from bmfont.fnt
         assertEquals(expectedCharCount, fontMap.getGlyphsCount());
     }
+
+    // Distance to the closest line segment, checking every segment
+    private static double distanceToSegments(double[] lineSegments, int lineSegmentsEnd, double x, double y) {
+        double distMin = Double.MAX_VALUE;
+        for (int i = 0; i < lineSegmentsEnd; i += 5) {
+            double x0 = lineSegments[i];
+            double y0 = lineSegments[i+1];
+            double dx = lineSegments[i+2];
+            double dy = lineSegments[i+3];
+            double t = Math.max(0, Math.min(1, lineSegments[i+4] * (dx * (x - x0) + dy * (y - y0))));
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            distMin = Math.min(distMin, px * px + py * py);
+        }
+        return Math.sqrt(distMin);
+    }
+
+    private void assertDistanceField(String fontName, float size, String characters) throws Exception {
+        InputStream fontInputStream = getClass().getResourceAsStream(fontName);
+        Font font = Font.createFont(Font.TRUETYPE_FONT, fontInputStream).deriveFont(size);
+        fontInputStream.close();
+        FontRenderContext fontRendererContext = new FontRenderContext(new AffineTransform(), true, true);
+
+        for (int c = 0; c < characters.length(); ++c) {
+            Shape outline = font.createGlyphVector(fontRendererContext, characters.substring(c, c + 1)).getGlyphOutline(0);
+            DistanceFieldGenerator df = new DistanceFieldGenerator();
+            PathIterator pi = new FlatteningPathIterator(outline.getPathIterator(new AffineTransform()), 0.1);
+            double[] coords = new double[6];
+            double x = 0, y = 0, mx = 0, my = 0;
+            while (!pi.isDone()) {
+                switch (pi.currentSegment(coords)) {
+                    case PathIterator.SEG_MOVETO:
+                        x = mx = coords[0];
+                        y = my = coords[1];
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        df.addLine(x, y, coords[0], coords[1]);
+                        x = coords[0];
+                        y = coords[1];
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        df.addLine(x, y, mx, my);
+                        x = mx;
+                        y = my;
+                        break;
+                }
+                pi.next();
+            }
+            if (df.lineSegmentsEnd == 0) {
+                continue;
+            }
+
+            // Render the glyph bounds with padding, as Fontc does
+            Rectangle2D bounds = outline.getBounds2D();
+            int padding = 4;
+            int width = (int)bounds.getWidth() + padding * 2;
+            int height = (int)bounds.getHeight() + padding * 2;
+            double u0 = bounds.getX() - padding;
+            double v0 = bounds.getY() - padding;
+            double[] distances = new double[width * height];
+            df.render(distances, u0, v0, u0 + width, v0 + height, width, height);
+
+            for (int v = 0; v < height; ++v) {
+                for (int u = 0; u < width; ++u) {
+                    double expected = distanceToSegments(df.lineSegments, df.lineSegmentsEnd, u0 + u, v0 + v);
+                    assertEquals(expected, distances[v * width + u], EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceField() throws Exception {
+        assertDistanceField("Tuffy.ttf", 48, "AaBbgQ@&%8#");
+        assertDistanceField("DroidSansJapanese.ttf", 64, "\u6f22\u5b57\u6771\u4eac\u9b31\u8b77\u9a5a");
+    }
 }
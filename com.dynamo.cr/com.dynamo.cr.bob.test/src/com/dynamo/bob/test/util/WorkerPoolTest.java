@@ -0,0 +1,125 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.dynamo.bob.util.WorkerPool;
+
+public class WorkerPoolTest {
+
+    @After
+    public void tearDown() {
+        WorkerPool.setThreadCount(WorkerPool.DEFAULT_THREAD_COUNT);
+    }
+
+    private static Callable<Thread> currentThread() {
+        return new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        };
+    }
+
+    @Test
+    public void testDefaultThreadCount() throws Exception {
+        // Not bound by the number of build jobs
+        assertEquals(Runtime.getRuntime().availableProcessors(), WorkerPool.getThreadCount());
+    }
+
+    @Test
+    public void testSingleThread() throws Exception {
+        WorkerPool.setThreadCount(1);
+        Future<Thread> future = WorkerPool.submit(currentThread());
+        assertTrue(future.isDone());
+        assertEquals(Thread.currentThread(), future.get());
+    }
+
+    @Test
+    public void testInvokeAll() throws Exception {
+        WorkerPool.setThreadCount(4);
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 100; ++i) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(value % 3);
+                    return value;
+                }
+            });
+        }
+        List<Integer> results = WorkerPool.invokeAll(tasks);
+        assertEquals(100, results.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testNestedWorkRunsOnWorker() throws Exception {
+        WorkerPool.setThreadCount(2);
+        Future<Thread[]> future = WorkerPool.submit(new Callable<Thread[]>() {
+            @Override
+            public Thread[] call() throws Exception {
+                return new Thread[] { Thread.currentThread(), WorkerPool.submit(currentThread()).get() };
+            }
+        });
+        Thread[] threads = future.get();
+        assertNotEquals(Thread.currentThread(), threads[0]);
+        assertEquals(threads[0], threads[1]);
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        WorkerPool.setThreadCount(2);
+        Future<Void> future = WorkerPool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IOException("io");
+            }
+        });
+        try {
+            WorkerPool.get(future, IOException.class);
+            fail();
+        } catch (IOException e) {
+            assertEquals("io", e.getMessage());
+        }
+
+        future = WorkerPool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IllegalStateException("state");
+            }
+        });
+        try {
+            WorkerPool.get(future, IOException.class);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("state", e.getMessage());
+        }
+    }
+}
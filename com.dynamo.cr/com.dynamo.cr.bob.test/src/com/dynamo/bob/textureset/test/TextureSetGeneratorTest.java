@@ -14,13 +14,17 @@ package com.dynamo.bob.textureset.test;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -29,6 +33,9 @@ import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSetAnimation;
 import com.dynamo.tile.proto.Tile.Playback;
@@ -92,7 +99,7 @@ public class TextureSetGeneratorTest {
         }
     }
 
-    BufferedImage newImage(int w, int h) {
+    static BufferedImage newImage(int w, int h) {
         return new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
     }
 
@@ -227,6 +234,101 @@ public class TextureSetGeneratorTest {
         assertUVTransform(0.5f, 1.0f, 0.5f, -0.5f, getUvTransforms(result.uvTransforms, textureSet, "anim1", 2));
     }
 
+    private static BufferedImage newRandomImage(Random random, int w, int h) {
+        BufferedImage image = newImage(w, h);
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static TextureSetResult calculateLayout(List<BufferedImage> images, List<String> ids, AnimIterator iterator, Layout previousLayout) {
+        List<Rect> rects = new ArrayList<Rect>();
+        List<SpriteGeometry> hulls = new ArrayList<SpriteGeometry>();
+        for (int i = 0; i < images.size(); ++i) {
+            rects.add(new Rect(ids.get(i), i, images.get(i).getWidth(), images.get(i).getHeight()));
+            hulls.add(TextureSetGenerator.buildConvexHull(images.get(i), 0));
+        }
+        return TextureSetGenerator.calculateLayout(rects, hulls, 0, iterator, 2, 1, 2, true, false, null, previousLayout);
+    }
+
+    private static byte[] getPixels(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    public void testIncrementalLayout() throws Exception {
+        Random random = new Random(7);
+        List<BufferedImage> images = Arrays.asList(newRandomImage(random, 64, 32), newRandomImage(random, 32, 64),
+                newRandomImage(random, 16, 16), newRandomImage(random, 24, 8));
+
+        List<String> ids = Arrays.asList("1", "2", "3", "4");
+        List<Integer> hullSizes = Arrays.asList(0, 0, 0, 0);
+
+        List<MappedAnimDesc> animations = new ArrayList<MappedAnimDesc>();
+        animations.add(newAnim("anim1", Arrays.asList("1", "2", "3")));
+
+        TextureSetResult previous = TextureSetGenerator.generate(new ArrayList<BufferedImage>(images), hullSizes, ids, new MappedAnimIterator(animations, ids), 2, 1, 2, true, false, null);
+        Layout previousLayout = previous.layoutResult.layout;
+
+        // Same sizes, the previous layout is reused and gives the same texture set
+        List<BufferedImage> changedImages = new ArrayList<BufferedImage>(images);
+        changedImages.set(2, newRandomImage(random, 16, 16));
+        TextureSetResult result = calculateLayout(changedImages, ids, new MappedAnimIterator(animations, ids), previousLayout);
+        assertTrue(TextureSetGenerator.isSameLayout(previousLayout, result.layoutResult.layout));
+
+        TextureSetResult expected = TextureSetGenerator.generate(new ArrayList<BufferedImage>(changedImages), hullSizes, ids, new MappedAnimIterator(animations, ids), 2, 1, 2, true, false, null);
+        assertEquals(expected.builder.setTexture("").build(), result.builder.setTexture("").build());
+
+        // Only draw the changed image into the previous image
+        List<BufferedImage> patchImages = new ArrayList<BufferedImage>(Arrays.asList((BufferedImage) null, null, changedImages.get(2), null));
+        TextureSetGenerator.drawImages(previous.image, result.layoutResult, patchImages);
+        assertTrue(Arrays.equals(getPixels(expected.image), getPixels(previous.image)));
+
+        // Drawing all images into an empty image is the same as a full generate
+        BufferedImage image = newImage(expected.image.getWidth(), expected.image.getHeight());
+        TextureSetGenerator.drawImages(image, result.layoutResult, changedImages);
+        assertTrue(Arrays.equals(getPixels(expected.image), getPixels(image)));
+
+        // Changed size, the images are packed again
+        changedImages.set(3, newRandomImage(random, 40, 40));
+        result = calculateLayout(changedImages, ids, new MappedAnimIterator(animations, ids), previousLayout);
+        expected = TextureSetGenerator.generate(new ArrayList<BufferedImage>(changedImages), hullSizes, ids, new MappedAnimIterator(animations, ids), 2, 1, 2, true, false, null);
+        assertTrue(TextureSetGenerator.isSameLayout(expected.layoutResult.layout, result.layoutResult.layout));
+        assertFalse(TextureSetGenerator.isSameLayout(previousLayout, result.layoutResult.layout));
+
+        // Two images of the same size swap places. The rects hold other images than before,
+        // so the previous layout isn't reused and all images are drawn again
+        List<BufferedImage> sameSizeImages = Arrays.asList(newRandomImage(random, 16, 16), newRandomImage(random, 16, 16), newRandomImage(random, 32, 8));
+        List<String> sameSizeIds = Arrays.asList("a", "b", "c");
+        List<Integer> sameSizeHullSizes = Arrays.asList(0, 0, 0);
+        animations = new ArrayList<MappedAnimDesc>();
+        animations.add(newAnim("anim1", Arrays.asList("a", "b")));
+        previous = TextureSetGenerator.generate(new ArrayList<BufferedImage>(sameSizeImages), sameSizeHullSizes, sameSizeIds, new MappedAnimIterator(animations, sameSizeIds), 2, 1, 2, true, false, null);
+        previousLayout = previous.layoutResult.layout;
+
+        List<BufferedImage> swappedImages = Arrays.asList(sameSizeImages.get(1), sameSizeImages.get(0), sameSizeImages.get(2));
+        List<String> swappedIds = Arrays.asList("b", "a", "c");
+        result = calculateLayout(swappedImages, swappedIds, new MappedAnimIterator(animations, swappedIds), previousLayout);
+        assertFalse(TextureSetGenerator.isSameLayout(previousLayout, result.layoutResult.layout));
+        expected = TextureSetGenerator.generate(new ArrayList<BufferedImage>(swappedImages), sameSizeHullSizes, swappedIds, new MappedAnimIterator(animations, swappedIds), 2, 1, 2, true, false, null);
+        assertEquals(expected.builder.setTexture("").build(), result.builder.setTexture("").build());
+        image = newImage(expected.image.getWidth(), expected.image.getHeight());
+        TextureSetGenerator.drawImages(image, result.layoutResult, swappedImages);
+        assertTrue(Arrays.equals(getPixels(expected.image), getPixels(image)));
+
+        // A renamed image of the same size isn't placed in the rect of the old image either
+        List<String> renamedIds = Arrays.asList("a", "renamed", "c");
+        animations = new ArrayList<MappedAnimDesc>();
+        animations.add(newAnim("anim1", Arrays.asList("a", "renamed")));
+        result = calculateLayout(sameSizeImages, renamedIds, new MappedAnimIterator(animations, renamedIds), previousLayout);
+        assertFalse(TextureSetGenerator.isSameLayout(previousLayout, result.layoutResult.layout));
+        expected = TextureSetGenerator.generate(new ArrayList<BufferedImage>(sameSizeImages), sameSizeHullSizes, renamedIds, new MappedAnimIterator(animations, renamedIds), 2, 1, 2, true, false, null);
+        assertTrue(TextureSetGenerator.isSameLayout(expected.layoutResult.layout, result.layoutResult.layout));
+    }
+
     private static int getFrameIndex(TextureSet textureSet, String id, int frame) {
         return textureSet.getFrameIndices(getAnim(textureSet, id).getStart() + frame);
     }
@@ -34,6 +34,8 @@ import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.tile.TileSetGenerator;
 import com.dynamo.bob.tile.TileSetGenerator.IndexedAnimDesc;
 import com.dynamo.bob.tile.TileSetGenerator.IndexedAnimIterator;
+import com.dynamo.bob.tile.TileSetUtil;
+import com.dynamo.bob.tile.TileSetUtil.ConvexHulls;
 import com.dynamo.textureset.proto.TextureSetProto;
 import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
@@ -216,6 +218,54 @@ public class TileSetGeneratorTest {
     }
 
 
+    @Test
+    public void testCollisionConvexHulls() {
+        // More tiles per row than are calculated by one task
+        int tileSize = 8;
+        int tileMargin = 1;
+        int tileSpacing = 2;
+        int tileStride = 2 * tileMargin + tileSpacing + tileSize;
+        int tilesPerRow = 70;
+        int tilesPerColumn = 3;
+        BufferedImage image = new BufferedImage(tilesPerRow * tileStride - tileSpacing, tilesPerColumn * tileStride - tileSpacing, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics g = image.getGraphics();
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < tilesPerRow * tilesPerColumn; ++i) {
+            int x = tileMargin + (i % tilesPerRow) * tileStride;
+            int y = tileMargin + (i / tilesPerRow) * tileStride;
+            // Leave some tiles empty
+            if (i % 7 != 0) {
+                g.fillRect(x + i % 3, y + i % 5, 1 + i % tileSize, 1 + (i / 2) % tileSize);
+            }
+        }
+        g.dispose();
+
+        ConvexHulls hulls = TileSetGenerator.calculateConvexHulls(image.getAlphaRaster(), 16, image.getWidth(), image.getHeight(),
+                tileSize, tileSize, tileMargin, tileSpacing);
+        assertEquals(tilesPerRow * tilesPerColumn, hulls.hulls.length);
+
+        // Same result as the serial implementation shared with the editor
+        ConvexHulls serialHulls = TileSetUtil.calculateConvexHulls(image.getAlphaRaster(), 16, image.getWidth(), image.getHeight(),
+                tileSize, tileSize, tileMargin, tileSpacing);
+        assertArrayEquals(serialHulls.points, hulls.points, 0.0f);
+
+        // Same hulls, in tile order, as when calculating each tile on its own
+        int pointCount = 0;
+        for (int i = 0; i < hulls.hulls.length; ++i) {
+            int x = tileMargin + (i % tilesPerRow) * tileStride;
+            int y = tileMargin + (i / tilesPerRow) * tileStride;
+            BufferedImage tile = image.getSubimage(x, y, tileSize, tileSize);
+            ConvexHulls expected = TileSetUtil.calculateConvexHulls(tile.getAlphaRaster(), 16, tileSize, tileSize,
+                    tileSize, tileSize, 0, 0);
+            assertEquals(pointCount, hulls.hulls[i].getIndex());
+            assertEquals(expected.hulls[0].getCount(), hulls.hulls[i].getCount());
+            float[] points = Arrays.copyOfRange(hulls.points, pointCount * 2, (pointCount + hulls.hulls[i].getCount()) * 2);
+            assertArrayEquals(expected.points, points, 0.0f);
+            pointCount += hulls.hulls[i].getCount();
+        }
+        assertEquals(pointCount * 2, hulls.points.length);
+    }
+
     private static void assertQuadTexCoords(ByteBuffer b, float minU, float maxU, float minV, float maxV, boolean rotated) {
         if (rotated) {
             assertThat(b.getFloat(), is(minU));
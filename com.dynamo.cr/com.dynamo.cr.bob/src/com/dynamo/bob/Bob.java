@@ -362,6 +362,9 @@ public class Bob {
         options.addOption("v", "verbose", false, "Verbose output");
         options.addOption("h", "help", false, "This help message");
         options.addOption("a", "archive", false, "Build archive");
+        options.addOption(null, "archive-incremental", false, "Reuse unchanged entries from the previous archive in the build folder when building the archive");
+        options.addOption(null, "atlas-incremental", false, "Reuse the layout of the previous build in the build folder, and only redraw changed images, when building atlases");
+        options.addOption(null, "compress-animations", false, "Remove bone tracks that stay at the bind pose, and make near constant tracks constant, when building animation sets. Removed tracks no longer take part in animation cross-fades");
         options.addOption("e", "email", true, "User email");
         options.addOption("u", "auth", true, "User auth token");
 
@@ -400,6 +403,14 @@ public class Bob {
 
         options.addOption(null, "version", false, "Prints the version number to the output");
 
+        options.addOption("j", "jobs", true, "Number of build tasks to run in parallel. Default is 1. Work split up inside a task, e.g. texture compression, font glyphs and convex hulls, always runs on a shared pool of one thread per processor");
+
+        options.addOption(null, "resource-cache-local", true, "Path to a local directory where built resources are cached and shared between projects");
+        options.addOption(null, "resource-cache-local-size", true, "Max size of the local resource cache in megabytes. Default is " + Project.DEFAULT_RESOURCE_CACHE_LOCAL_SIZE);
+        options.addOption(null, "resource-cache-remote", true, "URL to a HTTP server where built resources are cached and shared between builds");
+        options.addOption(null, "texture-cache", true, "Path to a local directory where transcoded textures are cached between builds. Default is " + Project.CACHE_DIR + "/textures in the project");
+        options.addOption(null, "texture-cache-size", true, "Max size of the texture cache in megabytes, 0 disables the cache. Default is " + Project.DEFAULT_TEXTURE_CACHE_SIZE);
+
         // debug options
         options.addOption(null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip");
 
@@ -548,6 +559,45 @@ public class Bob {
 
         project.setOption("architectures", String.join(",", uniqueArchitectures));
 
+        if (cmd.hasOption("jobs")) {
+            int jobs = 0;
+            try {
+                jobs = Integer.parseInt(cmd.getOptionValue("jobs"));
+            } catch (NumberFormatException e) {
+            }
+            if (jobs < 1) {
+                System.out.println(String.format("ERROR! --jobs must be a positive number, got '%s'", cmd.getOptionValue("jobs")));
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (cmd.hasOption("resource-cache-local-size")) {
+            long size = 0;
+            try {
+                size = Long.parseLong(cmd.getOptionValue("resource-cache-local-size"));
+            } catch (NumberFormatException e) {
+            }
+            if (size < 1) {
+                System.out.println(String.format("ERROR! --resource-cache-local-size must be a positive number, got '%s'", cmd.getOptionValue("resource-cache-local-size")));
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (cmd.hasOption("texture-cache-size")) {
+            long size = -1;
+            try {
+                size = Long.parseLong(cmd.getOptionValue("texture-cache-size"));
+            } catch (NumberFormatException e) {
+            }
+            if (size < 0) {
+                System.out.println(String.format("ERROR! --texture-cache-size must be zero or a positive number, got '%s'", cmd.getOptionValue("texture-cache-size")));
+                System.exit(1);
+                return;
+            }
+        }
+
         boolean shouldPublish = getOptionsValue(cmd, 'l', "no").equals("yes");
         project.setOption("liveupdate", shouldPublish ? "true" : "false");
 
@@ -16,6 +16,7 @@ import static org.apache.commons.io.FilenameUtils.normalizeNoEndSeparator;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileInputStream;
@@ -41,9 +42,17 @@ import java.util.Enumeration;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -76,15 +85,24 @@ import com.dynamo.bob.bundle.LinuxBundler;
 import com.dynamo.bob.bundle.OSXBundler;
 import com.dynamo.bob.bundle.Win32Bundler;
 import com.dynamo.bob.bundle.Win64Bundler;
+import com.dynamo.bob.cache.HttpResourceCache;
+import com.dynamo.bob.cache.LocalResourceCache;
+import com.dynamo.bob.cache.MemoryCache;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.pipeline.ExtenderUtil;
+import com.dynamo.bob.pipeline.TextureCache;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.ReportGenerator;
+import com.dynamo.bob.util.WorkerPool;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 
 /**
@@ -96,6 +114,12 @@ public class Project {
 
     public final static String LIB_DIR = ".internal/lib";
     public final static String CACHE_DIR = ".internal/cache";
+    public final static String RESOURCE_CACHE_STATISTICS = "resource-cache";
+    // Default max size of the local resource cache, in megabytes
+    public final static long DEFAULT_RESOURCE_CACHE_LOCAL_SIZE = 1024;
+    public final static String TEXTURE_CACHE_STATISTICS = "texture-cache";
+    // Default max size of the texture cache, in megabytes
+    public final static long DEFAULT_TEXTURE_CACHE_SIZE = 512;
 
     public enum OutputFlags {
         NONE,
@@ -107,6 +131,8 @@ public class Project {
     private List<String> inputs = new ArrayList<String>();
     private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
     private ArrayList<Task<?>> newTasks;
+    // Tasks created by the task running on the current thread
+    private final ThreadLocal<List<Task<?>>> createdTasks = new ThreadLocal<List<Task<?>>>();
     private State state;
     private String rootDirectory = ".";
     private String buildDirectory = "build";
@@ -114,6 +140,12 @@ public class Project {
     private List<URL> libUrls = new ArrayList<URL>();
     private final List<String> excludedCollectionProxies = new ArrayList<String>();
     private List<String> propertyFiles = new ArrayList<String>();
+    private ResourceCache resourceCache = new ResourceCache();
+    private String resourceCacheEnvironment = "";
+    private ResourceCache textureCache;
+    private Map<String, CacheStatistics> statistics = new LinkedHashMap<String, CacheStatistics>();
+    private Map<String, MemoryCache<?, ?>> memoryCaches = new HashMap<String, MemoryCache<?, ?>>();
+    private Map<String, Closeable> buildServices = new LinkedHashMap<String, Closeable>();
 
     private BobProjectProperties projectProperties;
     private Publisher publisher;
@@ -285,7 +317,7 @@ public class Project {
 
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addNewTask(task);
         }
         return task;
     }
@@ -300,7 +332,7 @@ public class Project {
     public Task<?> buildResource(IResource input, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addNewTask(task);
         }
         return task;
     }
@@ -780,6 +812,9 @@ public class Project {
     }
 
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws IOException, CompileExceptionError, MultipleCompileException {
+        clearStatistics();
+        clearMemoryCaches();
+        setupResourceCache();
         fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
         state = State.load(stateResource);
@@ -817,7 +852,11 @@ public class Project {
                     IProgress m = monitor.subProgress(99);
                     BundleHelper.throwIfCanceled(monitor);
                     m.beginTask("Building...", newTasks.size());
-                    result = runTasks(m);
+                    try {
+                        result = runTasks(m);
+                    } finally {
+                        closeBuildServices();
+                    }
                     m.done();
                     if (anyFailing(result)) {
                         break loop;
@@ -915,159 +954,388 @@ public class Project {
         return result;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+    /**
+     * Get the number of tasks to build in parallel, as set by the "jobs" option
+     * @return number of build jobs, at least 1
+     */
+    public int getJobs() {
+        int jobs = 1;
+        try {
+            jobs = Integer.parseInt(option("jobs", "1"));
+        } catch (NumberFormatException e) {
+            logWarning("Invalid number of jobs '%s', building with a single job", option("jobs", ""));
+        }
+        return Math.max(1, jobs);
+    }
 
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
+    private void addNewTask(Task<?> task) {
+        // Tasks created while a task is being built belong to that task, see runTasks
+        List<Task<?>> created = createdTasks.get();
+        if (created != null) {
+            created.add(task);
+            return;
+        }
+        synchronized (this) {
+            newTasks.add(task);
+        }
+    }
 
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+    private synchronized List<Task<?>> takeNewTasks() {
+        List<Task<?>> tasks = new ArrayList<Task<?>>(newTasks);
+        newTasks.clear();
+        return tasks;
+    }
 
-        List<TaskResult> result = new ArrayList<>();
+    /**
+     * Result of running a single task on a worker thread
+     */
+    private static class TaskOutcome {
+        Task<?> task;
+        // null if the task was already up to date
+        TaskResult result;
+        boolean abort = false;
+        // Tasks created while building the task, in creation order
+        List<Task<?>> created;
+    }
 
-        List<Task<?>> tasks = new ArrayList<>(newTasks);
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : newTasks) {
-            allOutputs.addAll(task.getOutputs());
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskOutcome runTask(Task<?> task) throws IOException {
+        TaskOutcome outcome = new TaskOutcome();
+        outcome.task = task;
+
+        byte[] taskSignature = task.calculateSignature(this);
+
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
         }
-        newTasks.clear();
 
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        boolean allSigsEquals = true;
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
         }
 
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < tasks.size()) {
-            for (Task<?> task : tasks) {
-                BundleHelper.throwIfCanceled(monitor);
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
-                    continue;
+        if (allOutputExists && allSigsEquals) {
+            // Task is successfully completed in a previous build
+            return outcome;
+        }
+
+        TaskResult taskResult = new TaskResult(task);
+        outcome.result = taskResult;
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        try {
+            boolean cached = fetchFromResourceCache(task, taskSignature);
+            if (!cached) {
+                builder.build(task);
+            }
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), taskSignature);
+            }
+
+            for (IResource r : task.getOutputs()) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
                 }
+            }
+            if (ok && !cached) {
+                pushToResourceCache(task, taskSignature);
+            }
+        } catch (CompileExceptionError e) {
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+            outcome.abort = true;
 
-                monitor.worked(1);
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
+            }
+        }
+        return outcome;
+    }
 
-                byte[] taskSignature = task.calculateSignature(this);
+    /**
+     * Restore the outputs of a task from the resource cache. Outputs are only
+     * written if all of them are found in the cache.
+     * @return true if the outputs were restored
+     */
+    private boolean fetchFromResourceCache(Task<?> task, byte[] taskSignature) throws IOException {
+        if (!resourceCache.isEnabled() || task.getOutputs().isEmpty()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        CacheStatistics stats = getStatistics(RESOURCE_CACHE_STATISTICS);
+        List<IResource> outputs = task.getOutputs();
+        List<byte[]> contents = new ArrayList<byte[]>(outputs.size());
+        for (IResource r : outputs) {
+            byte[] content = resourceCache.get(ResourceCache.calculateKey(resourceCacheEnvironment, taskSignature, r.getPath()));
+            if (content == null) {
+                stats.miss(System.nanoTime() - start);
+                return false;
+            }
+            contents.add(content);
+        }
+        for (int i = 0; i < outputs.size(); ++i) {
+            outputs.get(i).setContent(contents.get(i));
+        }
+        stats.hit(System.nanoTime() - start);
+        return true;
+    }
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : task.getOutputs()) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
+    private void pushToResourceCache(Task<?> task, byte[] taskSignature) throws IOException {
+        if (!resourceCache.isEnabled()) {
+            return;
+        }
+        for (IResource r : task.getOutputs()) {
+            resourceCache.put(ResourceCache.calculateKey(resourceCacheEnvironment, taskSignature, r.getPath()), r.getContent());
+        }
+    }
+
+    /**
+     * Options that change the outputs of tasks without being part of the task signatures.
+     * Their values are part of the resource cache keys, so that a shared cache never
+     * returns outputs built for another platform or variant.
+     */
+    private static final String[] RESOURCE_CACHE_KEY_OPTIONS = {
+        "variant", "texture-compression", "use-vanilla-lua", "architectures", "keep-unused", "liveupdate"
+    };
+
+    /**
+     * Create the resource cache from the "resource-cache-local", "resource-cache-local-size"
+     * (in megabytes) and "resource-cache-remote" options. The cache is disabled if none is set.
+     */
+    private void setupResourceCache() throws IOException, CompileExceptionError {
+        resourceCache = new ResourceCache();
+        String localDir = option("resource-cache-local", null);
+        if (localDir != null) {
+            long maxSize = Long.parseLong(option("resource-cache-local-size", Long.toString(DEFAULT_RESOURCE_CACHE_LOCAL_SIZE)));
+            resourceCache.addCache(new LocalResourceCache(new File(localDir), maxSize * 1024 * 1024));
+        }
+        String remoteUrl = option("resource-cache-remote", null);
+        if (remoteUrl != null) {
+            resourceCache.addCache(new HttpResourceCache(new URL(remoteUrl)));
+        }
+        if (resourceCache.isEnabled()) {
+            StringBuilder environment = new StringBuilder();
+            environment.append(EngineVersion.sha1);
+            environment.append(":platform=").append(getPlatform().getPair());
+            for (String key : RESOURCE_CACHE_KEY_OPTIONS) {
+                environment.append(":").append(key).append("=").append(option(key, ""));
+            }
+            resourceCacheEnvironment = environment.toString();
+        }
+    }
+
+    /**
+     * Get the cache of transcoded textures. The cache is stored in the "texture-cache" directory,
+     * by default .internal/cache/textures, and kept across builds. The size is bounded by the
+     * "texture-cache-size" option (in megabytes), a size of 0 disables the cache.
+     * @return texture cache or null if disabled
+     */
+    public TextureCache getTextureCache() {
+        ResourceCache cache;
+        synchronized (this) {
+            if (textureCache == null) {
+                textureCache = new ResourceCache();
+                long maxSize = Long.parseLong(option("texture-cache-size", Long.toString(DEFAULT_TEXTURE_CACHE_SIZE)));
+                if (maxSize > 0) {
+                    String dir = option("texture-cache", FilenameUtils.concat(getBuildCachePath(), "textures"));
+                    try {
+                        textureCache.addCache(new LocalResourceCache(new File(dir), maxSize * 1024 * 1024));
+                    } catch (IOException e) {
+                        System.err.println(String.format("Texture cache disabled: %s", e.getMessage()));
                     }
                 }
+            }
+            cache = textureCache;
+        }
+        if (!cache.isEnabled()) {
+            return null;
+        }
+        return new TextureCache(cache, getStatistics(TEXTURE_CACHE_STATISTICS));
+    }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                List<byte[]> outputSigs = new ArrayList<byte[]>();
-                for (IResource r : task.getOutputs()) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    outputSigs.add(s);
+    private static TaskOutcome takeOutcome(CompletionService<TaskOutcome> completion) throws IOException {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Calculate the digests of all source inputs (i.e. inputs not produced by another task)
+     * in parallel, so that they are cached when the task signatures are calculated.
+     * Only files on disk have their digests cached, see {@link DefaultFileSystem}.
+     * Errors are ignored here and reported when the tasks are run.
+     */
+    private void warmDigestCache(List<Task<?>> tasks, Set<IResource> allOutputs) {
+        Set<IResource> sources = new LinkedHashSet<>();
+        for (Task<?> task : tasks) {
+            for (IResource input : task.getInputs()) {
+                if (input instanceof DefaultResource && !allOutputs.contains(input)) {
+                    sources.add(input);
                 }
-                boolean allSigsEquals = true;
-                for (byte[] sig : outputSigs) {
-                    if (!Arrays.equals(sig, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
+            }
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        List<Callable<byte[]>> digests = new ArrayList<>(sources.size());
+        for (final IResource source : sources) {
+            digests.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    try {
+                        return source.exists() ? source.sha1() : null;
+                    } catch (IOException | RuntimeException e) {
+                        // Reported by the task
+                        return null;
                     }
                 }
+            });
+        }
+        WorkerPool.invokeAll(digests);
+    }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+        List<Task<?>> tasks = takeNewTasks();
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(task.getOutputs());
-                    }
-                    continue;
-                }
+        // set of *all* possible output files
+        Set<IResource> allOutputs = new HashSet<>();
+        for (Task<?> task : tasks) {
+            allOutputs.addAll(task.getOutputs());
+        }
 
-                completedTasks.add(task);
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>(allOutputs.size());
+        for (IResource res : allOutputs) {
+            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        }
 
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                try {
-                    builder.build(task);
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), taskSignature);
-                    }
+        // The dependency graph is built from task inputs and outputs. Tasks are
+        // handed to the worker pool as soon as all tasks producing their inputs
+        // have completed, either in this session or in a previous one (output
+        // already exists with correct signature).
+        final TaskGraph graph = new TaskGraph();
+        graph.addTasks(tasks, 0);
+
+        warmDigestCache(tasks, allOutputs);
+
+        final int jobs = getJobs();
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        CompletionService<TaskOutcome> completion = new ExecutorCompletionService<TaskOutcome>(executor);
+        List<TaskResult> result = new ArrayList<>();
 
-                    for (IResource r : task.getOutputs()) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
+        // A failed task only stops the tasks depending on it, everything else is
+        // still built so that all errors are reported at once. An unexpected exception
+        // stops scheduling immediately.
+        boolean abort = false;
+        int running = 0;
+        try {
+            while (true) {
+                BundleHelper.throwIfCanceled(monitor);
+                while (!abort && running < jobs && graph.hasReady()) {
+                    final Task<?> task = graph.pollReady().getTask();
+                    completion.submit(new Callable<TaskOutcome>() {
+                        @Override
+                        public TaskOutcome call() throws Exception {
+                            List<Task<?>> created = new ArrayList<Task<?>>();
+                            createdTasks.set(created);
+                            try {
+                                TaskOutcome outcome = runTask(task);
+                                outcome.created = created;
+                                return outcome;
+                            } finally {
+                                createdTasks.remove();
+                            }
                         }
-                    }
-                    completedOutputs.addAll(task.getOutputs());
+                    });
+                    ++running;
+                }
+                if (running == 0) {
+                    break;
+                }
 
-                } catch (CompileExceptionError e) {
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
+                TaskOutcome outcome = takeOutcome(completion);
+                --running;
+                monitor.worked(1);
 
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
+                TaskGraph.Node node = graph.getNode(outcome.task);
+                if (outcome.result == null || outcome.result.isOk()) {
+                    graph.complete(outcome.task);
+                } else {
+                    List<Task<?>> skipped = graph.fail(outcome.task);
+                    monitor.worked(skipped.size());
+                    abort |= outcome.abort;
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
-                    }
-                    if (abort) {
-                        break run;
-                    }
+                if (outcome.result != null) {
+                    result.add(outcome.result);
+                }
+
+                // Tasks created while building, see buildResource, are ranked after the
+                // task that created them, whichever order the tasks complete in
+                if (!outcome.created.isEmpty()) {
+                    graph.addTasks(outcome.created, node.getRank() + 1);
+                }
+                // Tasks created on other threads, e.g. by work split up on the worker pool,
+                // can't be attributed to a task
+                List<Task<?>> orphans = takeNewTasks();
+                if (!orphans.isEmpty()) {
+                    graph.addTasks(orphans, node.getRank() + 1);
                 }
             }
-            if (taskFailed) {
-                break;
-            }
-            // set of *all* possible output files
-            for (Task<?> task : newTasks) {
-                allOutputs.addAll(task.getOutputs());
-            }
-            tasks.addAll(newTasks);
-            newTasks.clear();
+        } finally {
+            executor.shutdownNow();
         }
+
+        // Report results in the order the tasks would have been run by a single job
+        Collections.sort(result, new Comparator<TaskResult>() {
+            @Override
+            public int compare(TaskResult r1, TaskResult r2) {
+                return TaskGraph.ORDER.compare(graph.getNode(r1.getTask()), graph.getNode(r2.getTask()));
+            }
+        });
         return result;
     }
 
@@ -1079,6 +1347,86 @@ run:
         this.inputs = new ArrayList<String>(inputs);
     }
 
+    /**
+     * Get the statistics for a named build cache, created on first use.
+     * Statistics are cleared at the start of every build and included in the build report.
+     * @param name cache name, e.g. "gui-spine-scenes"
+     * @return statistics instance
+     */
+    public synchronized CacheStatistics getStatistics(String name) {
+        CacheStatistics stats = statistics.get(name);
+        if (stats == null) {
+            stats = new CacheStatistics(name);
+            statistics.put(name, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Get all cache statistics gathered during the current build
+     * @return list of statistics, in order of first use
+     */
+    public synchronized List<CacheStatistics> getAllStatistics() {
+        return new ArrayList<CacheStatistics>(statistics.values());
+    }
+
+    private synchronized void clearStatistics() {
+        statistics.clear();
+    }
+
+    /**
+     * Get a named in-memory cache shared by all tasks in the build, created on first use.
+     * Memory caches are cleared at the start of every build.
+     * @param name cache name, e.g. "collada-documents"
+     * @param maxWeight maximum total weight of the cache, used when the cache is created
+     * @return cache instance
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <K, V> MemoryCache<K, V> getMemoryCache(String name, long maxWeight) {
+        MemoryCache<K, V> cache = (MemoryCache<K, V>) memoryCaches.get(name);
+        if (cache == null) {
+            cache = new MemoryCache<K, V>(maxWeight);
+            memoryCaches.put(name, cache);
+        }
+        return cache;
+    }
+
+    private synchronized void clearMemoryCaches() {
+        memoryCaches.clear();
+    }
+
+    /**
+     * Factory of build services, see {@link Project#getBuildService(String, IBuildServiceFactory)}
+     */
+    public interface IBuildServiceFactory<T extends Closeable> {
+        T create() throws IOException;
+    }
+
+    /**
+     * Get a named service shared by all tasks in the build, such as a pool of compiler
+     * processes, created on first use. Services are closed when the build tasks are done.
+     * @param name service name
+     * @param factory factory used to create the service
+     * @return service instance
+     * @throws IOException if the service could not be created
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends Closeable> T getBuildService(String name, IBuildServiceFactory<T> factory) throws IOException {
+        T service = (T) buildServices.get(name);
+        if (service == null) {
+            service = factory.create();
+            buildServices.put(name, service);
+        }
+        return service;
+    }
+
+    private synchronized void closeBuildServices() {
+        for (Closeable service : buildServices.values()) {
+            IOUtils.closeQuietly(service);
+        }
+        buildServices.clear();
+    }
+
     public HashMap<String, EnumSet<OutputFlags>> getOutputs() {
         return outputs;
     }
@@ -1088,7 +1436,7 @@ run:
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
-    public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
+    public synchronized boolean addOutputFlags(String resourcePath, OutputFlags flag) {
         EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
         if(currentFlags == null) {
             return false;
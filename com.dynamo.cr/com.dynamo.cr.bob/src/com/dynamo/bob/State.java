@@ -13,25 +13,31 @@
 package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.dynamo.bob.fs.DefaultResource;
+import com.dynamo.bob.fs.DigestStore;
 import com.dynamo.bob.fs.IResource;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ *
+ * The state is stored as a {@link DigestStore}. States saved with java serialization
+ * by older versions are still read, and are converted when saved.
  * @author Christian Murray
  *
  */
 public class State implements Serializable {
 
     private static final long serialVersionUID = -275410118302470803L;
+    // Only used when reading a serialized state from older versions
     private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+    private transient DigestStore store = new DigestStore();
 
     /**
      * Get signature for path
@@ -39,7 +45,7 @@ public class State implements Serializable {
      * @return signature or null of no mapping exists
      */
     public byte[] getSignature(String path) {
-        return signatures.get(path);
+        return store.getDigest(path);
     }
 
     /**
@@ -48,7 +54,18 @@ public class State implements Serializable {
      * @param signature signature to set
      */
     public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+        store.put(path, 0, signature);
+    }
+
+    private static State migrate(byte[] content) throws IOException, ClassNotFoundException {
+        ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
+        State state = (State) is.readObject();
+        state.store = new DigestStore();
+        for (Map.Entry<String, byte[]> e : state.signatures.entrySet()) {
+            state.store.put(e.getKey(), 0, e.getValue());
+        }
+        state.signatures = new HashMap<String, byte[]>();
+        return state;
     }
 
     /**
@@ -58,33 +75,47 @@ public class State implements Serializable {
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
+        try {
+            if (resource instanceof DefaultResource) {
+                // Map the file directly instead of reading all content
+                File file = new File(resource.getAbsPath());
+                if (!file.isFile()) {
+                    return new State();
+                }
+                if (DigestStore.isDigestStore(file)) {
+                    State state = new State();
+                    state.store = DigestStore.load(file);
+                    return state;
+                }
+            }
+            byte[] content = resource.getContent();
+            if (content == null) {
                 return new State();
             }
+            if (DigestStore.isDigestStore(content)) {
+                State state = new State();
+                state.store = DigestStore.load(content);
+                return state;
+            }
+            return migrate(content);
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+            return new State();
         }
     }
 
     /**
-     * Save state
+     * Save state. Only the changed signatures are written when possible.
      * @param resource state resource
      * @throws IOException
      */
     public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+        if (resource instanceof DefaultResource) {
+            store.save(new File(resource.getAbsPath()));
+        } else {
+            resource.setContent(store.toByteArray());
+        }
     }
 
 }
@@ -14,13 +14,13 @@ package com.dynamo.bob;
 
 import java.io.IOException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.dynamo.bob.fs.DigestUtil;
 import com.dynamo.bob.fs.IResource;
 
 /**
@@ -121,12 +121,7 @@ public class Task<T> {
 
     public byte[] calculateSignature(Project project) throws IOException {
         // TODO: Checksum of builder-class byte-code. Seems to be rather difficult though..
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        MessageDigest digest = DigestUtil.newSha1();
 
         for (IResource r : inputs) {
             digest.update(r.sha1());
@@ -0,0 +1,316 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Explicit dependency graph of build tasks. An edge goes from the task producing
+ * an output to every task having that output as an input. Tasks become ready
+ * when all their producers have completed. When a task fails, the tasks depending
+ * on it, directly or indirectly, are skipped while the rest of the graph is built.
+ *
+ * Every task is assigned a rank, the pass in which the old sequential scheduler
+ * would have run it. Ready tasks are handed out in (rank, creation order) so that
+ * the results can be reported in the same order regardless of the number of jobs.
+ */
+class TaskGraph {
+
+    enum State {
+        WAITING,
+        READY,
+        SCHEDULED,
+        DONE,
+        FAILED
+    }
+
+    static class Node {
+        private final Task<?> task;
+        private final int index;
+        private int rank;
+        private int pending;
+        private State state = State.WAITING;
+        private final Set<Node> producers = new LinkedHashSet<Node>();
+        private final List<Node> consumers = new ArrayList<Node>();
+
+        Node(Task<?> task, int index) {
+            this.task = task;
+            this.index = index;
+        }
+
+        public Task<?> getTask() {
+            return task;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (rank %d)", task, rank);
+        }
+    }
+
+    static final Comparator<Node> ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node n1, Node n2) {
+            if (n1.rank != n2.rank) {
+                return n1.rank < n2.rank ? -1 : 1;
+            }
+            return n1.index - n2.index;
+        }
+    };
+
+    private final Map<Task<?>, Node> nodes = new HashMap<Task<?>, Node>();
+    private final Map<IResource, Node> producerOf = new HashMap<IResource, Node>();
+    private final Map<IResource, List<Node>> consumersOf = new HashMap<IResource, List<Node>>();
+    private final PriorityQueue<Node> ready = new PriorityQueue<Node>(64, ORDER);
+    private int nextIndex = 0;
+
+    /**
+     * Add tasks to the graph. Tasks producing inputs of already added, but not yet
+     * scheduled, tasks will be waited for by those tasks.
+     * @param tasks tasks to add, in creation order
+     * @param minRank lowest rank to assign to the added tasks
+     */
+    public void addTasks(List<Task<?>> tasks, int minRank) {
+        List<Node> added = new ArrayList<Node>(tasks.size());
+        int firstIndex = nextIndex;
+        for (Task<?> task : tasks) {
+            if (nodes.containsKey(task)) {
+                continue;
+            }
+            Node node = new Node(task, nextIndex++);
+            nodes.put(task, node);
+            added.add(node);
+            for (IResource output : task.getOutputs()) {
+                producerOf.put(output, node);
+            }
+            for (IResource input : task.getInputs()) {
+                List<Node> consumers = consumersOf.get(input);
+                if (consumers == null) {
+                    consumers = new ArrayList<Node>();
+                    consumersOf.put(input, consumers);
+                }
+                consumers.add(node);
+            }
+        }
+
+        // Wire the new tasks to their producers, old or new
+        for (Node node : added) {
+            for (IResource input : node.task.getInputs()) {
+                Node producer = producerOf.get(input);
+                if (producer != null && producer != node) {
+                    node.producers.add(producer);
+                }
+            }
+            for (Node producer : node.producers) {
+                if (producer.state == State.FAILED) {
+                    node.state = State.FAILED;
+                } else if (producer.state != State.DONE) {
+                    producer.consumers.add(node);
+                    ++node.pending;
+                }
+            }
+        }
+
+        // Old tasks that haven't started yet must also wait for new producers
+        for (Node node : added) {
+            for (IResource output : node.task.getOutputs()) {
+                List<Node> consumers = consumersOf.get(output);
+                if (consumers == null) {
+                    continue;
+                }
+                for (Node consumer : consumers) {
+                    if (consumer.index >= firstIndex || consumer == node) {
+                        continue;
+                    }
+                    if (consumer.state != State.WAITING && consumer.state != State.READY) {
+                        continue;
+                    }
+                    if (consumer.producers.add(node)) {
+                        node.consumers.add(consumer);
+                        ++consumer.pending;
+                        if (consumer.state == State.READY) {
+                            ready.remove(consumer);
+                            consumer.state = State.WAITING;
+                        }
+                    }
+                }
+            }
+        }
+
+        assignRanks(added, minRank);
+
+        for (Node node : added) {
+            if (node.pending == 0 && node.state == State.WAITING) {
+                node.state = State.READY;
+                ready.add(node);
+            }
+        }
+    }
+
+    // The rank of a task is the pass in which the sequential scheduler would have run it,
+    // i.e. the same pass as a producer earlier in the task list, or the pass after a
+    // producer later in the list.
+    private void assignRanks(List<Node> added, int minRank) {
+        Map<Node, Integer> inDegree = new HashMap<Node, Integer>();
+        for (Node node : added) {
+            inDegree.put(node, 0);
+        }
+        for (Node node : added) {
+            for (Node consumer : node.consumers) {
+                Integer degree = inDegree.get(consumer);
+                if (degree != null) {
+                    inDegree.put(consumer, degree + 1);
+                }
+            }
+        }
+        List<Node> queue = new ArrayList<Node>();
+        for (Node node : added) {
+            if (inDegree.get(node) == 0) {
+                queue.add(node);
+            }
+        }
+        Set<Node> ranked = new LinkedHashSet<Node>();
+        for (int i = 0; i < queue.size(); ++i) {
+            Node node = queue.get(i);
+            int rank = minRank;
+            for (Node producer : node.producers) {
+                rank = Math.max(rank, producer.rank + (producer.index > node.index ? 1 : 0));
+            }
+            node.rank = rank;
+            ranked.add(node);
+            for (Node consumer : node.consumers) {
+                Integer degree = inDegree.get(consumer);
+                if (degree == null) {
+                    // An older task waiting for this one
+                    consumer.rank = Math.max(consumer.rank, node.rank + 1);
+                    continue;
+                }
+                inDegree.put(consumer, degree - 1);
+                if (degree == 1) {
+                    queue.add(consumer);
+                }
+            }
+        }
+        // Tasks in a dependency cycle will never run
+        for (Node node : added) {
+            if (!ranked.contains(node)) {
+                node.rank = Integer.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Check if there is a task ready to be scheduled
+     * @return true if a task is ready
+     */
+    public boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    /**
+     * Get the next ready task without scheduling it
+     * @return ready node or null
+     */
+    public Node peekReady() {
+        return ready.peek();
+    }
+
+    /**
+     * Schedule the next ready task
+     * @return ready node or null
+     */
+    public Node pollReady() {
+        Node node = ready.poll();
+        if (node != null) {
+            node.state = State.SCHEDULED;
+        }
+        return node;
+    }
+
+    /**
+     * Mark a task as successfully completed, making its consumers ready once all
+     * their other producers are completed too.
+     * @param task completed task
+     */
+    public void complete(Task<?> task) {
+        Node node = nodes.get(task);
+        node.state = State.DONE;
+        for (Node consumer : node.consumers) {
+            if (--consumer.pending == 0 && consumer.state == State.WAITING) {
+                consumer.state = State.READY;
+                ready.add(consumer);
+            }
+        }
+    }
+
+    /**
+     * Mark a task as failed. All tasks depending on it, directly or indirectly, will
+     * never be ready and are marked as failed too.
+     * @param task failed task
+     * @return the dependent tasks that were skipped because of the failure
+     */
+    public List<Task<?>> fail(Task<?> task) {
+        List<Task<?>> skipped = new ArrayList<Task<?>>();
+        Node node = nodes.get(task);
+        node.state = State.FAILED;
+        List<Node> queue = new ArrayList<Node>(node.consumers);
+        for (int i = 0; i < queue.size(); ++i) {
+            Node consumer = queue.get(i);
+            if (consumer.state != State.WAITING && consumer.state != State.READY) {
+                continue;
+            }
+            if (consumer.state == State.READY) {
+                ready.remove(consumer);
+            }
+            consumer.state = State.FAILED;
+            skipped.add(consumer.task);
+            queue.addAll(consumer.consumers);
+        }
+        return skipped;
+    }
+
+    /**
+     * Get the graph node of a task
+     * @param task task to get node for
+     * @return node or null if the task isn't part of the graph
+     */
+    public Node getNode(Task<?> task) {
+        return nodes.get(task);
+    }
+
+    /**
+     * Number of tasks in the graph
+     * @return task count
+     */
+    public int size() {
+        return nodes.size();
+    }
+}
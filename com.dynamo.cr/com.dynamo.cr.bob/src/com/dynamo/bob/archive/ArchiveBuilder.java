@@ -17,19 +17,30 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.fs.DigestUtil;
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.WorkerPool;
 import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
@@ -45,47 +56,93 @@ public class ArchiveBuilder {
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
 
-    private static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
+    static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
 
     private static final List<String> ENCRYPTED_EXTS = Arrays.asList("luac", "scriptc", "gui_scriptc", "render_scriptc");
 
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+    // For checking duplicates when adding entries
+    private Set<ArchiveEntry> entrySet = new HashSet<ArchiveEntry>();
     private String root;
     private ManifestBuilder manifestBuilder = null;
     private LZ4Compressor lz4Compressor;
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
 
+    // Incremental writing, see setIncremental()
+    private File cacheFile = null;
+    private File previousArchiveIndex = null;
+    private File previousArchiveData = null;
+    private ArchiveCache cache = null;
+    private long archiveDataLength = 0;
+
+    /**
+     * Entry data ready to be written, i.e. loaded, compressed, encrypted and hashed
+     */
+    private static class PreparedEntry {
+        ArchiveEntry entry;
+        // null if the entry is found in the previous archive
+        byte[] buffer;
+        byte archiveEntryFlags;
+        byte[] hashDigest;
+        String hexDigest;
+        String cacheKey;
+        ArchiveCache.Entry cached;
+    }
+
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder) {
         this.root = new File(root).getAbsolutePath();
         this.manifestBuilder = manifestBuilder;
         this.lz4Compressor = LZ4Factory.fastestInstance().highCompressor();
     }
-    
+
+    /**
+     * Enable incremental writing. Entries whose resource content, compression and
+     * encryption are unchanged since the previous archive are copied from the previous
+     * archive data file instead of being compressed and encrypted again.
+     * The archive is identical to one written from scratch. The cache file describing
+     * the new archive is written by {@link #saveIncrementalCache()}.
+     * @param cacheFile sidecar cache file describing the previous archive
+     * @param previousArchiveIndex previous archive index file
+     * @param previousArchiveData previous archive data file
+     */
+    public void setIncremental(File cacheFile, File previousArchiveIndex, File previousArchiveData) {
+        this.cacheFile = cacheFile;
+        this.previousArchiveIndex = previousArchiveIndex;
+        this.previousArchiveData = previousArchiveData;
+    }
+
+    /**
+     * Save the sidecar cache for the archive written by {@link #write}. Must be called
+     * once the archive files have replaced the previous archive files.
+     * @throws IOException
+     */
+    public void saveIncrementalCache() throws IOException {
+        if (cache != null) {
+            cache.save(cacheFile, archiveIndexMD5, archiveDataLength, manifestBuilder.getResourceHashAlgorithm().getNumber());
+        }
+    }
+
     private void add(String fileName, boolean doCompress, boolean isLiveUpdate) throws IOException {
         ArchiveEntry e = new ArchiveEntry(root, fileName, doCompress, isLiveUpdate);
-        if (!contains(e)) {
+        if (entrySet.add(e)) {
             entries.add(e);
         }
     }
 
     public void add(String fileName, boolean doCompress) throws IOException {
         ArchiveEntry e = new ArchiveEntry(root, fileName, doCompress);
-        if (!contains(e)) {
+        if (entrySet.add(e)) {
             entries.add(e);
         }
     }
 
     public void add(String fileName) throws IOException {
         ArchiveEntry e = new ArchiveEntry(root, fileName, false);
-        if (!contains(e)) {
+        if (entrySet.add(e)) {
             entries.add(e);
         }
     }
     
-    private boolean contains(ArchiveEntry e) {
-        return entries.contains(e);
-    }
-
     public ArchiveEntry getArchiveEntry(int index) {
         return this.entries.get(index);
     }
@@ -178,58 +235,79 @@ public class ArchiveBuilder {
         
         int archiveIndexHeaderOffset = (int) archiveIndex.getFilePointer();
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-            byte[] buffer = this.loadResourceData(entry.fileName);
-            byte archiveEntryFlags = (byte) entry.flags;
-            int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
-            if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
-                    buffer = compressed;
-                    entry.compressedSize = compressed.length;
+        FileChannel previousData = null;
+        if (cacheFile != null) {
+            cache = ArchiveCache.load(cacheFile, previousArchiveIndex, previousArchiveData, manifestBuilder.getResourceHashAlgorithm().getNumber());
+            if (previousArchiveData.isFile()) {
+                previousData = FileChannel.open(previousArchiveData.toPath(), StandardOpenOption.READ);
+            }
+        }
+
+        // Entries are prepared in parallel on the shared worker pool but written in order,
+        // so that the archive is identical to one written sequentially. The number of
+        // entries in flight is bounded to limit memory usage.
+        Deque<Future<PreparedEntry>> pending = new ArrayDeque<Future<PreparedEntry>>();
+        try {
+            int maxPending = WorkerPool.getThreadCount() * 4;
+            int next = entries.size() - 1;
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                while (next >= 0 && pending.size() < maxPending) {
+                    final ArchiveEntry entry = entries.get(next--);
+                    pending.add(WorkerPool.submit(new Callable<PreparedEntry>() {
+                        @Override
+                        public PreparedEntry call() throws IOException {
+                            return prepareEntry(entry);
+                        }
+                    }));
+                }
+                PreparedEntry prepared = WorkerPool.get(pending.poll(), IOException.class);
+                ArchiveEntry entry = prepared.entry;
+                byte[] buffer = prepared.buffer;
+                int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+
+                // Write resource to data archive
+                if (this.excludeResource(normalisedPath, excludedResources)) {
+                    resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
+                    if (buffer == null) {
+                        buffer = readPreviousData(previousData, prepared.cached);
+                    }
+                    this.writeResourcePack(prepared.hexDigest, resourcePackDirectory.toString(), buffer, prepared.archiveEntryFlags, entry.size);
+                    entries.remove(i);
                 } else {
-                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+                    alignBuffer(archiveData, 4);
+                    entry.resourceOffset = (int) archiveData.getFilePointer();
+                    int storedSize;
+                    if (buffer == null) {
+                        storedSize = prepared.cached.storedSize;
+                        copyPreviousData(previousData, prepared.cached, archiveData.getChannel());
+                    } else {
+                        storedSize = buffer.length;
+                        archiveData.write(buffer, 0, buffer.length);
+                    }
+                    if (cache != null) {
+                        ArchiveCache.Entry cacheEntry = new ArchiveCache.Entry();
+                        cacheEntry.offset = entry.resourceOffset;
+                        cacheEntry.storedSize = storedSize;
+                        cacheEntry.compressedSize = entry.compressedSize;
+                        cacheEntry.hash = prepared.hashDigest;
+                        cache.put(prepared.cacheKey, cacheEntry);
+                    }
                 }
-            }
 
-            // Encrypt data
-            String extension = FilenameUtils.getExtension(entry.fileName);
-            if (ENCRYPTED_EXTS.indexOf(extension) != -1) {
-                archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
-                entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
-                buffer = this.encryptResourceData(buffer);
+                manifestBuilder.addResourceEntryHash(normalisedPath, prepared.hashDigest, resourceEntryFlags);
             }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
-
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.hash = new byte[HASH_MAX_LENGTH];
-                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        } finally {
+            for (Future<PreparedEntry> future : pending) {
+                future.cancel(false);
             }
-
-            // Write resource to data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
-                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
-                entries.remove(i);
-            } else {
-                alignBuffer(archiveData, 4);
-                entry.resourceOffset = (int) archiveData.getFilePointer();
-                archiveData.write(buffer, 0, buffer.length);
+            if (previousData != null) {
+                previousData.close();
             }
-
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, resourceEntryFlags);
         }
+        archiveDataLength = archiveData.length();
 
         // Write sorted hashes to index file
         Collections.sort(entries);
@@ -272,6 +350,103 @@ public class ArchiveBuilder {
         archiveIndex.write(this.archiveIndexMD5);
     }
 
+    /**
+     * Load, compress, encrypt and hash an entry. Called on worker threads.
+     */
+    private PreparedEntry prepareEntry(ArchiveEntry entry) throws IOException {
+        PreparedEntry prepared = new PreparedEntry();
+        prepared.entry = entry;
+        byte[] buffer = this.loadResourceData(entry.fileName);
+        boolean compress = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+        String extension = FilenameUtils.getExtension(entry.fileName);
+        boolean encrypt = ENCRYPTED_EXTS.indexOf(extension) != -1;
+
+        if (cache != null) {
+            MessageDigest sha1 = DigestUtil.newSha1();
+            prepared.cacheKey = ArchiveCache.key(sha1.digest(buffer), compress, encrypt);
+            ArchiveCache.Entry cached = cache.get(prepared.cacheKey);
+            if (cached != null) {
+                // Unchanged since the previous archive
+                byte archiveEntryFlags = (byte) entry.flags;
+                entry.compressedSize = cached.compressedSize;
+                if (cached.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                }
+                if (encrypt) {
+                    archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+                    entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+                }
+                entry.hash = new byte[HASH_MAX_LENGTH];
+                System.arraycopy(cached.hash, 0, entry.hash, 0, cached.hash.length);
+                prepared.archiveEntryFlags = archiveEntryFlags;
+                prepared.hashDigest = cached.hash;
+                prepared.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(cached.hash);
+                prepared.cached = cached;
+                return prepared;
+            }
+        }
+
+        byte archiveEntryFlags = (byte) entry.flags;
+        if (compress) {
+            // Compress data
+            byte[] compressed = this.compressResourceData(buffer);
+            if (this.shouldUseCompressedResourceData(buffer, compressed)) {
+                archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                buffer = compressed;
+                entry.compressedSize = compressed.length;
+            } else {
+                entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+            }
+        }
+
+        // Encrypt data
+        if (encrypt) {
+            archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+            entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+            buffer = this.encryptResourceData(buffer);
+        }
+
+        // Calculate hash digest values for resource
+        try {
+            byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
+            entry.hash = new byte[HASH_MAX_LENGTH];
+            System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
+            prepared.hashDigest = hashDigest;
+            prepared.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+        prepared.buffer = buffer;
+        prepared.archiveEntryFlags = archiveEntryFlags;
+        return prepared;
+    }
+
+    private static byte[] readPreviousData(FileChannel previousData, ArchiveCache.Entry cached) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(cached.storedSize);
+        long position = cached.offset;
+        while (buffer.hasRemaining()) {
+            int n = previousData.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of previous archive data");
+            }
+            position += n;
+        }
+        return buffer.array();
+    }
+
+    private static void copyPreviousData(FileChannel previousData, ArchiveCache.Entry cached, FileChannel target) throws IOException {
+        long position = cached.offset;
+        long remaining = cached.storedSize;
+        while (remaining > 0) {
+            long n = previousData.transferTo(position, remaining, target);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of previous archive data");
+            }
+            position += n;
+            remaining -= n;
+        }
+    }
+
     private void alignBuffer(RandomAccessFile outFile, int align) throws IOException {
         int pos = (int) outFile.getFilePointer();
         int newPos = (int) (outFile.getFilePointer() + (align - 1));
@@ -0,0 +1,161 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sidecar cache for incremental archive writing. Maps the sha1 of a resource,
+ * and whether it is compressed and encrypted, to the encoded payload in the
+ * previous archive data file together with the payload hash.
+ * The cache is only used if the previous archive index and data files are the
+ * ones the cache was saved for.
+ */
+class ArchiveCache {
+
+    private static final int MAGIC = 0x41524343; // ARCC
+    private static final int VERSION = 1;
+
+    static class Entry {
+        // Offset and size of the payload in the archive data file
+        int offset;
+        int storedSize;
+        int compressedSize;
+        byte[] hash;
+    }
+
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+    private Map<String, Entry> newEntries = new HashMap<String, Entry>();
+
+    static String key(byte[] sha1, boolean compress, boolean encrypt) {
+        return new String(Hex.encodeHex(sha1)) + (compress ? "c" : "-") + (encrypt ? "e" : "-");
+    }
+
+    /**
+     * Get an entry in the previous archive
+     */
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Add an entry written to the new archive
+     */
+    void put(String key, Entry entry) {
+        newEntries.put(key, entry);
+    }
+
+    private static byte[] readArchiveIdentifier(File archiveIndex) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(archiveIndex, "r");
+        try {
+            // The MD5 identifier follows the 32 byte header, see ArchiveBuilder.write
+            byte[] identifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
+            file.seek(32);
+            file.readFully(identifier);
+            return identifier;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Load the cache for a previous archive. An empty cache is returned if the
+     * cache file is missing or doesn't match the archive files.
+     * @param cacheFile cache file
+     * @param archiveIndex previous archive index file
+     * @param archiveData previous archive data file
+     * @param hashAlgorithm resource hash algorithm number
+     * @return archive cache
+     */
+    static ArchiveCache load(File cacheFile, File archiveIndex, File archiveData, int hashAlgorithm) {
+        ArchiveCache cache = new ArchiveCache();
+        if (!cacheFile.isFile() || !archiveIndex.isFile() || !archiveData.isFile()) {
+            return cache;
+        }
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || is.readInt() != hashAlgorithm) {
+                return cache;
+            }
+            byte[] identifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
+            is.readFully(identifier);
+            long dataLength = is.readLong();
+            if (dataLength != archiveData.length() || !Arrays.equals(identifier, readArchiveIdentifier(archiveIndex))) {
+                return cache;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String key = is.readUTF();
+                Entry entry = new Entry();
+                entry.offset = is.readInt();
+                entry.storedSize = is.readInt();
+                entry.compressedSize = is.readInt();
+                entry.hash = new byte[is.readUnsignedByte()];
+                is.readFully(entry.hash);
+                cache.entries.put(key, entry);
+            }
+        } catch (IOException e) {
+            // Corrupt or truncated cache, rebuild all entries
+            cache.entries.clear();
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return cache;
+    }
+
+    /**
+     * Save the entries of the new archive
+     * @param cacheFile cache file
+     * @param archiveIdentifier identifier (index MD5) of the new archive
+     * @param dataLength size of the new archive data file
+     * @param hashAlgorithm resource hash algorithm number
+     * @throws IOException
+     */
+    void save(File cacheFile, byte[] archiveIdentifier, long dataLength, int hashAlgorithm) throws IOException {
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(hashAlgorithm);
+            os.write(archiveIdentifier);
+            os.writeLong(dataLength);
+            os.writeInt(newEntries.size());
+            for (Map.Entry<String, Entry> e : newEntries.entrySet()) {
+                Entry entry = e.getValue();
+                os.writeUTF(e.getKey());
+                os.writeInt(entry.offset);
+                os.writeInt(entry.storedSize);
+                os.writeInt(entry.compressedSize);
+                os.writeByte(entry.hash.length);
+                os.write(entry.hash);
+            }
+        } finally {
+            os.close();
+        }
+    }
+}
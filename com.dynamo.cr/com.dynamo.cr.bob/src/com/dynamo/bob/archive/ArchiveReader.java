@@ -17,14 +17,29 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Reader for archive index (arci) and data (arcd) files. Both files are memory mapped.
+ * Entries can be looked up by hash, using a binary search of the sorted hash table
+ * the same way the engine does, or by url if a manifest is supplied.
+ */
 public class ArchiveReader {
     public static final int VERSION = 4;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
@@ -39,9 +54,13 @@ public class ArchiveReader {
     private final String archiveIndexFilepath;
     private final String archiveDataFilepath;
     private final String manifestFilepath;
-    private RandomAccessFile archiveIndexFile = null;
-    private RandomAccessFile archiveDataFile = null;
+    private FileChannel archiveIndexChannel = null;
+    private FileChannel archiveDataChannel = null;
+    private MappedByteBuffer archiveIndex = null;
+    private MappedByteBuffer archiveData = null;
     private ManifestFile manifestFile = null;
+    private Map<String, byte[]> urlToHash = new HashMap<String, byte[]>();
+    private LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
 
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
         this.archiveIndexFilepath = archiveIndexFilepath;
@@ -49,86 +68,85 @@ public class ArchiveReader {
         this.manifestFilepath = manifestFilepath;
     }
 
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
     public void read() throws IOException {
-    	this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
-        this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
-        
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
-        
+        this.archiveIndexChannel = FileChannel.open(Paths.get(this.archiveIndexFilepath), StandardOpenOption.READ);
+        this.archiveDataChannel = FileChannel.open(Paths.get(this.archiveDataFilepath), StandardOpenOption.READ);
+        this.archiveIndex = map(this.archiveIndexChannel);
+        this.archiveData = map(this.archiveDataChannel);
+
         if (this.manifestFilepath != null) {
-	        InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
-	        this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
-	        manifestInputStream.close();
+            InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
+            try {
+                this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
+            } finally {
+                manifestInputStream.close();
+            }
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.archiveIndex.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
             throw new IOException("Unsupported archive index version: " + indexVersion);
         }
     }
-    
-    private boolean matchHash(byte[] a, byte[] b, int hlen) {
-    	if (a.length < hlen || b.length < hlen) {
-    		return false;
-    	}
-    	
-    	for (int i = 0; i < hlen; ++i) {
-    		if (a[i] != b[i]) {
-    			return false;
-    		}
-    	}
-    	
-    	return true;
-    }
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        // Version (4), Pad (4), UserData (8), should be 0
+        entryCount = archiveIndex.getInt(16);
+        entryOffset = archiveIndex.getInt(20);
+        hashOffset = archiveIndex.getInt(24);
+        hashLength = archiveIndex.getInt(28);
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
 
+        // Map resource hashes to urls, the manifest is only parsed once
+        Map<ByteBuffer, String> hashToUrl = new HashMap<ByteBuffer, String>();
+        if (this.manifestFile != null) {
+            ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
+            for (ResourceEntry resource : manifestData.getResourcesList()) {
+                byte[] hash = resource.getHash().getData().toByteArray();
+                if (hash.length >= hashLength) {
+                    hashToUrl.put(ByteBuffer.wrap(hash, 0, hashLength), resource.getUrl());
+                }
+            }
+        }
+
         // Hashes are stored linearly in memory instead of within each entry, so the hashes are read in a separate loop.
         // Once the hashes are read, the rest of the entries are read.
-
-        archiveIndexFile.seek(hashOffset);
-        // Read entry hashes
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             e.hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(e.hash, 0, hashLength);
-
-            if (this.manifestFile != null) {
-                ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
-                for (ResourceEntry resource : manifestData.getResourcesList()) {
-	            	if (matchHash(e.hash, resource.getHash().getData().toByteArray(), this.hashLength)) {
-	            		e.fileName = resource.getUrl();
-	            		e.relName = resource.getUrl();
-	            	}
-	            }
+            ByteBuffer hash = archiveIndex.duplicate();
+            hash.position(hashOffset + i * HASH_BUFFER_BYTESIZE);
+            hash.get(e.hash, 0, hashLength);
+
+            String url = hashToUrl.get(ByteBuffer.wrap(e.hash, 0, hashLength));
+            if (url != null) {
+                e.fileName = url;
+                e.relName = url;
+                urlToHash.put(url, e.hash);
             }
-            
+
             entries.add(e);
         }
 
         // Read entries
-        archiveIndexFile.seek(entryOffset);
+        int offset = entryOffset;
         for (int i=0; i<entryCount; ++i) {
             ArchiveEntry e = entries.get(i);
 
-            e.resourceOffset = archiveIndexFile.readInt();
-            e.size = archiveIndexFile.readInt();
-            e.compressedSize = archiveIndexFile.readInt();
-            e.flags = archiveIndexFile.readInt();
+            e.resourceOffset = archiveIndex.getInt(offset);
+            e.size = archiveIndex.getInt(offset + 4);
+            e.compressedSize = archiveIndex.getInt(offset + 8);
+            e.flags = archiveIndex.getInt(offset + 12);
+            offset += 16;
         }
     }
 
@@ -136,10 +154,97 @@ public class ArchiveReader {
         return entries;
     }
 
+    /**
+     * Find an entry by hash, using a binary search of the sorted hash table
+     * @param hash resource hash, at least as long as the hash length of the archive
+     * @return entry or null if not found
+     */
+    public ArchiveEntry findEntry(byte[] hash) {
+        if (hash.length < hashLength) {
+            return null;
+        }
+        int first = 0;
+        int last = entryCount - 1;
+        while (first <= last) {
+            int mid = (first + last) >>> 1;
+            int cmp = compareHash(hashOffset + mid * HASH_BUFFER_BYTESIZE, hash);
+            if (cmp == 0) {
+                return entries.get(mid);
+            } else if (cmp < 0) {
+                first = mid + 1;
+            } else {
+                last = mid - 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find an entry by url. Requires the archive to be read with a manifest.
+     * @param url resource url, e.g. "/main/main.collectionc"
+     * @return entry or null if not found
+     */
+    public ArchiveEntry findEntry(String url) {
+        byte[] hash = urlToHash.get(url);
+        return hash != null ? findEntry(hash) : null;
+    }
+
+    // Unsigned compare of a hash in the index with the supplied hash
+    private int compareHash(int offset, byte[] hash) {
+        for (int i = 0; i < hashLength; ++i) {
+            int a = archiveIndex.get(offset + i) & 0xff;
+            int b = hash[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    // The compressed flag is not stored in the index, compressed entries have a compressed size
+    private static boolean isCompressed(ArchiveEntry entry) {
+        return entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+    }
+
+    /**
+     * Get the entry data as stored in the archive, i.e. possibly compressed and encrypted
+     * @param entry archive entry
+     * @return read only view of the mapped archive data
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) {
+        int storedSize = isCompressed(entry) ? entry.compressedSize : entry.size;
+        ByteBuffer data = archiveData.duplicate();
+        data.position(entry.resourceOffset);
+        data.limit(entry.resourceOffset + storedSize);
+        return data.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the entry resource, decrypted and decompressed as needed. Entries that are
+     * neither encrypted nor compressed are returned without copying.
+     * @param entry archive entry
+     * @return entry resource
+     */
+    public ByteBuffer readEntry(ArchiveEntry entry) {
+        ByteBuffer data = getEntryData(entry);
+        if ((entry.flags & ArchiveEntry.FLAG_ENCRYPTED) != 0) {
+            byte[] buffer = new byte[data.remaining()];
+            data.get(buffer);
+            data = ByteBuffer.wrap(Crypt.decryptCTR(buffer, ArchiveBuilder.KEY));
+        }
+        if (isCompressed(entry)) {
+            ByteBuffer decompressed = ByteBuffer.allocate(entry.size);
+            lz4Decompressor.decompress(data, data.position(), decompressed, 0, entry.size);
+            data = decompressed;
+        }
+        return data;
+    }
+
     public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
         byte[] buf = new byte[entry.size];
-        archiveDataFile.seek(entry.resourceOffset);
-        archiveDataFile.read(buf, 0, entry.size);
+        ByteBuffer data = archiveData.duplicate();
+        data.position(entry.resourceOffset);
+        data.get(buf, 0, Math.min(entry.size, data.remaining()));
 
         return buf;
     }
@@ -153,30 +258,31 @@ public class ArchiveReader {
             ArchiveEntry entry = entries.get(i);
             String outdir = path + entry.fileName;
             System.out.println("> " + entry.fileName);
-            int readSize = entry.compressedSize;
 
             // extract
-            byte[] buf = new byte[entry.size];
-            archiveDataFile.seek(entry.resourceOffset);
-            archiveDataFile.read(buf, 0, readSize);
-
             File fo = new File(outdir);
             fo.getParentFile().mkdirs();
             FileOutputStream os = new FileOutputStream(fo);
-            os.write(buf);
-            os.close();
+            try {
+                os.getChannel().write(readEntry(entry));
+            } finally {
+                os.close();
+            }
         }
     }
 
     public void close() throws IOException {
-        if (archiveIndexFile != null) {
-            archiveIndexFile.close();
-            archiveIndexFile = null;
+        archiveIndex = null;
+        archiveData = null;
+
+        if (archiveIndexChannel != null) {
+            archiveIndexChannel.close();
+            archiveIndexChannel = null;
         }
 
-        if (archiveDataFile != null) {
-            archiveDataFile.close();
-            archiveDataFile = null;
+        if (archiveDataChannel != null) {
+            archiveDataChannel.close();
+            archiveDataChannel = null;
         }
     }
 }
@@ -32,9 +32,12 @@ import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -279,6 +282,10 @@ public class ManifestBuilder {
     private String publicKeyFilepath = null;
     private String projectIdentifier = null;
     private ResourceNode dependencies = null;
+    // Index of the dependency tree, built on first use, see buildIndex()
+    private Map<String, List<ResourceNode>> pathToNodes = null;
+    private Map<ResourceNode, List<String>> nodeToParentCollections = null;
+    private Map<String, List<String>> pathToDependants = null;
     private boolean outputManifestHash = false;
     private byte[] manifestDataHash = null;
     private byte[] archiveIdentifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
@@ -339,8 +346,72 @@ public class ManifestBuilder {
         return this.signatureSignAlgorithm;
     }
 
-    public void setDependencies(ResourceNode dependencies) {
+    /**
+     * Set the resource dependency tree. The tree is indexed the first time it is
+     * queried, and must not be modified after that.
+     * @param dependencies root of the dependency tree
+     */
+    public synchronized void setDependencies(ResourceNode dependencies) {
         this.dependencies = dependencies;
+        this.pathToNodes = null;
+        this.nodeToParentCollections = null;
+        this.pathToDependants = null;
+    }
+
+    private static boolean isCollection(ResourceNode node) {
+        return node.relativeFilepath.endsWith("collectionproxyc") || node.relativeFilepath.endsWith("collectionc");
+    }
+
+    // Index all nodes of the dependency tree by path, in breadth first order
+    private void buildIndex() {
+        if (pathToNodes != null) {
+            return;
+        }
+        pathToNodes = new HashMap<String, List<ResourceNode>>();
+        nodeToParentCollections = new IdentityHashMap<ResourceNode, List<String>>();
+        pathToDependants = new HashMap<String, List<String>>();
+        List<ResourceNode> queue = new LinkedList<ResourceNode>();
+        queue.add(this.dependencies);
+        while (!queue.isEmpty()) {
+            ResourceNode current = queue.remove(0);
+            if (current != null) {
+                List<ResourceNode> nodes = pathToNodes.get(current.relativeFilepath);
+                if (nodes == null) {
+                    nodes = new ArrayList<ResourceNode>(1);
+                    pathToNodes.put(current.relativeFilepath, nodes);
+                }
+                nodes.add(current);
+                queue.addAll(current.getChildren());
+            }
+        }
+    }
+
+    // Collection paths from the parent of a node to the root, deepest first.
+    // Memoized per node, so all chains are computed in time linear in the tree size.
+    private List<String> getParentCollections(ResourceNode node) {
+        List<String> result = nodeToParentCollections.get(node);
+        if (result == null) {
+            ResourceNode parent = node.getParent();
+            result = new ArrayList<String>();
+            if (parent != null) {
+                if (isCollection(parent)) {
+                    result.add(parent.relativeFilepath);
+                }
+                result.addAll(getParentCollections(parent));
+            }
+            nodeToParentCollections.put(node, result);
+        }
+        return result;
+    }
+
+    // True if the node is below another occurrence of the same path
+    private static boolean hasAncestorWithPath(ResourceNode node, String filepath) {
+        for (ResourceNode current = node.getParent(); current != null; current = current.getParent()) {
+            if (current.relativeFilepath.equals(filepath)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void setPrivateKeyFilepath(String filepath) {
@@ -386,62 +457,45 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
-            HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            this.resourceEntries.add(builder.buildPartial());
+            addResourceEntryHash(url, CryptographicOperations.hash(data, this.resourceHashAlgorithm), flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    // Add a resource entry with a hash already calculated using the resource hash algorithm
+    public void addResourceEntryHash(String url, byte[] hashDigest, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        HashDigest.Builder hashBuilder = HashDigest.newBuilder();
+        hashBuilder.setData(ByteString.copyFrom(hashDigest));
+        builder.setHash(hashBuilder.build());
+        builder.setFlags(flags);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     // Calculate all parent collection paths (to the root) for a resource
     // Resource could occur multiple times in the tree (referenced from several collections) or several times within the same collection
-    public List<ArrayList<String>> getParentCollections(String filepath) {
+    public synchronized List<ArrayList<String>> getParentCollections(String filepath) {
+        buildIndex();
         List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
-        List<ResourceNode> candidates = new LinkedList<ResourceNode>();
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        // Find occurences of resource in tree (may be referenced from several collections for example)
-        while (!queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-
-            if (current != null) {
-                if (current.relativeFilepath.equals(filepath)) {
-                    if (!candidates.contains(current)) {
-                        candidates.add(current);
-                    }
-                } else {
-                    queue.addAll(current.getChildren());
+        List<ResourceNode> candidates = pathToNodes.get(filepath);
+        if (candidates != null) {
+            for (ResourceNode candidate : candidates) {
+                // Occurrences below another occurrence of the resource are not included
+                if (!hasAncestorWithPath(candidate, filepath)) {
+                    result.add(new ArrayList<String>(getParentCollections(candidate)));
                 }
             }
         }
-
-        int i = 0;
-        while (!candidates.isEmpty()) {
-            ResourceNode current = candidates.remove(0).getParent();
-            result.add(new ArrayList<String>());
-            while (current != null) {
-                if (current.relativeFilepath.endsWith("collectionproxyc") ||
-                    current.relativeFilepath.endsWith("collectionc")) {
-                    result.get(i).add(current.relativeFilepath);
-                }
-
-                current = current.getParent();
-            }
-            ++i;
-        }
         return result;
     }
 
-    public List<String> getDependants(String filepath) throws IOException {
-        /* This function first tries to find the correct resource in the
-           dependency tree. Since there is no index we have to iterate over
-           the structure and match the relative filepaths that identifies the
-           resource.
+    public synchronized List<String> getDependants(String filepath) throws IOException {
+        /* This function first finds the correct resource in the dependency
+           tree, using the index of the tree. The first occurrence in breadth
+           first order identifies the resource.
 
            Once a candidate has been found the children, the children, and so
            on are added to the list of dependants. If a CollectionProxy is
@@ -453,25 +507,20 @@ public class ManifestBuilder {
            exclude an entire Collection that is loaded through a CollectionProxy
            and thus create a partial archive that has to be updated (through
            LiveUpdate) before that CollectionProxy can be loaded.
+
+           The result is memoized per resource.
         */
-        ResourceNode candidate = null;
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        while (candidate == null && !queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-            if (current.relativeFilepath.equals(filepath)) {
-                candidate = current;
-            } else {
-                for (ResourceNode child : current.getChildren()) {
-                    queue.add(child);
-                }
-            }
+        buildIndex();
+        List<String> dependants = pathToDependants.get(filepath);
+        if (dependants != null) {
+            return new ArrayList<String>(dependants);
         }
 
-        List<String> dependants = new ArrayList<String>();
-        if (candidate != null) {
-            queue.clear();
-            queue.add(candidate);
+        dependants = new ArrayList<String>();
+        List<ResourceNode> candidates = pathToNodes.get(filepath);
+        if (candidates != null) {
+            List<ResourceNode> queue = new LinkedList<ResourceNode>();
+            queue.add(candidates.get(0));
             while (!queue.isEmpty()) {
                 ResourceNode current = queue.remove(0);
                 for (ResourceNode child : current.getChildren()) {
@@ -482,8 +531,9 @@ public class ManifestBuilder {
                 }
             }
         }
+        pathToDependants.put(filepath, dependants);
 
-        return dependants;
+        return new ArrayList<String>(dependants);
     }
 
     public ManifestHeader buildManifestHeader() throws IOException {
@@ -511,18 +561,30 @@ public class ManifestBuilder {
         builder.setHeader(manifestHeader);
 
         builder.addAllEngineVersions(this.supportedEngineVersions);
+        Map<String, List<ResourceEntry>> urlToEntries = new HashMap<String, List<ResourceEntry>>();
+        for (ResourceEntry entry : this.resourceEntries) {
+            List<ResourceEntry> entries = urlToEntries.get(entry.getUrl());
+            if (entries == null) {
+                entries = new ArrayList<ResourceEntry>(1);
+                urlToEntries.put(entry.getUrl(), entries);
+            }
+            entries.add(entry);
+        }
+
         for (ResourceEntry entry : this.resourceEntries) {
             ResourceEntry.Builder resourceEntryBuilder = entry.toBuilder();
 
             List<String> dependants = this.getDependants(entry.getUrl());
             for (String dependant : dependants) {
-                for (ResourceEntry dependantEntry : this.resourceEntries) {
-                    if (dependantEntry.getUrl().equals(dependant)) {
-                        if (dependantEntry.hasHash()) {
-                            resourceEntryBuilder.addDependants(dependantEntry.getHash());
-                        } else {
-                            throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
-                        }
+                List<ResourceEntry> dependantEntries = urlToEntries.get(dependant);
+                if (dependantEntries == null) {
+                    continue;
+                }
+                for (ResourceEntry dependantEntry : dependantEntries) {
+                    if (dependantEntry.hasHash()) {
+                        resourceEntryBuilder.addDependants(dependantEntry.getHash());
+                    } else {
+                        throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
                     }
                 }
             }
@@ -0,0 +1,101 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Resource cache backed by a HTTP server. Entries are fetched with GET and
+ * stored with PUT requests to <code>&lt;url&gt;/&lt;key&gt;</code>. A missing
+ * entry is signaled with status 404. Basic auth credentials are taken from the
+ * user info part of the url.
+ */
+public class HttpResourceCache implements IResourceCache {
+
+    private static final int TIMEOUT = 30000;
+
+    private String url;
+    private String basicAuth = null;
+
+    public HttpResourceCache(URL url) {
+        String base = url.toString();
+        if (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        this.url = base;
+        if (url.getUserInfo() != null) {
+            basicAuth = "Basic " + new String(new Base64().encode(url.getUserInfo().getBytes()));
+        }
+    }
+
+    private HttpURLConnection openConnection(String key) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + "/" + key).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        if (basicAuth != null) {
+            connection.setRequestProperty("Authorization", basicAuth);
+        }
+        return connection;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        HttpURLConnection connection = openConnection(key);
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Unable to get '%s' from resource cache: %d %s", key, code, connection.getResponseMessage()));
+            }
+            InputStream is = connection.getInputStream();
+            try {
+                return IOUtils.toByteArray(is);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        HttpURLConnection connection = openConnection(key);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            OutputStream os = connection.getOutputStream();
+            try {
+                os.write(content);
+            } finally {
+                IOUtils.closeQuietly(os);
+            }
+            int code = connection.getResponseCode();
+            if (code < 200 || code >= 300) {
+                throw new IOException(String.format("Unable to put '%s' in resource cache: %d %s", key, code, connection.getResponseMessage()));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.IOException;
+
+/**
+ * Content addressed storage of build outputs. Entries are keyed by a digest of
+ * the build environment, the signature of the task producing the output and the
+ * output path, see {@link ResourceCache#calculateKey(String, byte[], String)}.
+ */
+public interface IResourceCache {
+
+    /**
+     * Get a cached entry
+     * @param key entry key
+     * @return entry content or null if the entry isn't cached
+     * @throws IOException
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Store an entry in the cache. Existing entries are replaced.
+     * @param key entry key
+     * @param content entry content
+     * @throws IOException
+     */
+    void put(String key, byte[] content) throws IOException;
+}
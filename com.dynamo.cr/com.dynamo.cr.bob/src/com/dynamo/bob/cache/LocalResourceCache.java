@@ -0,0 +1,157 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Resource cache stored in a local directory, typically shared between
+ * projects or checkouts. The total size of the cache is bounded and the
+ * least recently used entries are evicted when the limit is exceeded.
+ * Entries are stored in sub directories named after the first two characters
+ * of the key.
+ */
+public class LocalResourceCache implements IResourceCache {
+
+    private File directory;
+    private long maxSize;
+    private long size = 0;
+    // Entry sizes in least recently used order
+    private LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * Open a local cache. The directory is created if it doesn't exist.
+     * @param directory cache directory
+     * @param maxSize max total size of the cache entries in bytes
+     * @throws IOException
+     */
+    public LocalResourceCache(File directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Unable to create cache directory '%s'", directory));
+        }
+        scan();
+    }
+
+    private void scan() {
+        List<File> files = new ArrayList<File>();
+        File[] dirs = directory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] dirFiles = dir.isDirectory() ? dir.listFiles() : null;
+                if (dirFiles != null) {
+                    for (File f : dirFiles) {
+                        if (f.isFile() && !f.getName().endsWith(".tmp")) {
+                            files.add(f);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Modification time is updated on access, oldest first
+        final Map<File, Long> lastModified = new LinkedHashMap<File, Long>();
+        for (File f : files) {
+            lastModified.put(f, f.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(lastModified.get(a), lastModified.get(b));
+            }
+        });
+        for (File f : files) {
+            long length = f.length();
+            entries.put(f.getName(), length);
+            size += length;
+        }
+        evict();
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        File file = getFile(key);
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            // Removed by another process sharing the directory
+            synchronized (this) {
+                Long length = entries.remove(key);
+                if (length != null) {
+                    size -= length;
+                }
+            }
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return content;
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        File file = getFile(key);
+        File tmp = new File(file.getParentFile(), key + "." + Thread.currentThread().getId() + ".tmp");
+        FileUtils.writeByteArrayToFile(tmp, content);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        synchronized (this) {
+            Long previous = entries.put(key, (long) content.length);
+            if (previous != null) {
+                size -= previous;
+            }
+            size += content.length;
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            getFile(entry.getKey()).delete();
+            size -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Get the total size of the cached entries
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,98 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe in-memory cache of build time objects, such as parsed documents,
+ * with least recently used eviction. The size of the cache is bounded by the
+ * sum of the weights of the entries, typically the size of the source data in bytes.
+ * Keys should identify the content, e.g. by including the sha1 of the source data,
+ * as entries are shared by all tasks in a build.
+ */
+public class MemoryCache<K, V> {
+
+    private static class Entry<V> {
+        V value;
+        long weight;
+    }
+
+    private final long maxWeight;
+    private long weight = 0;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+    /**
+     * Constructor
+     * @param maxWeight maximum total weight of the cached entries
+     */
+    public MemoryCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Get a cached value
+     * @param key entry key
+     * @return value or null if not found
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Add a value to the cache, evicting the least recently used entries if needed.
+     * Values heavier than the maximum weight are not cached.
+     * @param key entry key
+     * @param value value to cache
+     * @param valueWeight weight of the value
+     */
+    public synchronized void put(K key, V value, long valueWeight) {
+        if (valueWeight > maxWeight) {
+            return;
+        }
+        Entry<V> entry = new Entry<V>();
+        entry.value = value;
+        entry.weight = valueWeight;
+        Entry<V> previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += valueWeight;
+
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = it.next();
+            if (eldest.getValue() == entry) {
+                continue;
+            }
+            weight -= eldest.getValue().weight;
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.dynamo.bob.fs.DigestUtil;
+
+/**
+ * Tiered cache of build outputs, keyed by task signature. Caches are consulted
+ * in the order they were added, typically a local directory followed by a
+ * remote server. Entries found in a later tier are copied to the earlier tiers.
+ * A cache that fails with an I/O error is reported and not used for the rest
+ * of the build, i.e. an unavailable cache never fails a build.
+ */
+public class ResourceCache {
+
+    private List<IResourceCache> caches = new ArrayList<IResourceCache>();
+
+    public synchronized void addCache(IResourceCache cache) {
+        caches.add(cache);
+    }
+
+    public synchronized boolean isEnabled() {
+        return !caches.isEmpty();
+    }
+
+    private synchronized List<IResourceCache> getCaches() {
+        return new ArrayList<IResourceCache>(caches);
+    }
+
+    private synchronized void disable(IResourceCache cache, IOException e) {
+        if (caches.remove(cache)) {
+            System.err.println(String.format("Resource cache disabled for this build: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Calculate the cache key of a task output
+     * @param environment engine version and project options the output depends on,
+     * that aren't part of the task signature
+     * @param signature signature of the task producing the output
+     * @param path project relative path of the output
+     * @return hex encoded key
+     */
+    public static String calculateKey(String environment, byte[] signature, String path) {
+        MessageDigest digest = DigestUtil.newSha1();
+        digest.update(environment.getBytes());
+        digest.update((byte) 0);
+        digest.update(signature);
+        digest.update(path.getBytes());
+        return new String(Hex.encodeHex(digest.digest()));
+    }
+
+    /**
+     * Get a cached entry
+     * @param key entry key
+     * @return entry content or null if not found in any cache
+     */
+    public byte[] get(String key) {
+        List<IResourceCache> tiers = getCaches();
+        for (int i = 0; i < tiers.size(); ++i) {
+            IResourceCache cache = tiers.get(i);
+            byte[] content = null;
+            try {
+                content = cache.get(key);
+            } catch (IOException e) {
+                disable(cache, e);
+            }
+            if (content != null) {
+                for (int j = 0; j < i; ++j) {
+                    put(tiers.get(j), key, content);
+                }
+                return content;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store an entry in all caches
+     * @param key entry key
+     * @param content entry content
+     */
+    public void put(String key, byte[] content) {
+        for (IResourceCache cache : getCaches()) {
+            put(cache, key, content);
+        }
+    }
+
+    private void put(IResourceCache cache, String key, byte[] content) {
+        try {
+            cache.put(key, content);
+        } catch (IOException e) {
+            disable(cache, e);
+        }
+    }
+}
@@ -12,11 +12,36 @@
 
 package com.dynamo.bob.font;
 
+import java.util.Arrays;
+
+/**
+ * Computes the distance from points to the closest of a set of line segments, e.g. a
+ * flattened glyph outline. Segments are bucketed in a uniform grid, and each lookup only
+ * visits the cells that can contain a segment closer than the best one found so far.
+ * The result is identical to checking every segment.
+ */
 public class DistanceFieldGenerator
 {
+    // Returned when there are no segments
+    private static final double DIST_MAX = 10000000;
+    // Max number of cells along an axis
+    private static final int GRID_SIZE_MAX = 256;
+    private static final double SEGMENTS_PER_CELL = 2;
+    // Relative size of the margin added to cells when pruning
+    private static final double CELL_MARGIN = 1e-6;
+
     public double[] lineSegments = new double[32768];
     public int lineSegmentsEnd = 0;
 
+    // Grid covering the bounding box of all segments. The segments overlapping cell i are
+    // stored at cellSegments[cellStart[i]] to cellSegments[cellStart[i+1]], as offsets into lineSegments.
+    private boolean gridDirty = true;
+    private double gridX0, gridY0;
+    private double cellSize, cellSizeInverse;
+    private int gridWidth, gridHeight;
+    private int[] cellStart;
+    private int[] cellSegments;
+
     public DistanceFieldGenerator()
     {
 
@@ -24,56 +49,235 @@ public class DistanceFieldGenerator
 
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length)
+        {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+        }
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
         lineSegments[lineSegmentsEnd+3] = y1 - y0;
         lineSegments[lineSegmentsEnd+4] = 1.0 / ((x1-x0)*(x1-x0) + (y1-y0)*(y1-y0));
         lineSegmentsEnd += 5;
+        gridDirty = true;
     }
 
-    // Compute the minimal distance from [x, y] to any of the line segments
-    public double distSqr(double x, double y)
+    private int cellX(double x)
     {
-        double distMin = 10000000;
+        return (int)Math.floor((x - gridX0) * cellSizeInverse);
+    }
+
+    private int cellY(double y)
+    {
+        return (int)Math.floor((y - gridY0) * cellSizeInverse);
+    }
+
+    private int clamp(int v, int max)
+    {
+        return Math.max(0, Math.min(max - 1, v));
+    }
+
+    private void buildGrid()
+    {
+        gridDirty = false;
+        int segmentCount = lineSegmentsEnd / 5;
+        if (segmentCount == 0)
+        {
+            cellStart = null;
+            return;
+        }
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
         for (int i=0;i<lineSegmentsEnd;i+=5)
         {
             double x0 = lineSegments[i];
             double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
+            double x1 = x0 + lineSegments[i+2];
+            double y1 = y0 + lineSegments[i+3];
+            minX = Math.min(minX, Math.min(x0, x1));
+            minY = Math.min(minY, Math.min(y0, y1));
+            maxX = Math.max(maxX, Math.max(x0, x1));
+            maxY = Math.max(maxY, Math.max(y0, y1));
+        }
 
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
+        // Aim for a few segments per cell
+        double extentX = Math.max(maxX - minX, 1e-6);
+        double extentY = Math.max(maxY - minY, 1e-6);
+        cellSize = Math.max(Math.sqrt(extentX * extentY * SEGMENTS_PER_CELL / segmentCount), Math.max(extentX, extentY) / GRID_SIZE_MAX);
+        cellSizeInverse = 1.0 / cellSize;
+        gridX0 = minX;
+        gridY0 = minY;
+        gridWidth = Math.min(GRID_SIZE_MAX, (int)(extentX * cellSizeInverse) + 1);
+        gridHeight = Math.min(GRID_SIZE_MAX, (int)(extentY * cellSizeInverse) + 1);
 
-            if (t < 0)
+        // A segment is added to every cell overlapped by its bounding box. This includes
+        // the cell holding the point of the segment closest to any lookup position.
+        double margin = cellSize * CELL_MARGIN;
+        cellStart = new int[gridWidth * gridHeight + 1];
+        for (int pass=0;pass<2;pass++)
+        {
+            int[] cellEnd = pass == 1 ? Arrays.copyOf(cellStart, cellStart.length) : null;
+            for (int i=0;i<lineSegmentsEnd;i+=5)
+            {
+                double x0 = lineSegments[i];
+                double y0 = lineSegments[i+1];
+                double x1 = x0 + lineSegments[i+2];
+                double y1 = y0 + lineSegments[i+3];
+                int cx0 = clamp(cellX(Math.min(x0, x1) - margin), gridWidth);
+                int cx1 = clamp(cellX(Math.max(x0, x1) + margin), gridWidth);
+                int cy0 = clamp(cellY(Math.min(y0, y1) - margin), gridHeight);
+                int cy1 = clamp(cellY(Math.max(y0, y1) + margin), gridHeight);
+                for (int cy=cy0;cy<=cy1;cy++)
+                {
+                    for (int cx=cx0;cx<=cx1;cx++)
+                    {
+                        int cell = cy * gridWidth + cx;
+                        if (pass == 0)
+                            cellStart[cell + 1]++;
+                        else
+                            cellSegments[cellEnd[cell]++] = i;
+                    }
+                }
+            }
+            if (pass == 0)
             {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                for (int c=0;c<gridWidth * gridHeight;c++)
+                    cellStart[c + 1] += cellStart[c];
+                cellSegments = new int[cellStart[gridWidth * gridHeight]];
             }
-            else if (t > 1)
+        }
+    }
+
+    private double segmentDistSqr(int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
+    // Lower bound of the squared distance from [x, y] to a grid cell. The cell is grown by
+    // a small margin, since rounding can put points on a cell border in the neighbour cell.
+    private double cellDistSqr(int cx, int cy, double x, double y)
+    {
+        double margin = cellSize * CELL_MARGIN;
+        double cellX0 = gridX0 + cx * cellSize - margin;
+        double cellY0 = gridY0 + cy * cellSize - margin;
+        double cellX1 = gridX0 + (cx + 1) * cellSize + margin;
+        double cellY1 = gridY0 + (cy + 1) * cellSize + margin;
+        double dx = Math.max(0, Math.max(cellX0 - x, x - cellX1));
+        double dy = Math.max(0, Math.max(cellY0 - y, y - cellY1));
+        return dx * dx + dy * dy;
+    }
+
+    // Compute the minimal distance from [x, y] to any of the line segments
+    public double distSqr(double x, double y)
+    {
+        if (gridDirty)
+            buildGrid();
+
+        double distMin = DIST_MAX;
+        if (cellStart == null)
+            return distMin;
+
+        // Visit the cells in rings of increasing distance around the cell of [x, y], until
+        // no unvisited cell can be closer than the closest segment found
+        int qx = cellX(x);
+        int qy = cellY(y);
+        int ringMax = Math.max(Math.max(Math.abs(qx), Math.abs(qx - (gridWidth - 1))), Math.max(Math.abs(qy), Math.abs(qy - (gridHeight - 1))));
+        for (int r=0;r<=ringMax;r++)
+        {
+            double ringDist = (r - 1 - 2 * CELL_MARGIN) * cellSize;
+            if (ringDist > 0 && ringDist * ringDist > distMin)
+                break;
+            int cy0 = Math.max(0, qy - r);
+            int cy1 = Math.min(gridHeight - 1, qy + r);
+            for (int cy=cy0;cy<=cy1;cy++)
             {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                boolean edgeRow = cy == qy - r || cy == qy + r;
+                int cx0 = Math.max(0, qx - r);
+                int cx1 = Math.min(gridWidth - 1, qx + r);
+                for (int cx=cx0;cx<=cx1;cx++)
+                {
+                    if (!edgeRow && cx != qx - r && cx != qx + r)
+                    {
+                        // Inside the ring, skip to the right edge
+                        cx = qx + r - 1;
+                        continue;
+                    }
+                    if (cellDistSqr(cx, cy, x, y) > distMin)
+                        continue;
+                    int cell = cy * gridWidth + cx;
+                    for (int c=cellStart[cell];c<cellStart[cell + 1];c++)
+                    {
+                        double distSqr = segmentDistSqr(cellSegments[c], x, y);
+                        if (distSqr < distMin)
+                            distMin = distSqr;
+                    }
+                }
             }
-            else
+        }
+        return distMin;
+    }
+
+    // Compute the minimal distance from [x, y] to any of the line segments, given that
+    // the distance is known to be at most maxDist. Only the cells within maxDist are visited.
+    private double distSqr(double x, double y, double maxDist)
+    {
+        if (gridDirty)
+            buildGrid();
+
+        double distMin = DIST_MAX;
+        if (cellStart == null)
+            return distMin;
+
+        double margin = cellSize * CELL_MARGIN;
+        int cx0 = Math.max(0, cellX(x - maxDist - margin));
+        int cx1 = Math.min(gridWidth - 1, cellX(x + maxDist + margin));
+        int cy0 = Math.max(0, cellY(y - maxDist - margin));
+        int cy1 = Math.min(gridHeight - 1, cellY(y + maxDist + margin));
+        for (int cy=cy0;cy<=cy1;cy++)
+        {
+            for (int cell=cy * gridWidth + cx0;cell<=cy * gridWidth + cx1;cell++)
             {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                for (int c=cellStart[cell];c<cellStart[cell + 1];c++)
+                {
+                    double distSqr = segmentDistSqr(cellSegments[c], x, y);
+                    if (distSqr < distMin)
+                        distMin = distSqr;
+                }
             }
         }
+
+        // Only happens if rounding made the bound too tight
+        if (distMin > maxDist * maxDist)
+            return distSqr(x, y);
         return distMin;
     }
 
@@ -81,15 +285,28 @@ public class DistanceFieldGenerator
     {
         int ofs = 0;
         double dx = (x1 - x0) / (double)width;
+        double dy = (y1 - y0) / (double)height;
+        double rowStartDist = -1;
         for (int y=0;y<height;y++)
         {
             double py = y0 + y * (y1-y0) / (double)height;
             double px = x0;
+            // The distance changes by at most the distance between two neighbouring pixels,
+            // which bounds the search around each pixel
+            double dist = rowStartDist < 0 ? Math.sqrt(distSqr(px, py)) : Math.sqrt(distSqr(px, py, bound(rowStartDist, dy)));
+            rowStartDist = dist;
             for (int x=0;x<width;x++)
             {
-                output[ofs++] = Math.sqrt(distSqr(px, py));
+                if (x > 0)
+                    dist = Math.sqrt(distSqr(px, py, bound(dist, dx)));
+                output[ofs++] = dist;
                 px += dx;
             }
         }
     }
+
+    private static double bound(double dist, double step)
+    {
+        return (dist + Math.abs(step)) * (1 + CELL_MARGIN) + CELL_MARGIN;
+    }
 }
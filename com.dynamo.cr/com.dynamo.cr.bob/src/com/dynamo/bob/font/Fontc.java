@@ -50,6 +50,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -62,6 +65,7 @@ import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 
 import com.dynamo.bob.pipeline.TextureGeneratorException;
+import com.dynamo.bob.util.WorkerPool;
 
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.Char;
@@ -315,37 +319,33 @@ public class Fontc {
         return sdfLimitValue * (1.0f - sdf_edge) + sdf_edge;
     }
 
-    private ByteBuffer toByteArray(BufferedImage image, int width, int height, int bpp, int targetBpp) throws IOException {
-        int dataSize = width * height * bpp;
-        ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
-
-        int[] rasterData = new int[width * height * 4];
-        image.getRaster().getPixels(0, 0, width, height, rasterData);
-
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                // BGRA to RGBA
-                int i = y*width*bpp + x*bpp;
-                int green = 0;
-                int red = 0;
-                int alpha = 0;
-                int blue = rasterData[i + 0];
-                if (bpp > 1)
-                    green = rasterData[i + 1];
-                if (bpp > 2)
-                    red = rasterData[i + 2];
-                if (bpp > 3)
-                    alpha = rasterData[i + 3];
-
-                buffer.put((byte)(red & 0xFF));
-                if (targetBpp > 1)
-                    buffer.put((byte)(green & 0xFF));
-                if (targetBpp > 2)
-                    buffer.put((byte)(blue & 0xFF));
-                if (targetBpp > 3)
-                    buffer.put((byte)(alpha & 0xFF));
+    // Pads the glyph image with cell padding, premultiplies the color with alpha and returns
+    // the first channelCount components (RGBA order) of each pixel.
+    private static ByteBuffer toPaddedByteBuffer(BufferedImage image, int cellPadding, int channelCount) {
+        int glyphWidth = image.getWidth();
+        int glyphHeight = image.getHeight();
+        int width = glyphWidth + cellPadding * 2;
+        int height = glyphHeight + cellPadding * 2;
+
+        int[] argb = image.getRGB(0, 0, glyphWidth, glyphHeight, null, 0, glyphWidth);
+        byte[] data = new byte[width * height * channelCount];
+        for (int y = 0; y < glyphHeight; ++y) {
+            int i = ((y + cellPadding) * width + cellPadding) * channelCount;
+            for (int x = 0; x < glyphWidth; ++x) {
+                int color = argb[y * glyphWidth + x];
+                int alpha = (color >> 24) & 0xff;
+                data[i++] = (byte)((((color >> 16) & 0xff) * alpha) / 255);
+                if (channelCount > 1)
+                    data[i++] = (byte)((((color >> 8) & 0xff) * alpha) / 255);
+                if (channelCount > 2)
+                    data[i++] = (byte)(((color & 0xff) * alpha) / 255);
+                if (channelCount > 3)
+                    data[i++] = (byte)alpha;
             }
         }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
         buffer.flip(); // limit is set to current position, and position is set to zero
         return buffer;
     }
@@ -380,10 +380,10 @@ public class Fontc {
             padding = Math.min(4, fontDesc.getShadowBlur()) + (int)(fontDesc.getOutlineWidth());
         }
 
-        Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
-        Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
+        final Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
+        final Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
         ConvolveOp shadowConvolve = null;
-        Composite blendComposite = new BlendComposite();
+        final Composite blendComposite = new BlendComposite();
         if (fontDesc.getShadowAlpha() > 0.0f) {
             float[] kernelData = {
                     0.0625f, 0.1250f, 0.0625f,
@@ -533,108 +533,82 @@ public class Fontc {
         if (preview) {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
-        for (int i = 0; i < include_glyph_count; i++) {
-
-            Glyph glyph = glyphs.get(i);
-            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
-                continue;
-            }
-
-            // Generate bitmap for each glyph depending on format
-            BufferedImage glyphImage = null;
-            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
-                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
-            } else {
-                throw new FontFormatException("Invalid font format combination!");
-            }
 
-            if (preview) {
-
-                glyph.image = glyphImage;
+        if (!(fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP && inputFormat == InputFontFormat.FORMAT_TRUETYPE) &&
+            !(fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP && inputFormat == InputFontFormat.FORMAT_BMFONT) &&
+            !(fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD && inputFormat == InputFontFormat.FORMAT_TRUETYPE)) {
+            throw new FontFormatException("Invalid font format combination!");
+        }
 
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
-                    }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
+        // Glyph bitmaps are generated, padded and compressed concurrently, and then stored
+        // in the glyph data bank in order below. Each task only touches its own glyph, and the
+        // outlines are fetched from the shared font on this thread.
+        final boolean glyph_preview = preview;
+        final int glyph_padding = padding;
+        final int glyph_cell_padding = cell_padding;
+        final float glyph_sdf_spread = sdf_spread;
+        final float glyph_sdf_shadow_spread = sdf_shadow_spread;
+        final ConvolveOp glyph_shadowConvolve = shadowConvolve;
+        final BufferedImage glyph_imageBMFont = imageBMFont;
+        List<Future<byte[]>> pendingGlyphData = new ArrayList<Future<byte[]>>(include_glyph_count);
+        try {
+            for (int i = 0; i < include_glyph_count; i++) {
+                final Glyph glyph = glyphs.get(i);
+                if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
+                    pendingGlyphData.add(null);
+                    continue;
                 }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, 0, clearData);
-
-                Pointer compressedTexture = null;
-                try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-                    int compressionLevel = TexcLibrary.CompressionLevel.CL_BEST;
-                    int compressionType = TexcLibrary.CompressionType.CT_WEBP;
 
-                    int pixelFormat = PixelFormat.L8;
-                    if (channelCount > 3)
-                        pixelFormat = PixelFormat.R8G8B8A8;
-                    else if (channelCount > 1)
-                        pixelFormat = PixelFormat.R8G8B8;
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+                final Shape outline;
+                if (inputFormat == InputFontFormat.FORMAT_BMFONT) {
+                    outline = null;
+                } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD) {
+                    outline = glyph.vector.getGlyphOutline(0);
+                } else {
+                    outline = glyph.vector.getOutline(0, 0);
+                }
 
-                    compressedTexture = TexcLibrary.TEXC_CompressWebPBuffer(width, height, channelCount*8, paddedBuffer, width*height*channelCount, pixelFormat, compressionLevel, compressionType);
+                pendingGlyphData.add(WorkerPool.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws TextureGeneratorException {
+                        // Generate bitmap for each glyph depending on format
+                        BufferedImage glyphImage = null;
+                        if (inputFormat == InputFontFormat.FORMAT_BMFONT) {
+                            glyphImage = drawBMFontGlyph(glyph, glyph_imageBMFont);
+                        } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD) {
+                            glyphImage = makeDistanceField(glyph, outline, glyph_padding, glyph_sdf_spread, glyph_sdf_shadow_spread, sdf_edge, glyph_shadowConvolve);
+                        } else {
+                            glyphImage = drawGlyph(glyph, outline, glyph_padding, blendComposite, faceColor, outlineColor, glyph_shadowConvolve);
+                        }
+
+                        if (glyph_preview) {
+                            glyph.image = glyphImage;
+                            return null;
+                        }
+                        return compressGlyph(glyphImage, glyph_cell_padding);
+                    }
+                }));
+            }
 
-                    int bufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, bufferSize);
+            for (int i = 0; i < include_glyph_count; i++) {
+                Future<byte[]> glyphData = pendingGlyphData.get(i);
+                if (glyphData == null) {
+                    continue;
+                }
 
+                byte[] data = WorkerPool.get(glyphData, TextureGeneratorException.class);
+                if (data != null) {
+                    Glyph glyph = glyphs.get(i);
                     glyph.cache_entry_offset = dataOffset;
-                    dataOffset += bufferSize;
-
-                    byte[] arr = new byte[buffer.limit()];
-                    buffer.get(arr);
-                    glyphDataBank.write(arr);
-
-                    glyph.cache_entry_size = bufferSize;
-
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+                    glyph.cache_entry_size = data.length;
+                    dataOffset += data.length;
+                    glyphDataBank.write(data, 0, data.length);
+                }
+            }
+        } finally {
+            for (Future<byte[]> glyphData : pendingGlyphData) {
+                if (glyphData != null) {
+                    glyphData.cancel(false);
                 }
             }
         }
@@ -695,19 +669,52 @@ public class Fontc {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
 
-    private BufferedImage makeDistanceField(Glyph glyph, int padding, float sdf_spread, float sdf_shadow_spread, Font font, float edge, ConvolveOp shadowConvolve) {
+    private byte[] compressGlyph(BufferedImage glyphImage, int cellPadding) throws TextureGeneratorException {
+        int width = glyphImage.getWidth() + cellPadding * 2;
+        int height = glyphImage.getHeight() + cellPadding * 2;
+        int compressionLevel = TexcLibrary.CompressionLevel.CL_BEST;
+        int compressionType = TexcLibrary.CompressionType.CT_WEBP;
+
+        int pixelFormat = PixelFormat.L8;
+        if (channelCount > 3)
+            pixelFormat = PixelFormat.R8G8B8A8;
+        else if (channelCount > 1)
+            pixelFormat = PixelFormat.R8G8B8;
+
+        ByteBuffer paddedBuffer = toPaddedByteBuffer(glyphImage, cellPadding, channelCount);
+
+        Pointer compressedTexture = null;
+        try {
+            compressedTexture = TexcLibrary.TEXC_CompressWebPBuffer(width, height, channelCount*8, paddedBuffer, width*height*channelCount, pixelFormat, compressionLevel, compressionType);
+            if (compressedTexture == null) {
+                throw new TextureGeneratorException("Failed to generate font texture");
+            }
+
+            int bufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, bufferSize);
+
+            byte[] arr = new byte[buffer.limit()];
+            buffer.get(arr);
+            return arr;
+        } finally {
+            TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+        }
+    }
+
+    // Called concurrently for several glyphs, see generateGlyphData
+    private BufferedImage makeDistanceField(Glyph glyph, Shape sh, int padding, float sdf_spread, float sdf_shadow_spread, float edge, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
-        Shape sh = glyph.vector.getGlyphOutline(0);
         PathIterator pi = sh.getPathIterator(new AffineTransform(1,0,0,1,0,0));
         pi = new FlatteningPathIterator(pi,  0.1);
 
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
         DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double [] c = new double[6];
         while (!pi.isDone()) {
-            double [] c = new double[100];
             int res = pi.currentSegment(c);
             switch (res) {
               case PathIterator.SEG_MOVETO:
@@ -801,8 +808,10 @@ public class Fontc {
             // When the blur kernel is != 0, make sure to always blur the DF data set
             // at least once so we can avoid the jaggies around the face edges. This is mostly
             // prominent when the blur size is small and the offset is large.
+            // The op is shared by all glyphs, so use a copy of it on this thread.
+            ConvolveOp convolve = new ConvolveOp(shadowConvolve.getKernel(), shadowConvolve.getEdgeCondition(), shadowConvolve.getRenderingHints());
             BufferedImage tmp = blurredShadowImage.getSubimage(0, 0, width, height);
-            shadowConvolve.filter(tmp, blurredShadowImage);
+            convolve.filter(tmp, blurredShadowImage);
 
             for (int v=0;v<height;v++) {
                 for (int u=0;u<width;u++) {
@@ -817,7 +826,8 @@ public class Fontc {
         return image;
     }
 
-    private BufferedImage drawGlyph(Glyph glyph, int padding, Font font, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
+    // Called concurrently for several glyphs, see generateGlyphData
+    private BufferedImage drawGlyph(Glyph glyph, Shape outline, int padding, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
@@ -834,7 +844,6 @@ public class Fontc {
         g.clearRect(0, 0, image.getWidth(), image.getHeight());
         g.translate(dx, dy);
 
-        Shape outline = glyph.vector.getOutline(0, 0);
         if (this.fontDesc.getShadowAlpha() > 0.0f) {
             if (this.fontDesc.getAlpha() > 0.0f) {
                 g.setPaint(new Color(0.0f, 0.0f, this.fontDesc.getShadowAlpha() * this.fontDesc.getAlpha()));
@@ -845,9 +854,11 @@ public class Fontc {
                 g.setStroke(this.outlineStroke);
                 g.draw(outline);
             }
+            // The op is shared by all glyphs, so use a copy of it on this thread.
+            ConvolveOp convolve = new ConvolveOp(shadowConvolve.getKernel(), shadowConvolve.getEdgeCondition(), shadowConvolve.getRenderingHints());
             for (int pass = 0; pass < this.fontDesc.getShadowBlur(); ++pass) {
                 BufferedImage tmp = image.getSubimage(0, 0, width, height);
-                shadowConvolve.filter(tmp, image);
+                convolve.filter(tmp, image);
             }
         }
 
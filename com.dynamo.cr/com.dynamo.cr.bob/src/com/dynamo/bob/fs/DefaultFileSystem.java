@@ -13,17 +13,13 @@
 package com.dynamo.bob.fs;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
@@ -32,13 +28,14 @@ import org.apache.commons.io.IOUtils;
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
+    // Digest cache entry as serialized by older versions, only used for migration
     static class CacheEntry implements Serializable {
         private static final long serialVersionUID = 1L;
         long mTime;
         byte[] sha1;
     }
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    private DigestStore cache = new DigestStore();
 
     @Override
     public IResource get(String path) {
@@ -52,63 +49,79 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
         return new DefaultResource(this, path);
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
+    /**
+     * Get sha1 of a file resource. The digest is cached and only recalculated
+     * when the size, modification time or file key (inode) of the file changes.
+     */
+    byte[] sha1(DefaultResource resource) throws IOException {
+        Path path = Paths.get(resource.getAbsPath());
+        long fingerprint = DigestUtil.fingerprint(path);
+        if (fingerprint == 0) {
             throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
         }
-        MessageDigest sha1;
-        try {
-            sha1 = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        DigestStore.Entry e = cache.get(resource.getPath());
+        if (e != null && fingerprint == e.stamp) {
+            return e.digest;
+        } else {
+            byte[] sha1 = DigestUtil.sha1(path);
+            cache.put(resource.getPath(), fingerprint, sha1);
+            return sha1;
         }
-        sha1.update(content);
-        return sha1.digest();
     }
 
-    byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
-        CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
-            return e.sha1;
-        } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
-            cache.put(resource.getPath(), e);
-            return e.sha1;
-        }
+    private String getCachePath() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
     }
 
+    /**
+     * Migrate a digest cache in the old serialized format. Entries whose file still has
+     * the modification time they were cached with are kept, stamped with the current
+     * fingerprint of the file. Other entries are dropped and rehashed on demand.
+     */
     @SuppressWarnings("unchecked")
-    @Override
-    public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
+    private DigestStore migrateCache(File file) {
+        DigestStore store = new DigestStore();
         ObjectInputStream is = null;
         try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
+            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Map<String, CacheEntry> entries = (Map<String, CacheEntry>) is.readObject();
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                File f = new File(FilenameUtils.concat(this.rootDirectory, e.getKey()));
+                if (!f.isFile() || f.lastModified() != e.getValue().mTime) {
+                    continue;
+                }
+                long fingerprint = DigestUtil.fingerprint(f.toPath());
+                if (fingerprint != 0) {
+                    store.put(e.getKey(), fingerprint, e.getValue().sha1);
+                }
+            }
         } catch (IOException e) {
         } catch (ClassNotFoundException e) {
         } finally {
             IOUtils.closeQuietly(is);
         }
+        return store;
+    }
+
+    @Override
+    public void loadCache() {
+        File file = new File(getCachePath());
+        try {
+            if (!file.isFile() || DigestStore.isDigestStore(file)) {
+                cache = DigestStore.load(file);
+            } else {
+                cache = migrateCache(file);
+            }
+        } catch (IOException e) {
+            cache = new DigestStore();
+        }
     }
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            cache.save(new File(getCachePath()));
         } catch (IOException e) {
-        } finally {
-            IOUtils.closeQuietly(os);
         }
     }
 
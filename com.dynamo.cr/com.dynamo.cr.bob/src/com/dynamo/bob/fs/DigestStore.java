@@ -0,0 +1,448 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.fs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent map from path to a 20 byte digest (sha1) and a 64 bit stamp, used for
+ * the build state signatures and the file digest cache.
+ *
+ * The file starts with a header (magic, version) followed by a log of records:
+ * <ul>
+ * <li>PATH: int length, utf-8 path. Interns the path, ids are assigned in order.</li>
+ * <li>ENTRY: int path id, long stamp, byte digest length, 20 byte digest slot.</li>
+ * </ul>
+ * The last entry for a path wins. The file is memory mapped when loaded and only the
+ * path table is decoded, digests are read from the mapping on demand. Saving appends
+ * the changed entries, or compacts the file when most of it is overwritten entries.
+ *
+ * The mapping is never remapped after a save. Every entry put since the load is kept in
+ * memory and served from there, so the mapping is only read for entries of the loaded
+ * file. All methods are synchronized on the store and may be called from any thread.
+ */
+public class DigestStore {
+
+    public static final int DIGEST_SIZE = 20;
+
+    private static final int MAGIC = 0x44475354; // "DGST"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte TAG_PATH = 1;
+    private static final byte TAG_ENTRY = 2;
+    private static final int ENTRY_SIZE = 1 + 4 + 8 + 1 + DIGEST_SIZE;
+
+    public static class Entry {
+        public final long stamp;
+        public final byte[] digest;
+
+        public Entry(long stamp, byte[] digest) {
+            this.stamp = stamp;
+            this.digest = digest;
+        }
+    }
+
+    // Content of the loaded file, mapped or in memory. null for a new store
+    private ByteBuffer buffer;
+    private final Map<String, Integer> pathIds = new ConcurrentHashMap<String, Integer>();
+    private final List<String> paths = new ArrayList<String>();
+    // Offset of the last entry record for each path id in buffer, -1 if none.
+    // Only valid for entries of the loaded file, later entries are served from updates
+    private int[] entryOffsets = new int[64];
+    private int liveEntries = 0;
+    private int deadEntries = 0;
+    private int validLength = 0;
+    // The file needs to be rewritten, e.g. old version or a truncated record
+    private boolean rewrite = true;
+
+    private final Map<String, Entry> updates = new ConcurrentHashMap<String, Entry>();
+    // Updates already written to disk
+    private final Map<String, Entry> saved = new HashMap<String, Entry>();
+
+    /**
+     * Check if content is in the digest store format, any version
+     * @param content file content, or the first bytes of it
+     * @return true if the content starts with the digest store magic
+     */
+    public static boolean isDigestStore(byte[] content) {
+        return content != null && content.length >= 4 && ByteBuffer.wrap(content).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Check if a file is in the digest store format, any version
+     * @param file file to check
+     * @return true if the file starts with the digest store magic
+     * @throws IOException
+     */
+    public static boolean isDigestStore(File file) throws IOException {
+        if (!file.isFile() || file.length() < 4) {
+            return false;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            return f.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Load store by memory mapping a file. A missing file gives an empty store.
+     * @param file file to load
+     * @return store
+     * @throws IOException if the file can't be read or isn't a digest store
+     */
+    public static DigestStore load(File file) throws IOException {
+        DigestStore store = new DigestStore();
+        if (!file.isFile() || file.length() == 0) {
+            return store;
+        }
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Digest store '%s' is too large", file));
+        }
+        try (RandomAccessFile f = new RandomAccessFile(file, "r"); FileChannel channel = f.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            store.parse(mapped);
+        }
+        return store;
+    }
+
+    /**
+     * Load store from in-memory content
+     * @param content content in the digest store format. null gives an empty store.
+     * @return store
+     * @throws IOException if the content isn't a digest store
+     */
+    public static DigestStore load(byte[] content) throws IOException {
+        DigestStore store = new DigestStore();
+        if (content != null && content.length > 0) {
+            store.parse(ByteBuffer.wrap(content));
+        }
+        return store;
+    }
+
+    private void parse(ByteBuffer buffer) throws IOException {
+        int limit = buffer.limit();
+        if (limit < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a digest store");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            // Unknown version, start over
+            return;
+        }
+        this.buffer = buffer;
+        int pos = HEADER_SIZE;
+        while (pos < limit) {
+            byte tag = buffer.get(pos);
+            if (tag == TAG_PATH) {
+                if (pos + 5 > limit) {
+                    break;
+                }
+                int length = buffer.getInt(pos + 1);
+                if (length < 0 || pos + 5 + length > limit) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(pos + 5);
+                view.get(bytes);
+                addPath(new String(bytes, StandardCharsets.UTF_8));
+                pos += 5 + length;
+            } else if (tag == TAG_ENTRY) {
+                if (pos + ENTRY_SIZE > limit) {
+                    break;
+                }
+                int id = buffer.getInt(pos + 1);
+                if (id < 0 || id >= paths.size()) {
+                    break;
+                }
+                int digestLength = buffer.get(pos + 13);
+                if (digestLength < 0 || digestLength > DIGEST_SIZE) {
+                    // Corrupt record, handled as a truncated file
+                    break;
+                }
+                if (entryOffsets[id] >= 0) {
+                    ++deadEntries;
+                } else {
+                    ++liveEntries;
+                }
+                entryOffsets[id] = pos;
+                pos += ENTRY_SIZE;
+            } else {
+                break;
+            }
+        }
+        validLength = pos;
+        rewrite = pos != limit;
+    }
+
+    private int addPath(String path) {
+        int id = paths.size();
+        if (id == entryOffsets.length) {
+            entryOffsets = Arrays.copyOf(entryOffsets, id * 2);
+        }
+        entryOffsets[id] = -1;
+        paths.add(path);
+        Integer previous = pathIds.put(path, id);
+        if (previous != null && entryOffsets[previous] >= 0) {
+            // Path interned twice, the older entry is never read again
+            entryOffsets[previous] = -1;
+            --liveEntries;
+            ++deadEntries;
+        }
+        return id;
+    }
+
+    private Entry readEntry(int offset) {
+        long stamp = buffer.getLong(offset + 5);
+        int length = buffer.get(offset + 13);
+        byte[] digest = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            digest[i] = buffer.get(offset + 14 + i);
+        }
+        return new Entry(stamp, digest);
+    }
+
+    /**
+     * Get entry for path
+     * @param path path to get entry for
+     * @return entry or null if no mapping exists
+     */
+    public synchronized Entry get(String path) {
+        Entry entry = updates.get(path);
+        if (entry != null) {
+            return entry;
+        }
+        Integer id = pathIds.get(path);
+        if (id == null || buffer == null) {
+            return null;
+        }
+        int offset = entryOffsets[id];
+        return offset >= 0 ? readEntry(offset) : null;
+    }
+
+    /**
+     * Get digest for path
+     * @param path path to get digest for
+     * @return digest or null if no mapping exists
+     */
+    public byte[] getDigest(String path) {
+        Entry entry = get(path);
+        return entry != null ? entry.digest : null;
+    }
+
+    /**
+     * Set digest and stamp for path
+     * @param path path to set entry for
+     * @param stamp stamp, e.g. modification time of the file the digest was calculated from
+     * @param digest digest of at most {@link #DIGEST_SIZE} bytes
+     */
+    public synchronized void put(String path, long stamp, byte[] digest) {
+        if (digest.length > DIGEST_SIZE) {
+            throw new IllegalArgumentException(String.format("Digest for '%s' is larger than %d bytes", path, DIGEST_SIZE));
+        }
+        Entry current = get(path);
+        if (current != null && current.stamp == stamp && Arrays.equals(current.digest, digest)) {
+            return;
+        }
+        updates.put(path, new Entry(stamp, digest.clone()));
+    }
+
+    /**
+     * Get all paths with an entry
+     * @return list of paths
+     */
+    public synchronized List<String> getPaths() {
+        List<String> result = new ArrayList<String>();
+        for (int id = 0; id < paths.size(); ++id) {
+            String path = paths.get(id);
+            if (entryOffsets[id] >= 0 && pathIds.get(path) == id && !updates.containsKey(path)) {
+                result.add(path);
+            }
+        }
+        result.addAll(updates.keySet());
+        return result;
+    }
+
+    private static void writeHeader(DataOutputStream os) throws IOException {
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+    }
+
+    private static void writePath(DataOutputStream os, String path) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        os.writeByte(TAG_PATH);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static void writeEntry(DataOutputStream os, int id, Entry entry) throws IOException {
+        os.writeByte(TAG_ENTRY);
+        os.writeInt(id);
+        os.writeLong(entry.stamp);
+        os.writeByte(entry.digest.length);
+        os.write(entry.digest);
+        os.write(new byte[DIGEST_SIZE - entry.digest.length]);
+    }
+
+    // Write all current entries, keeping the path ids
+    private void writeAll(OutputStream out) throws IOException {
+        DataOutputStream os = new DataOutputStream(out);
+        writeHeader(os);
+        List<String> allPaths = new ArrayList<String>(paths);
+        for (String path : updates.keySet()) {
+            if (!pathIds.containsKey(path)) {
+                allPaths.add(path);
+            }
+        }
+        for (String path : allPaths) {
+            writePath(os, path);
+        }
+        for (int id = 0; id < allPaths.size(); ++id) {
+            String path = allPaths.get(id);
+            if (id < paths.size() && pathIds.get(path) != id) {
+                continue;
+            }
+            Entry entry = get(path);
+            if (entry != null) {
+                writeEntry(os, id, entry);
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * Get the content of the store, compacted
+     * @return content in the digest store format
+     * @throws IOException
+     */
+    public synchronized byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(HEADER_SIZE + (paths.size() + updates.size()) * (ENTRY_SIZE + 64));
+        writeAll(bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Save the store to the file it was loaded from. Changed entries are appended,
+     * nothing is written if nothing has changed. The file is compacted when more
+     * than half of the entries would be overwritten ones.
+     * @param file file to save to
+     * @throws IOException
+     */
+    public synchronized void save(File file) throws IOException {
+        List<String> changed = new ArrayList<String>();
+        int replaced = 0;
+        for (Map.Entry<String, Entry> e : updates.entrySet()) {
+            if (saved.get(e.getKey()) != e.getValue()) {
+                changed.add(e.getKey());
+                Integer id = pathIds.get(e.getKey());
+                if (id != null && (entryOffsets[id] >= 0 || saved.containsKey(e.getKey()))) {
+                    ++replaced;
+                }
+            }
+        }
+        boolean compact = rewrite || !file.isFile() || file.length() != validLength || deadEntries + replaced > liveEntries + changed.size() - replaced;
+        if (changed.isEmpty() && !compact) {
+            return;
+        }
+
+        if (compact && rewriteFile(file)) {
+            return;
+        }
+        if (rewrite || !file.isFile() || file.length() != validLength) {
+            throw new IOException(String.format("Unable to write digest store '%s'", file));
+        }
+
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            int appended = 0;
+            for (String path : changed) {
+                Entry entry = updates.get(path);
+                Integer id = pathIds.get(path);
+                if (id == null) {
+                    writePath(os, path);
+                    appended += 5 + path.getBytes(StandardCharsets.UTF_8).length;
+                    id = addPath(path);
+                } else if (entryOffsets[id] >= 0 || saved.containsKey(path)) {
+                    ++deadEntries;
+                    --liveEntries;
+                }
+                writeEntry(os, id, entry);
+                appended += ENTRY_SIZE;
+                ++liveEntries;
+                saved.put(path, entry);
+            }
+            os.flush();
+            validLength += appended;
+        }
+    }
+
+    private boolean rewriteFile(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            writeAll(os);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e2) {
+                // The old file may still be mapped, e.g. on Windows. Append instead if possible.
+                tmp.delete();
+                return false;
+            }
+        }
+        // The written file has the same path ids, followed by any new paths
+        for (String path : updates.keySet()) {
+            if (!pathIds.containsKey(path)) {
+                addPath(path);
+            }
+        }
+        saved.clear();
+        saved.putAll(updates);
+        validLength = (int) file.length();
+        liveEntries = getPaths().size();
+        deadEntries = 0;
+        rewrite = false;
+        return true;
+    }
+
+    /**
+     * Number of paths with an entry
+     * @return entry count
+     */
+    public synchronized int size() {
+        return getPaths().size();
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming sha1 digests and file fingerprints. Files are read through a
+ * {@link FileChannel} into a per thread direct buffer, so that large files
+ * are never loaded into the heap in full.
+ */
+public class DigestUtil {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> directBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> heapBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private DigestUtil() {}
+
+    public static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculate sha1 of a file
+     * @param path file to calculate digest for
+     * @return sha1 digest
+     * @throws IOException
+     */
+    public static byte[] sha1(Path path) throws IOException {
+        MessageDigest sha1 = newSha1();
+        ByteBuffer buffer = directBuffers.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        }
+        return sha1.digest();
+    }
+
+    /**
+     * Calculate sha1 of a stream. The stream is read to the end but not closed.
+     * @param is stream to calculate digest for
+     * @return sha1 digest
+     * @throws IOException
+     */
+    public static byte[] sha1(InputStream is) throws IOException {
+        MessageDigest sha1 = newSha1();
+        byte[] buffer = heapBuffers.get();
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            sha1.update(buffer, 0, n);
+        }
+        return sha1.digest();
+    }
+
+    /**
+     * Get a fingerprint of a file from its size, modification time and file key
+     * (e.g. device and inode), without reading the content.
+     * @param path file to get fingerprint for
+     * @return fingerprint, or 0 if the file doesn't exist
+     * @throws IOException
+     */
+    public static long fingerprint(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        if (!attributes.isRegularFile()) {
+            return 0;
+        }
+        // FNV-1a over the attributes
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ attributes.size()) * 0x100000001b3L;
+        h = (h ^ attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)) * 0x100000001b3L;
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            h = (h ^ fileKey.hashCode()) * 0x100000001b3L;
+        }
+        // 0 is reserved for missing files
+        return h != 0 ? h : 1;
+    }
+}
@@ -60,6 +60,11 @@ public class ZipMountPoint implements IMountPoint {
             }
         }
 
+        @Override
+        protected InputStream openInputStream() throws IOException {
+            return file.getInputStream(this.entry);
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
@@ -12,16 +12,16 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
@@ -29,10 +29,10 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.RigUtil;
 import com.dynamo.rig.proto.Rig.AnimationSet;
 import com.dynamo.rig.proto.Rig.AnimationSetDesc;
 import com.dynamo.rig.proto.Rig.AnimationInstanceDesc;
-import com.google.protobuf.TextFormat;
 
 
 @BuilderParams(name="AnimationSet", inExts=".animationset", outExt=".animationsetc")
@@ -46,16 +46,20 @@ public class AnimationSetBuilder extends Builder<Void>  {
             taskBuilder.addInput(animFile);
 
             if(instance.getAnimation().endsWith(".animationset")) {
-                ByteArrayInputStream animFileIS = new ByteArrayInputStream(animFile.getContent());
-                InputStreamReader subAnimSetDescBuilderISR = new InputStreamReader(animFileIS);
                 AnimationSetDesc.Builder subAnimSetDescBuilder = AnimationSetDesc.newBuilder();
-                TextFormat.merge(subAnimSetDescBuilderISR, subAnimSetDescBuilder);
+                ProtoUtil.merge(project, animFile, subAnimSetDescBuilder);
                 collectAnimations(taskBuilder, project, owner, subAnimSetDescBuilder);
             }
         }
     }
 
 
+    @Override
+    public void signature(MessageDigest digest) {
+        // Compressed tracks differ from the sampled ones
+        digest.update(project.option("compress-animations", "false").getBytes());
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -64,10 +68,8 @@ public class AnimationSetBuilder extends Builder<Void>  {
         taskBuilder.addOutput(input.changeExt(params.outExt()));
 
         if( input.getAbsPath().endsWith(".animationset") ) {
-            ByteArrayInputStream animFileIS = new ByteArrayInputStream(input.getContent());
-            InputStreamReader animSetDescBuilderISR = new InputStreamReader(animFileIS);
             AnimationSetDesc.Builder animSetDescBuilder = AnimationSetDesc.newBuilder();
-            TextFormat.merge(animSetDescBuilderISR, animSetDescBuilder);
+            ProtoUtil.merge(this.project, input, animSetDescBuilder);
 
             AnimationSetBuilder.collectAnimations(taskBuilder, this.project, input, animSetDescBuilder);
         }
@@ -89,10 +91,8 @@ public class AnimationSetBuilder extends Builder<Void>  {
             if(instance.getAnimation().endsWith(".animationset")) {
                 IResource animFile = BuilderUtil.checkResource(this.project, task.input(0), "animationset", instance.getAnimation());
                 validateFile(task, animFile.getAbsPath());
-                ByteArrayInputStream animFileIS = new ByteArrayInputStream(animFile.getContent());
-                InputStreamReader subAnimSetDescBuilderISR = new InputStreamReader(animFileIS);
                 AnimationSetDesc.Builder subAnimSetDescBuilder = AnimationSetDesc.newBuilder();
-                TextFormat.merge(subAnimSetDescBuilderISR, subAnimSetDescBuilder);
+                ProtoUtil.merge(this.project, animFile, subAnimSetDescBuilder);
                 buildAnimations(task, subAnimSetDescBuilder, animationSetBuilder, FilenameUtils.getBaseName(animFile.getPath()));
                 continue;
             }
@@ -105,11 +105,11 @@ public class AnimationSetBuilder extends Builder<Void>  {
             }
             idList.add(animId);
 
-            ByteArrayInputStream animFileIS = new ByteArrayInputStream(animFile.getContent());
             AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
             ArrayList<String> animationIds = new ArrayList<String>();
             try {
-                ColladaUtil.loadAnimations(animFileIS, animBuilder, animId, animationIds);
+                XMLCOLLADA collada = ColladaUtil.loadDAE(this.project, animFile);
+                ColladaUtil.loadAnimations(collada, animBuilder, animId, animationIds);
             } catch (XMLStreamException e) {
                 throw new CompileExceptionError(animFile, e.getLocation().getLineNumber(), "Failed to load animation: " + e.getLocalizedMessage(), e);
             } catch (LoaderException e) {
@@ -127,16 +127,17 @@ public class AnimationSetBuilder extends Builder<Void>  {
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
         // load input
-        ByteArrayInputStream animSetDescIS = new ByteArrayInputStream(task.input(0).getContent());
-        InputStreamReader animSetDescISR = new InputStreamReader(animSetDescIS);
         AnimationSetDesc.Builder animSetDescBuilder = AnimationSetDesc.newBuilder();
-        TextFormat.merge(animSetDescISR, animSetDescBuilder);
+        ProtoUtil.merge(this.project, task.input(0), animSetDescBuilder);
 
         // evaluate hierarchy
         AnimationSet.Builder animationSetBuilder = AnimationSet.newBuilder();
         animFiles = new ArrayList<String>();
         animFiles.add(task.input(0).getAbsPath());
         buildAnimations(task, animSetDescBuilder, animationSetBuilder, "");
+        if (project.option("compress-animations", "false").equals("true")) {
+            RigUtil.compressTracks(animationSetBuilder, RigUtil.TrackTolerances.DEFAULT);
+        }
 
         // write merged animationset
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
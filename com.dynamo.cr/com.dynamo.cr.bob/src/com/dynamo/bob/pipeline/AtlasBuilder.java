@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.pipeline;
 
+import java.io.File;
 import java.io.IOException;
 
 import com.dynamo.atlas.proto.AtlasProto.Atlas;
@@ -35,7 +36,7 @@ public class AtlasBuilder extends Builder<Void>  {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Atlas.Builder builder = Atlas.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         Atlas atlas = builder.build();
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -60,7 +61,12 @@ public class AtlasBuilder extends Builder<Void>  {
 
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
-        TextureSetResult result = AtlasUtil.generateTextureSet(project, task.input(0));
+        File layoutCacheFile = null;
+        if (project.option("atlas-incremental", "false").equals("true")) {
+            // Reuse the layout and image of the previous build in the build folder
+            layoutCacheFile = new File(task.output(0).getAbsPath() + ".layout");
+        }
+        TextureSetResult result = AtlasUtil.generateTextureSet(project, task.input(0), layoutCacheFile);
 
         int buildDirLen = project.getBuildDirectory().length();
         String texturePath = task.output(1).getPath().substring(buildDirLen);
@@ -71,7 +77,7 @@ public class AtlasBuilder extends Builder<Void>  {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(result.image, texProfile, compress);
+            texture = TextureGenerator.generate(result.image, texProfile, compress, project.getTextureCache());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
@@ -0,0 +1,247 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
+
+/**
+ * Sidecar cache for incremental atlas generation. Stores the layout and the
+ * composited image of the previous build of an atlas, together with the size,
+ * sprite geometry and sha1 of each source image. The image is stored deflated.
+ * The cache is only used if it was saved with the same layout settings.
+ */
+class AtlasLayoutCache {
+
+    private static final int MAGIC = 0x41544c43; // ATLC
+    private static final int VERSION = 2;
+
+    static class Image {
+        final String path;
+        final int hullSize;
+        final byte[] sha1;
+        final int width;
+        final int height;
+        final SpriteGeometry geometry;
+
+        Image(String path, int hullSize, byte[] sha1, int width, int height, SpriteGeometry geometry) {
+            this.path = path;
+            this.hullSize = hullSize;
+            this.sha1 = sha1;
+            this.width = width;
+            this.height = height;
+            this.geometry = geometry;
+        }
+    }
+
+    private final String settings;
+    private Map<String, Image> images = new HashMap<String, Image>();
+    private List<Image> newImages = new ArrayList<Image>();
+    private Layout layout;
+    private BufferedImage image;
+
+    AtlasLayoutCache(String settings) {
+        this.settings = settings;
+    }
+
+    private static String key(String path, int hullSize) {
+        return path + ":" + hullSize;
+    }
+
+    /**
+     * Get an unchanged image of the previous build
+     * @return image or null if the image wasn't part of the previous build or has changed
+     */
+    Image getImage(String path, int hullSize, byte[] sha1) {
+        Image image = images.get(key(path, hullSize));
+        if (image == null || !Arrays.equals(image.sha1, sha1)) {
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Add an image of the new build, in image order
+     */
+    void addImage(Image image) {
+        newImages.add(image);
+    }
+
+    Layout getLayout() {
+        return layout;
+    }
+
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Set the result of the new build
+     * @param layout layout, with the rectangles in image order
+     * @param image composited image, of type TYPE_4BYTE_ABGR
+     */
+    void setResult(Layout layout, BufferedImage image) {
+        this.layout = layout;
+        this.image = image;
+    }
+
+    /**
+     * Load the cache of a previous build. An empty cache is returned if the
+     * cache file is missing or was saved with other settings.
+     * @param cacheFile cache file
+     * @param settings layout settings of the atlas
+     * @return atlas layout cache
+     */
+    static AtlasLayoutCache load(File cacheFile, String settings) {
+        AtlasLayoutCache cache = new AtlasLayoutCache(settings);
+        if (!cacheFile.isFile()) {
+            return cache;
+        }
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || !is.readUTF().equals(settings)) {
+                return cache;
+            }
+            int imageCount = is.readInt();
+            for (int i = 0; i < imageCount; ++i) {
+                String path = is.readUTF();
+                int hullSize = is.readInt();
+                byte[] sha1 = new byte[is.readUnsignedByte()];
+                is.readFully(sha1);
+                int width = is.readInt();
+                int height = is.readInt();
+                byte[] geometry = new byte[is.readInt()];
+                is.readFully(geometry);
+                cache.images.put(key(path, hullSize), new Image(path, hullSize, sha1, width, height, SpriteGeometry.parseFrom(geometry)));
+            }
+
+            int layoutWidth = is.readInt();
+            int layoutHeight = is.readInt();
+            int rectCount = is.readInt();
+            List<Rect> rects = new ArrayList<Rect>(rectCount);
+            for (int i = 0; i < rectCount; ++i) {
+                Rect rect = new Rect(is.readUTF(), is.readInt(), is.readInt(), is.readInt(), is.readInt(), is.readInt());
+                rect.rotated = is.readBoolean();
+                rects.add(rect);
+            }
+
+            BufferedImage image = new BufferedImage(layoutWidth, layoutHeight, BufferedImage.TYPE_4BYTE_ABGR);
+            Inflater inflater = new Inflater();
+            try {
+                new DataInputStream(new InflaterInputStream(is, inflater)).readFully(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+            } finally {
+                inflater.end();
+            }
+
+            cache.layout = new Layout(layoutWidth, layoutHeight, rects);
+            cache.image = image;
+        } catch (IOException e) {
+            // Corrupt or truncated cache, rebuild all images
+            cache.images.clear();
+            cache.layout = null;
+            cache.image = null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return cache;
+    }
+
+    /**
+     * Save the images and result of the new build. The cache file is replaced
+     * atomically where supported, so an interrupted build leaves the previous cache.
+     * @param cacheFile cache file
+     * @throws IOException
+     */
+    void save(File cacheFile) throws IOException {
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                write(os, deflater);
+            } finally {
+                os.close();
+            }
+            try {
+                Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            deflater.end();
+            tmp.delete();
+        }
+    }
+
+    private void write(DataOutputStream os, Deflater deflater) throws IOException {
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeUTF(settings);
+        os.writeInt(newImages.size());
+        for (Image image : newImages) {
+            os.writeUTF(image.path);
+            os.writeInt(image.hullSize);
+            os.writeByte(image.sha1.length);
+            os.write(image.sha1);
+            os.writeInt(image.width);
+            os.writeInt(image.height);
+            byte[] geometry = image.geometry.toByteArray();
+            os.writeInt(geometry.length);
+            os.write(geometry);
+        }
+
+        os.writeInt(layout.getWidth());
+        os.writeInt(layout.getHeight());
+        os.writeInt(layout.getRectangles().size());
+        for (Rect rect : layout.getRectangles()) {
+            os.writeUTF(rect.id);
+            os.writeInt(rect.index);
+            os.writeInt(rect.x);
+            os.writeInt(rect.y);
+            os.writeInt(rect.width);
+            os.writeInt(rect.height);
+            os.writeBoolean(rect.rotated);
+        }
+
+        // Mostly transparent padding and flat areas, deflates to a fraction of the raw size
+        DeflaterOutputStream pixels = new DeflaterOutputStream(os, deflater, 64 * 1024);
+        pixels.write(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        pixels.finish();
+    }
+}
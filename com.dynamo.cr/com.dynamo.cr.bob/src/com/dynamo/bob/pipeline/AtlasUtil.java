@@ -14,6 +14,7 @@ package com.dynamo.bob.pipeline;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -31,11 +32,15 @@ import com.dynamo.atlas.proto.AtlasProto.AtlasAnimation;
 import com.dynamo.atlas.proto.AtlasProto.AtlasImage;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.tile.proto.Tile.Playback;
 import com.dynamo.tile.proto.Tile.SpriteTrimmingMode;
 
@@ -153,15 +158,19 @@ public class AtlasUtil {
         List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
 
         for (IResource resource : resources) {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
-            if (image == null) {
-                throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
-            }
-            images.add(image);
+            images.add(loadImage(resource));
         }
         return images;
     }
 
+    private static BufferedImage loadImage(IResource resource) throws IOException, CompileExceptionError {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
+        if (image == null) {
+            throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+        }
+        return image;
+    }
+
     private interface PathTransformer {
         String transform(String path);
     }
@@ -198,8 +207,21 @@ public class AtlasUtil {
     }
 
     public static TextureSetResult generateTextureSet(final Project project, IResource atlasResource) throws IOException, CompileExceptionError {
+        return generateTextureSet(project, atlasResource, null);
+    }
+
+    /**
+     * Generate the texture set of an atlas. If a layout cache file is given, the layout and image
+     * of the previous build stored in it are reused when the sizes of all images are unchanged,
+     * and only the images that changed are loaded and drawn. The cache file is updated with the result.
+     * @param project project
+     * @param atlasResource atlas
+     * @param layoutCacheFile layout cache file, or null to generate the texture set from scratch
+     * @return texture set result
+     */
+    public static TextureSetResult generateTextureSet(final Project project, IResource atlasResource, File layoutCacheFile) throws IOException, CompileExceptionError {
         Atlas.Builder builder = Atlas.newBuilder();
-        ProtoUtil.merge(atlasResource, builder);
+        ProtoUtil.merge(project, atlasResource, builder);
         Atlas atlas = builder.build();
 
         List<AtlasImage> atlasImages = collectImages(atlas);
@@ -210,7 +232,6 @@ public class AtlasUtil {
             imageHullSizes.add(spriteTrimModeToInt(image.getSpriteTrimMode()));
         }
         List<IResource> imageResources = toResources(atlasResource, imagePaths);
-        List<BufferedImage> images = AtlasUtil.loadImages(imageResources);
         PathTransformer transformer = new PathTransformer() {
             @Override
             public String transform(String path) {
@@ -223,9 +244,85 @@ public class AtlasUtil {
             imagePaths.set(i, transformer.transform(imagePaths.get(i)));
         }
         MappedAnimIterator iterator = new MappedAnimIterator(animDescs, imagePaths);
+        int margin = Math.max(0, atlas.getMargin());
+        int innerPadding = Math.max(0, atlas.getInnerPadding());
+        int extrudeBorders = Math.max(0, atlas.getExtrudeBorders());
+        if (layoutCacheFile != null) {
+            return generateTextureSetIncremental(imageResources, imageHullSizes, imagePaths, iterator, margin, innerPadding, extrudeBorders, layoutCacheFile);
+        }
+
+        List<BufferedImage> images = AtlasUtil.loadImages(imageResources);
         return TextureSetGenerator.generate(images, imageHullSizes, imagePaths, iterator,
-                Math.max(0, atlas.getMargin()),
-                Math.max(0, atlas.getInnerPadding()),
-                Math.max(0, atlas.getExtrudeBorders()), true, false, null);
+                margin, innerPadding, extrudeBorders, true, false, null);
+    }
+
+    private static TextureSetResult generateTextureSetIncremental(List<IResource> imageResources, List<Integer> imageHullSizes, List<String> imagePaths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, File layoutCacheFile) throws IOException, CompileExceptionError {
+        String settings = String.format("%s:%d:%d:%d", EngineVersion.sha1, margin, innerPadding, extrudeBorders);
+        AtlasLayoutCache previous = AtlasLayoutCache.load(layoutCacheFile, settings);
+        AtlasLayoutCache cache = new AtlasLayoutCache(settings);
+
+        // Only load the images that changed since the previous build, the size and
+        // sprite geometry of the others are taken from the cache
+        int imageCount = imageResources.size();
+        List<BufferedImage> images = new ArrayList<BufferedImage>(imageCount);
+        List<Rect> imageRects = new ArrayList<Rect>(imageCount);
+        List<SpriteGeometry> imageHulls = new ArrayList<SpriteGeometry>(imageCount);
+        List<byte[]> sha1s = new ArrayList<byte[]>(imageCount);
+        List<AtlasLayoutCache.Image> cachedImages = new ArrayList<AtlasLayoutCache.Image>(imageCount);
+        for (int i = 0; i < imageCount; ++i) {
+            IResource resource = imageResources.get(i);
+            byte[] sha1 = resource.sha1();
+            AtlasLayoutCache.Image cached = previous.getImage(imagePaths.get(i), imageHullSizes.get(i), sha1);
+            sha1s.add(sha1);
+            cachedImages.add(cached);
+            images.add(cached == null ? loadImage(resource) : null);
+        }
+
+        // The hulls of the changed images are built in parallel
+        List<SpriteGeometry> changedHulls = TextureSetGenerator.buildConvexHulls(images, imageHullSizes);
+
+        int use_geometries = 0;
+        boolean changed = false;
+        for (int i = 0; i < imageCount; ++i) {
+            String path = imagePaths.get(i);
+            int hullSize = imageHullSizes.get(i);
+            AtlasLayoutCache.Image cached = cachedImages.get(i);
+            if (cached == null) {
+                changed = true;
+                BufferedImage image = images.get(i);
+                cached = new AtlasLayoutCache.Image(path, hullSize, sha1s.get(i), image.getWidth(), image.getHeight(), changedHulls.get(i));
+            }
+            cache.addImage(cached);
+
+            imageRects.add(new Rect(path, i, cached.width, cached.height));
+            imageHulls.add(cached.geometry);
+            use_geometries |= hullSize > 0 ? 1 : 0;
+        }
+
+        TextureSetResult result = TextureSetGenerator.calculateLayout(imageRects, imageHulls, use_geometries, iterator,
+                margin, innerPadding, extrudeBorders, true, false, null, previous.getLayout());
+        Layout layout = result.layoutResult.layout;
+
+        if (previous.getLayout() != null && TextureSetGenerator.isSameLayout(previous.getLayout(), layout)) {
+            // Only draw the changed images into the previous image
+            result.image = previous.getImage();
+        } else {
+            changed = true;
+            for (int i = 0; i < imageCount; ++i) {
+                if (images.get(i) == null) {
+                    images.set(i, loadImage(imageResources.get(i)));
+                }
+            }
+            result.image = new BufferedImage(layout.getWidth(), layout.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        }
+        TextureSetGenerator.drawImages(result.image, result.layoutResult, images);
+
+        // The same layout and images give the same cache file as the previous build
+        if (changed) {
+            cache.setResult(layout, result.image);
+            cache.save(layoutCacheFile);
+        }
+        return result;
     }
 }
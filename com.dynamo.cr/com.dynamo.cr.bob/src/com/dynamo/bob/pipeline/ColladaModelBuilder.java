@@ -12,20 +12,22 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.RigUtil;
 
 import com.dynamo.rig.proto.Rig.AnimationSet;
 import com.dynamo.rig.proto.Rig.MeshSet;
@@ -35,6 +37,11 @@ import com.dynamo.rig.proto.Rig.Skeleton;
 @BuilderParams(name="ColladaModel", inExts=".dae", outExt=".meshsetc")
 public class ColladaModelBuilder extends Builder<Void>  {
 
+    @Override
+    public void signature(MessageDigest digest) {
+        digest.update(project.option("compress-animations", "false").getBytes());
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -48,13 +55,21 @@ public class ColladaModelBuilder extends Builder<Void>  {
 
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
-        ByteArrayInputStream collada_is = new ByteArrayInputStream(task.input(0).getContent());
+        // The document is shared with any animation sets using the same file
+        XMLCOLLADA collada;
+        try {
+            collada = ColladaUtil.loadDAE(this.project, task.input(0));
+        } catch (XMLStreamException e) {
+            throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to load collada: " + e.getLocalizedMessage(), e);
+        } catch (LoaderException e) {
+            throw new CompileExceptionError(task.input(0), -1, "Failed to load collada: " + e.getLocalizedMessage(), e);
+        }
 
         // MeshSet
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
         MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
         try {
-            ColladaUtil.loadMesh(collada_is, meshSetBuilder, true);
+            ColladaUtil.loadMesh(collada, meshSetBuilder, true);
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile mesh: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -66,10 +81,9 @@ public class ColladaModelBuilder extends Builder<Void>  {
 
         // Skeleton
         out = new ByteArrayOutputStream(64 * 1024);
-        collada_is.reset();
         Skeleton.Builder skeletonBuilder = Skeleton.newBuilder();
         try {
-            ColladaUtil.loadSkeleton(collada_is, skeletonBuilder, new ArrayList<String>());
+            ColladaUtil.loadSkeleton(collada, skeletonBuilder, new ArrayList<String>());
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile skeleton: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -81,15 +95,17 @@ public class ColladaModelBuilder extends Builder<Void>  {
 
         // Animationset
         out = new ByteArrayOutputStream(64 * 1024);
-        collada_is.reset();
         AnimationSet.Builder animationSetBuilder = AnimationSet.newBuilder();
         try {
-            ColladaUtil.loadAnimations(collada_is, animationSetBuilder, FilenameUtils.getBaseName(task.input(0).getPath()), new ArrayList<String>());
+            ColladaUtil.loadAnimations(collada, animationSetBuilder, FilenameUtils.getBaseName(task.input(0).getPath()), new ArrayList<String>());
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile animation: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
             throw new CompileExceptionError(task.input(0), -1, "Failed to compile animation: " + e.getLocalizedMessage(), e);
         }
+        if (project.option("compress-animations", "false").equals("true")) {
+            RigUtil.compressTracks(animationSetBuilder, RigUtil.TrackTolerances.DEFAULT);
+        }
         animationSetBuilder.build().writeTo(out);
         out.close();
         task.output(2).setContent(out.toByteArray());
@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.pipeline;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.Vector;
 import java.util.Map.Entry;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.jagatoo.loaders.models.collada.datastructs.animation.Bone;
@@ -67,6 +69,10 @@ import org.jagatoo.loaders.models.collada.stax.XMLVisualScene;
 import org.jagatoo.loaders.models.collada.stax.XMLAsset.UpAxis;
 import org.jagatoo.loaders.models.collada.stax.XMLVisualSceneExtra;
 
+import com.dynamo.bob.Project;
+import com.dynamo.bob.cache.MemoryCache;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.RigUtil;
 
@@ -89,6 +95,114 @@ public class ColladaUtil {
 
     static int BONE_NO_PARENT = 0xffff;
 
+    public static final String DOCUMENT_CACHE = "collada-documents";
+    // Bound on the total size of the source files, parsed documents use several times more memory
+    static final long DOCUMENT_CACHE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Welds vertices sharing the same position, texcoord0 and normal indices.
+     * Vertices are looked up in an open addressing hash table and stored in primitive arrays.
+     */
+    static class VertexWelder {
+        private int[] vertices; // position, texcoord0 and normal index per vertex
+        private int count = 0;
+        private int[] table; // vertex index + 1 per slot, 0 if the slot is empty
+
+        VertexWelder(int expectedCount) {
+            vertices = new int[Math.max(1, expectedCount) * 3];
+            table = new int[tableSize(expectedCount)];
+        }
+
+        private static int tableSize(int count) {
+            int size = 16;
+            while (size < count * 2) {
+                size <<= 1;
+            }
+            return size;
+        }
+
+        private static int hash(int position, int texcoord0, int normal) {
+            int h = position * 73856093 ^ texcoord0 * 19349663 ^ normal * 83492791;
+            return h ^ (h >>> 16);
+        }
+
+        private int findSlot(int position, int texcoord0, int normal) {
+            int mask = table.length - 1;
+            int slot = hash(position, texcoord0, normal) & mask;
+            while (true) {
+                int v = table[slot] - 1;
+                if (v < 0) {
+                    return slot;
+                }
+                if (vertices[v*3] == position && vertices[v*3+1] == texcoord0 && vertices[v*3+2] == normal) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            for (int v = 0; v < count; ++v) {
+                int slot = findSlot(vertices[v*3], vertices[v*3+1], vertices[v*3+2]);
+                table[slot] = v + 1;
+            }
+        }
+
+        private int append(int position, int texcoord0, int normal) {
+            if (count * 3 == vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            vertices[count*3] = position;
+            vertices[count*3+1] = texcoord0;
+            vertices[count*3+2] = normal;
+            return count++;
+        }
+
+        /**
+         * Add a vertex unless an equal vertex has been added already.
+         * @return index of the new or existing vertex
+         */
+        int weld(int position, int texcoord0, int normal) {
+            int slot = findSlot(position, texcoord0, normal);
+            int v = table[slot] - 1;
+            if (v >= 0) {
+                return v;
+            }
+            v = append(position, texcoord0, normal);
+            table[slot] = v + 1;
+            if (count * 2 > table.length) {
+                rehash();
+            }
+            return v;
+        }
+
+        /**
+         * Add a vertex without looking for an equal vertex.
+         * @return index of the new vertex
+         */
+        int add(int position, int texcoord0, int normal) {
+            // The table is not needed when not welding, keep it empty
+            return append(position, texcoord0, normal);
+        }
+
+        int size() {
+            return count;
+        }
+
+        int getPosition(int v) {
+            return vertices[v*3];
+        }
+
+        int getTexcoord0(int v) {
+            return vertices[v*3+1];
+        }
+
+        int getNormal(int v) {
+            return vertices[v*3+2];
+        }
+    }
+
     static private class AssetSpace
     {
         public Matrix4d rotation;
@@ -149,6 +263,31 @@ public class ColladaUtil {
         return sourcesMap;
     }
 
+    /**
+     * Load a COLLADA document through the build wide document cache, so that a file is only
+     * parsed once per build even if it is used by several tasks. Cached documents are shared
+     * between tasks running in parallel and must not be modified.
+     * @param project project
+     * @param resource COLLADA resource
+     * @return parsed document
+     */
+    public static XMLCOLLADA loadDAE(Project project, IResource resource) throws IOException, XMLStreamException, LoaderException {
+        long start = System.nanoTime();
+        CacheStatistics stats = project.getStatistics(DOCUMENT_CACHE);
+        MemoryCache<String, XMLCOLLADA> cache = project.getMemoryCache(DOCUMENT_CACHE, DOCUMENT_CACHE_SIZE);
+        String key = new String(Hex.encodeHex(resource.sha1()));
+        XMLCOLLADA collada = cache.get(key);
+        if (collada != null) {
+            stats.hit(System.nanoTime() - start);
+            return collada;
+        }
+        byte[] content = resource.getContent();
+        collada = loadDAE(new ByteArrayInputStream(content));
+        cache.put(key, collada, content.length);
+        stats.miss(System.nanoTime() - start);
+        return collada;
+    }
+
     public static XMLCOLLADA loadDAE(InputStream is) throws IOException, XMLStreamException, LoaderException {
         XMLInputFactory factory = XMLInputFactory.newInstance();
         factory.setProperty("javax.xml.stream.isCoalescing", true);
@@ -676,94 +815,71 @@ public class ColladaUtil {
             }
         }
 
-        List<Integer> position_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> normal_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> texcoord_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
+        int index_count = mesh.triangles.count*3;
+        int[] position_indices = new int[index_count];
+        int[] normal_indices = normals != null ? new int[index_count] : null;
+        int[] texcoord_indices = new int[index_count];
 
         // Sometimes the <p> values can be -1 from Maya exports, we clamp it below to 0 instead.
         // Similar solution as AssImp; https://github.com/assimp/assimp/blob/master/code/ColladaParser.cpp#L2336
         for (int i = 0; i < mesh.triangles.count; ++i) {
 
             for (int j = 0; j < 3; ++j) {
+                int index = i * 3 + j;
                 int idx = i * stride * 3 + vertex_input.offset;
-                int vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                position_indices_list.add(vert_idx);
+                position_indices[index] = Math.max(0, mesh.triangles.p[idx + stride * j]);
 
                 if (normals != null) {
                     idx = i * stride * 3 + normalOffset;
-                    vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    normal_indices_list.add(vert_idx);
+                    normal_indices[index] = Math.max(0, mesh.triangles.p[idx + stride * j]);
                 }
 
-                if (texcoords == null) {
-                    texcoord_indices_list.add(0);
-                } else {
+                if (texcoords != null) {
                     idx = i * stride * 3 + texcoord_input.offset;
-                    vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    texcoord_indices_list.add(vert_idx);
+                    texcoord_indices[index] = Math.max(0, mesh.triangles.p[idx + stride * j]);
                 }
 
             }
 
         }
 
-        class MeshVertexIndex {
-            public int position, texcoord0, normal;
-            public boolean equals(Object o) {
-                MeshVertexIndex m = (MeshVertexIndex) o;
-                return (this.position == m.position && this.texcoord0 == m.texcoord0 && this.normal == m.normal);
-            }
-        }
-
         // Build an optimized list of triangles from indices and instance (make unique) any vertices common attributes (position, normal etc.).
         // We can then use this to quickly build am optimized indexed vertex buffer of any selected vertex elements in run-time without any sorting.
-        boolean mesh_has_normals = normal_indices_list.size() > 0;
-        List<MeshVertexIndex> shared_vertex_indices = new ArrayList<MeshVertexIndex>(mesh.triangles.count*3);
-        List<Integer> mesh_index_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        for (int i = 0; i < mesh.triangles.count*3; ++i) {
-            MeshVertexIndex ci = new MeshVertexIndex();
-            ci.position = position_indices_list.get(i);
-            ci.texcoord0 = texcoord_indices_list.get(i);
-            ci.normal = mesh_has_normals ? normal_indices_list.get(i) : 0;
-            int index = optimize ? shared_vertex_indices.indexOf(ci) : -1;
-            if(index == -1) {
-                // create new vertex as this is not equal to any existing in generated list
-                mesh_index_list.add(shared_vertex_indices.size());
-                shared_vertex_indices.add(ci);
-            } else {
-                // shared vertex, add index to existing vertex in generating list instead of adding new
-                mesh_index_list.add(index);
-            }
-        }
-        List<Rig.MeshVertexIndices> mesh_vertex_indices = new ArrayList<Rig.MeshVertexIndices>(mesh.triangles.count*3);
-        for (int i = 0; i < shared_vertex_indices.size() ; ++i) {
+        VertexWelder welder = new VertexWelder(index_count);
+        int[] mesh_indices = new int[index_count];
+        for (int i = 0; i < index_count; ++i) {
+            int normal = normal_indices != null ? normal_indices[i] : 0;
+            // shared vertices reuse the index of the existing vertex in the generated list
+            mesh_indices[i] = optimize ? welder.weld(position_indices[i], texcoord_indices[i], normal) : welder.add(position_indices[i], texcoord_indices[i], normal);
+        }
+        List<Rig.MeshVertexIndices> mesh_vertex_indices = new ArrayList<Rig.MeshVertexIndices>(welder.size());
+        for (int i = 0; i < welder.size() ; ++i) {
             Rig.MeshVertexIndices.Builder b = Rig.MeshVertexIndices.newBuilder();
-            MeshVertexIndex ci = shared_vertex_indices.get(i);
-            b.setPosition(ci.position);
-            b.setTexcoord0(ci.texcoord0);
-            b.setNormal(ci.normal);
+            b.setPosition(welder.getPosition(i));
+            b.setTexcoord0(welder.getTexcoord0(i));
+            b.setNormal(welder.getNormal(i));
             mesh_vertex_indices.add(b.build());
         }
 
         Rig.IndexBufferFormat indices_format;
         ByteBuffer indices_bytes;
-        if(shared_vertex_indices.size() <= 65536)
+        if(welder.size() <= 65536)
         {
             // if we only need 16-bit indices, use this primarily. Less data to upload to GPU and ES2.0 core functionality.
             indices_format = Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_16;
-            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.size() * 2);
+            indices_bytes = ByteBuffer.allocateDirect(mesh_indices.length * 2);
             indices_bytes.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
-            for (int i = 0; i < mesh_index_list.size();) {
-                indices_bytes.putShort(mesh_index_list.get(i++).shortValue());
+            for (int i = 0; i < mesh_indices.length;) {
+                indices_bytes.putShort((short) mesh_indices[i++]);
             }
         }
         else
         {
             indices_format = Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_32;
-            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.size() * 4);
+            indices_bytes = ByteBuffer.allocateDirect(mesh_indices.length * 4);
             indices_bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
-            for (int i = 0; i < mesh_index_list.size();) {
-                indices_bytes.putInt(mesh_index_list.get(i++));
+            for (int i = 0; i < mesh_indices.length;) {
+                indices_bytes.putInt(mesh_indices[i++]);
             }
         }
         indices_bytes.rewind();
@@ -783,12 +899,16 @@ public class ColladaUtil {
         meshBuilder.setIndicesFormat(indices_format);
         if(normals != null) {
             meshBuilder.addAllNormals(normal_list);
-            meshBuilder.addAllNormalsIndices(normal_indices_list);
+            for (int i = 0; i < index_count; ++i) {
+                meshBuilder.addNormalsIndices(normal_indices[i]);
+            }
         }
         meshBuilder.addAllPositions(position_list);
         meshBuilder.addAllTexcoord0(texcoord_list);
-        meshBuilder.addAllPositionIndices(position_indices_list);
-        meshBuilder.addAllTexcoord0Indices(texcoord_indices_list);
+        for (int i = 0; i < index_count; ++i) {
+            meshBuilder.addPositionIndices(position_indices[i]);
+            meshBuilder.addTexcoord0Indices(texcoord_indices[i]);
+        }
         meshBuilder.addAllWeights(bone_weights_list);
         meshBuilder.addAllBoneIndices(bone_indices_list);
 
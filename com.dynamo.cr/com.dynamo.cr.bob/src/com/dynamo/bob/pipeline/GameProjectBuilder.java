@@ -181,7 +181,7 @@ public class GameProjectBuilder extends Builder<Void> {
             if (!texProfilesInput.exists()) {
                 throw new CompileExceptionError(input, -1, "Could not find supplied texture_profiles file: " + textureProfilesPath);
             }
-            ProtoUtil.merge(texProfilesInput, texProfilesBuilder);
+            ProtoUtil.merge(project, texProfilesInput, texProfilesBuilder);
 
             // If Bob is building for a specific platform, we need to
             // filter out any platform entries not relevant to the target platform.
@@ -228,9 +228,14 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
-    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
+    private ArchiveBuilder createArchive(Task<Void> task, Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
         String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
         ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder);
+        if (project.option("archive-incremental", "false").equals("true")) {
+            // Reuse unchanged entries from the previous archive in the build folder
+            String archiveDataPath = task.getOutputs().get(2).getAbsPath();
+            archiveBuilder.setIncremental(new File(archiveDataPath + ".cache"), new File(task.getOutputs().get(1).getAbsPath()), new File(archiveDataPath));
+        }
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
         HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
 
@@ -251,6 +256,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 project.getPublisher().AddEntry(fhandle.getName(), fhandle);
             }
         }
+        return archiveBuilder;
     }
 
     private static void findResources(Project project, Message node, Collection<String> resources) throws CompileExceptionError {
@@ -302,17 +308,15 @@ public class GameProjectBuilder extends Builder<Void> {
 
         Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
         if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
             try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
+                Method getDefaultInstance = klass.getDeclaredMethod("getDefaultInstance");
+                Message prototype = (Message) getDefaultInstance.invoke(null);
+                // Parsed once and shared by findResources and buildResourceGraph
+                Message message = ProtoUtil.parseBinary(project, resource.output(), prototype);
+                if(message == null) {
                     throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
                 }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                findResources(project, (Message) message, resources);
+                findResources(project, message, resources);
             } catch(CompileExceptionError e) {
                 throw e;
             } catch(Exception e) {
@@ -379,17 +383,14 @@ public class GameProjectBuilder extends Builder<Void> {
 
         Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
         if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
             try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
+                Method getDefaultInstance = klass.getDeclaredMethod("getDefaultInstance");
+                Message prototype = (Message) getDefaultInstance.invoke(null);
+                Message message = ProtoUtil.parseBinary(project, resource.output(), prototype);
+                if(message == null) {
                     throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
                 }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                buildResourceGraph(project, (Message) message, currentNode, visitedNodes);
+                buildResourceGraph(project, message, currentNode, visitedNodes);
             } catch(CompileExceptionError e) {
                 throw e;
             } catch(Exception e) {
@@ -561,7 +562,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
                 RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
-                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
+                ArchiveBuilder archiveBuilder = createArchive(task, resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
 
                 // Create manifest
                 byte[] manifestFile = manifestBuilder.buildManifest();
@@ -572,6 +573,7 @@ public class GameProjectBuilder extends Builder<Void> {
 
                 archiveDataInputStream = new FileInputStream(archiveDataHandle);
                 task.getOutputs().get(2).setContent(archiveDataInputStream);
+                archiveBuilder.saveIncrementalCache();
 
                 task.getOutputs().get(3).setContent(manifestFile);
 
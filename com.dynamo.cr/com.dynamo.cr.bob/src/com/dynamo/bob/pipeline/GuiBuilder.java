@@ -14,7 +14,6 @@ package com.dynamo.bob.pipeline;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,15 +25,21 @@ import javax.vecmath.Quat4d;
 import javax.vecmath.Tuple3d;
 import javax.vecmath.Vector3d;
 
+import org.apache.commons.codec.binary.Hex;
+
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
 import com.dynamo.bob.ProtoBuilder;
 import com.dynamo.bob.ProtoParams;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
+import com.dynamo.bob.cache.MemoryCache;
+import com.dynamo.bob.fs.DigestUtil;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
 import com.dynamo.bob.util.BobNLS;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.RigUtil;
 import com.dynamo.bob.util.RigUtil.LoadException;
@@ -52,17 +57,49 @@ import com.dynamo.gui.proto.Gui.SceneDesc.LayerDesc;
 import com.dynamo.gui.proto.Gui.SceneDesc.LayoutDesc;
 import com.dynamo.gui.proto.Gui.SceneDesc.TextureDesc;
 import com.google.protobuf.Descriptors.FieldDescriptor;
-import com.google.protobuf.TextFormat;
 
 
 @ProtoParams(messageClass = SceneDesc.class)
 @BuilderParams(name="Gui", inExts=".gui", outExt=".guic")
 public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
 
+    public static final String SPINE_SCENE_CACHE = "gui-spine-scenes";
+    static final long SPINE_SCENE_CACHE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Load a spine scene for bone node expansion through the build wide spine scene cache,
+     * so that the skeleton JSON is only loaded once per build no matter how many spine nodes
+     * and gui scenes use it. Cached scenes are shared between tasks and must not be modified.
+     * @param project project
+     * @param jsonRes spine JSON resource
+     * @return loaded spine scene, with identity uv transforms
+     */
+    private static SpineSceneUtil loadSpineScene(Project project, IResource jsonRes) throws IOException, SpineSceneUtil.LoadException {
+        long start = System.nanoTime();
+        CacheStatistics stats = project.getStatistics(SPINE_SCENE_CACHE);
+        MemoryCache<String, SpineSceneUtil> cache = project.getMemoryCache(SPINE_SCENE_CACHE, SPINE_SCENE_CACHE_SIZE);
+        byte[] content = jsonRes.getContent();
+        String key = jsonRes.getPath() + ":" + new String(Hex.encodeHex(DigestUtil.newSha1().digest(content)));
+        SpineSceneUtil scene = cache.get(key);
+        if (scene != null) {
+            stats.hit(System.nanoTime() - start);
+            return scene;
+        }
+        scene = SpineSceneUtil.loadJson(new ByteArrayInputStream(content), new UVTransformProvider() {
+            @Override
+            public UVTransform getUVTransform(String animId) {
+                return new UVTransform();
+            }
+        });
+        cache.put(key, scene, content.length);
+        stats.miss(System.nanoTime() - start);
+        return scene;
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         SceneDesc.Builder builder = SceneDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
                 .setName(params.name())
@@ -575,16 +612,11 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
                     // Need to parse the spine JSON
                     com.dynamo.spine.proto.Spine.SpineSceneDesc.Builder spineSceneBuilder = com.dynamo.spine.proto.Spine.SpineSceneDesc.newBuilder();
                     IResource spineSceneRes = builder.project.getResource(spineScenePath);
-                    TextFormat.merge(new InputStreamReader(new ByteArrayInputStream(spineSceneRes.getContent()), "ASCII"), spineSceneBuilder);
+                    ProtoUtil.merge(builder.project, spineSceneRes, spineSceneBuilder);
 
                     IResource jsonRes = builder.project.getResource(spineSceneBuilder.getSpineJson());
                     try {
-                        SpineSceneUtil rigScene = SpineSceneUtil.loadJson(new ByteArrayInputStream(jsonRes.getContent()), new UVTransformProvider() {
-                            @Override
-                            public UVTransform getUVTransform(String animId) {
-                                return new UVTransform();
-                            }
-                        });
+                        SpineSceneUtil rigScene = loadSpineScene(builder.project, jsonRes);
 
                         Vector4 oneV4 = Vector4.newBuilder().setX(1.0f).setY(1.0f).setZ(1.0f).setW(0.0f).build();
                         Vector4 zeroV4 = Vector4.newBuilder().setX(0.0f).setY(0.0f).setZ(0.0f).setW(0.0f).build();
@@ -660,19 +692,23 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
         return sceneBuilder;
     }
 
+    /**
+     * Reads templates through the build wide message cache, see {@link ProtoUtil#merge(Project, IResource, com.google.protobuf.Message.Builder)},
+     * so that a template shared by many gui scenes is only parsed once per build. The per scene
+     * resource cache only avoids copying the cached message more than once per scene.
+     */
     private class SceneBuilderIO implements ISceneBuilderIO {
         com.dynamo.bob.Project project;
         SceneBuilderIO(com.dynamo.bob.Project project) {
             this.project = project;
         }
 
-        public SceneDesc.Builder readScene(String resourcePath, HashMap<String, SceneDesc.Builder> resourceCache) throws IOException {
+        public SceneDesc.Builder readScene(String resourcePath, HashMap<String, SceneDesc.Builder> resourceCache) throws IOException, CompileExceptionError {
             SceneDesc.Builder sceneBuilder = resourceCache.get(resourcePath);
             if(sceneBuilder == null) {
                 IResource templateSceneResource = this.project.getResource(resourcePath);
-                InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(templateSceneResource.getContent()), "ASCII");
                 sceneBuilder = SceneDesc.newBuilder();
-                TextFormat.merge(reader, sceneBuilder);
+                ProtoUtil.merge(this.project, templateSceneResource, sceneBuilder);
                 resourceCache.put(resourcePath, sceneBuilder);
             }
             return sceneBuilder.clone();
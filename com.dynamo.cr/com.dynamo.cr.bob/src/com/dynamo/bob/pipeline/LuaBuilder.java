@@ -29,6 +29,7 @@ import javax.vecmath.Quat4d;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4d;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.Bob;
@@ -36,9 +37,13 @@ import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
+import com.dynamo.bob.cache.MemoryCache;
+import com.dynamo.bob.fs.DigestUtil;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.LuaScanner.Property.Status;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.bob.util.PropertiesUtil;
 import com.dynamo.gameobject.proto.GameObject.PropertyType;
@@ -59,6 +64,38 @@ public abstract class LuaBuilder extends Builder<Void> {
 
     private static ArrayList<Platform> needsLuaSource = new ArrayList<Platform>(Arrays.asList(Platform.JsWeb, Platform.WasmWeb));
 
+    private static final String LUAJIT_COMPILER_POOL = "luajit-compiler";
+    private static final String[] LUAJIT_EXES = { "luajit-32", "luajit-64" };
+
+    public static final String LUA_SCANNER_CACHE = "lua-scanners";
+    static final long LUA_SCANNER_CACHE_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Scan a Lua source through the build wide scanner cache, so that the source is only
+     * tokenized once per build even though both create and build need the result.
+     * Cached scanners are shared between tasks and must not be modified.
+     * @param project project
+     * @param input Lua source resource
+     * @return scanner of the UTF-8 decoded source
+     */
+    private static LuaScanner scan(Project project, IResource input) throws IOException {
+        long start = System.nanoTime();
+        CacheStatistics stats = project.getStatistics(LUA_SCANNER_CACHE);
+        MemoryCache<String, LuaScanner> cache = project.getMemoryCache(LUA_SCANNER_CACHE, LUA_SCANNER_CACHE_SIZE);
+        byte[] content = input.getContent();
+        String key = input.getPath() + ":" + new String(Hex.encodeHex(DigestUtil.newSha1().digest(content)));
+        LuaScanner scanner = cache.get(key);
+        if (scanner != null) {
+            stats.hit(System.nanoTime() - start);
+            return scanner;
+        }
+        scanner = new LuaScanner(new String(content, "UTF-8"));
+        // The scanner keeps the source and the stripped source, two UTF-16 strings about the length of the content
+        cache.put(key, scanner, 4L * content.length);
+        stats.miss(System.nanoTime() - start);
+        return scanner;
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -66,8 +103,7 @@ public abstract class LuaBuilder extends Builder<Void> {
                 .addInput(input)
                 .addOutput(input.changeExt(params.outExt()));
 
-        String script = new String((input.getContent()));
-        List<LuaScanner.Property> properties = LuaScanner.scanProperties(script);
+        List<LuaScanner.Property> properties = scan(project, input).getProperties();
         for (LuaScanner.Property property : properties) {
             if (property.type == PropertyType.PROPERTY_TYPE_HASH) {
                 String value = (String)property.value;
@@ -87,6 +123,75 @@ public abstract class LuaBuilder extends Builder<Void> {
         return string.getBytes();
     }
 
+    // See implementation of luaO_chunkid and why a prefix '=' is used; it is to pass through the filename without modifications.
+    //
+    // We will also limit the chunkname (the identifying part of a script/source chunk) to 59 chars.
+    // Lua has a maximum length of chunknames, by default defined to 60 chars.
+    //
+    // If a script error occurs in runtime we want Lua to report the end of the filepath
+    // associated with the chunk, since this is where the filename is visible.
+    private static String getChunkName(Task<Void> task) {
+        String chunkName = task.input(0).getPath();
+        if (chunkName.length() >= 59) {
+            chunkName = chunkName.substring(chunkName.length() - 59);
+        }
+        return "=" + chunkName;
+    }
+
+    private static CompileExceptionError createCompileError(Task<Void> task, String cmdOutput) {
+        // first delimiter is the executable name "luajit:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    return new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit said.
+        return new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
+    /**
+     * Compile bytecode with all luajit executables, using the build wide pool of luajit processes
+     * @return one bytecode per executable in LUAJIT_EXES
+     */
+    public byte[][] constructBytecodes(Task<Void> task, byte[] byteString) throws IOException, CompileExceptionError {
+        final int jobs = project.getJobs();
+        LuaCompilerPool pool = project.getBuildService(LUAJIT_COMPILER_POOL, new Project.IBuildServiceFactory<LuaCompilerPool>() {
+            @Override
+            public LuaCompilerPool create() {
+                return new LuaCompilerPool(LUAJIT_EXES, jobs);
+            }
+        });
+        byte[][] bytecodes = new byte[LUAJIT_EXES.length][];
+        LuaCompilerPool.Result[] results;
+        try {
+            results = pool.compile(getChunkName(task), byteString);
+        } catch (IOException e) {
+            // Fall back to a luajit process per script and executable
+            for (int i = 0; i < LUAJIT_EXES.length; ++i) {
+                bytecodes[i] = constructBytecode(task, LUAJIT_EXES[i], byteString);
+            }
+            return bytecodes;
+        }
+        for (int i = 0; i < results.length; ++i) {
+            if (results[i].error != null) {
+                throw createCompileError(task, "luajit: " + results[i].error);
+            }
+            bytecodes[i] = results[i].bytecode;
+        }
+        return bytecodes;
+    }
+
     public byte[] constructBytecode(Task<Void> task, String luajitExe, byte[] byteString) throws IOException, CompileExceptionError {
 
         java.io.FileOutputStream fo = null;
@@ -108,20 +213,7 @@ public abstract class LuaBuilder extends Builder<Void> {
             //
             // NOTE: The -f option for bytecode is a small custom modification to bcsave.lua in LuaJIT which allows us to supply the
             //       correct chunk name (the original original source file) already here.
-            //
-            // See implementation of luaO_chunkid and why a prefix '=' is used; it is to pass through the filename without modifications.
-            //
-            // We will also limit the chunkname (the identifying part of a script/source chunk) to 59 chars.
-            // Lua has a maximum length of chunknames, by default defined to 60 chars.
-            //
-            // If a script error occurs in runtime we want Lua to report the end of the filepath
-            // associated with the chunk, since this is where the filename is visible.
-            //
-            String chunkName = task.input(0).getPath();
-            if (chunkName.length() >= 59) {
-                chunkName = chunkName.substring(chunkName.length() - 59);
-            }
-            chunkName = "=" + chunkName;
+            String chunkName = getChunkName(task);
             ProcessBuilder pb = new ProcessBuilder(new String[] { Bob.getExe(Platform.getHostPlatform(), luajitExe), "-bgf", chunkName, inputFile.getAbsolutePath(), outputFile.getAbsolutePath() }).redirectErrorStream(true);
 
             java.util.Map<String, String> env = pb.environment();
@@ -132,35 +224,15 @@ public abstract class LuaBuilder extends Builder<Void> {
             int ret = 127;
 
             try {
-                ret = p.waitFor();
+                // Read all output before waiting, the process may block on a full pipe
                 is = p.getInputStream();
-
-                int toRead = is.available();
-                byte[] buf = new byte[toRead];
-                is.read(buf);
+                byte[] buf = IOUtils.toByteArray(is);
+                ret = p.waitFor();
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throw createCompileError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.SEVERE, "Unexpected interruption", e);
@@ -187,9 +259,8 @@ public abstract class LuaBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
 
         LuaModule.Builder builder = LuaModule.newBuilder();
-        byte[] scriptBytes = task.input(0).getContent();
-        String script = new String(scriptBytes);
-        List<String> modules = LuaScanner.scan(script);
+        LuaScanner scanner = scan(project, task.input(0));
+        List<String> modules = scanner.getModules();
 
         for (String module : modules) {
             String module_file = String.format("/%s.lua", module.replaceAll("\\.", "/"));
@@ -198,12 +269,12 @@ public abstract class LuaBuilder extends Builder<Void> {
             builder.addResources(module_file + "c");
         }
         Collection<String> propertyResources = new HashSet<String>();
-        List<LuaScanner.Property> properties = LuaScanner.scanProperties(script);
+        List<LuaScanner.Property> properties = scanner.getProperties();
         PropertyDeclarations propertiesMsg = buildProperties(task.input(0), properties, propertyResources);
         builder.setProperties(propertiesMsg);
         builder.addAllPropertyResources(propertyResources);
         LuaSource.Builder srcBuilder = LuaSource.newBuilder();
-        byte[] scriptBytesStripped = constructStrippedLuaCode(task.input(0).getContent());
+        byte[] scriptBytesStripped = scanner.getStrippedSource().getBytes("UTF-8");
 
         /*
         // For now it will always return, or throw an exception. This leaves the possibility of
@@ -221,11 +292,12 @@ public abstract class LuaBuilder extends Builder<Void> {
         if (needsLuaSource.contains(project.getPlatform()) || use_vanilla_lua) {
             srcBuilder.setScript(ByteString.copyFrom(scriptBytesStripped));
         } else {
-            byte[] bytecode = constructBytecode(task, "luajit-32", scriptBytesStripped);
+            byte[][] bytecodes = constructBytecodes(task, scriptBytesStripped);
+            byte[] bytecode = bytecodes[0];
             if (bytecode != null) {
                 srcBuilder.setBytecode(ByteString.copyFrom(bytecode));
             }
-            byte[] bytecode64 = constructBytecode(task, "luajit-64", scriptBytesStripped);
+            byte[] bytecode64 = bytecodes[1];
             if (bytecode64 != null) {
                 srcBuilder.setBytecode64(ByteString.copyFrom(bytecode64));
             }
@@ -0,0 +1,251 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+
+/**
+ * Pool of long running luajit processes compiling Lua source to bytecode, instead of
+ * starting a process per script. Each worker runs one luajit process per executable
+ * (e.g. luajit-32 and luajit-64) and compiles a script with all of them in one round trip.
+ *
+ * Requests and responses are hex encoded lines, which keeps the protocol binary safe
+ * on platforms where the standard streams of luajit are in text mode.
+ */
+public class LuaCompilerPool implements Closeable {
+
+    // Equivalent to "luajit -bgf <chunkname> <input> <output>.raw", i.e. bytecode with debug info
+    private static final String SERVER_SCRIPT =
+        "local function unhex(s) return (s:gsub('%x%x', function(h) return string.char(tonumber(h, 16)) end)) end " +
+        "local function hex(s) return (s:gsub('.', function(c) return string.format('%02x', c:byte()) end)) end " +
+        "while true do " +
+        "  local name = io.read('*l') " +
+        "  if not name then break end " +
+        "  local source = io.read('*l') " +
+        "  if not source then break end " +
+        "  local f, err = loadstring(unhex(source), unhex(name)) " +
+        "  if f then io.write('OK ', hex(string.dump(f)), '\\n') else io.write('ERR ', hex(err), '\\n') end " +
+        "  io.flush() " +
+        "end";
+
+    /**
+     * Result of compiling a script with one of the executables
+     */
+    public static class Result {
+        // Bytecode, or null if the script failed to compile
+        public byte[] bytecode;
+        // Error message formatted as "<chunkname>:<line>: <message>", or null
+        public String error;
+    }
+
+    private static class Server {
+        Process process;
+        OutputStream out;
+        BufferedReader in;
+    }
+
+    private static class Worker {
+        List<Server> servers = new ArrayList<Server>();
+    }
+
+    private final String[] luajitExes;
+    private final int maxWorkers;
+    private final Deque<Worker> idle = new ArrayDeque<Worker>();
+    // Number of workers, including workers being started
+    private int workerCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     * @param luajitExes executable names, e.g. "luajit-32" and "luajit-64"
+     * @param maxWorkers maximum number of scripts compiled at the same time, typically the number of build jobs
+     */
+    public LuaCompilerPool(String[] luajitExes, int maxWorkers) {
+        this.luajitExes = luajitExes;
+        this.maxWorkers = Math.max(1, maxWorkers);
+    }
+
+    private Server startServer(String luajitExe) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(new String[] { Bob.getExe(Platform.getHostPlatform(), luajitExe), "-e", SERVER_SCRIPT }).redirectErrorStream(true);
+        pb.environment().put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        Server server = new Server();
+        server.process = pb.start();
+        server.out = server.process.getOutputStream();
+        server.in = new BufferedReader(new InputStreamReader(server.process.getInputStream(), StandardCharsets.US_ASCII));
+        return server;
+    }
+
+    private static void stopServer(Server server) {
+        IOUtils.closeQuietly(server.out);
+        IOUtils.closeQuietly(server.in);
+        server.process.destroy();
+    }
+
+    private Worker acquire() throws IOException {
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IOException("The luajit compiler pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    return idle.pop();
+                }
+                if (workerCount < maxWorkers) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a luajit compiler", e);
+                }
+            }
+            // The processes are started outside of the lock
+            ++workerCount;
+        }
+        Worker worker = new Worker();
+        try {
+            Bob.initLua(); // unpack the lua resources
+            for (String luajitExe : luajitExes) {
+                worker.servers.add(startServer(luajitExe));
+            }
+        } catch (IOException e) {
+            discard(worker);
+            disable(e);
+            throw e;
+        } catch (RuntimeException e) {
+            discard(worker);
+            disable(e);
+            throw e;
+        }
+        return worker;
+    }
+
+    private void release(Worker worker) {
+        synchronized (this) {
+            if (!closed) {
+                idle.push(worker);
+                notifyAll();
+                return;
+            }
+        }
+        discard(worker);
+    }
+
+    private void discard(Worker worker) {
+        for (Server server : worker.servers) {
+            stopServer(server);
+        }
+        synchronized (this) {
+            --workerCount;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Compile a script with all executables of the pool
+     * @param chunkName chunk name, e.g. "=/main/main.script"
+     * @param source Lua source
+     * @return one result per executable, in the order given to the constructor
+     * @throws IOException if the compiler processes failed, in which case the caller may fall back to running luajit directly
+     */
+    public Result[] compile(String chunkName, byte[] source) throws IOException {
+        Worker worker = acquire();
+        try {
+            byte[] request = (new String(Hex.encodeHex(chunkName.getBytes(StandardCharsets.UTF_8))) + "\n" + new String(Hex.encodeHex(source)) + "\n").getBytes(StandardCharsets.US_ASCII);
+            // Send the request to all processes before reading, so that they compile in parallel
+            for (Server server : worker.servers) {
+                server.out.write(request);
+                server.out.flush();
+            }
+            Result[] results = new Result[worker.servers.size()];
+            for (int i = 0; i < results.length; ++i) {
+                results[i] = readResult(worker.servers.get(i));
+            }
+            release(worker);
+            return results;
+        } catch (IOException e) {
+            discard(worker);
+            disable(e);
+            throw e;
+        } catch (RuntimeException e) {
+            discard(worker);
+            disable(e);
+            throw e;
+        }
+    }
+
+    // Any failure is likely to repeat, e.g. if the luajit executable can't run as a
+    // compiler process. Let the remaining scripts of the build fall back directly.
+    private void disable(Exception e) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        Logger.getLogger(LuaCompilerPool.class.getCanonicalName()).log(Level.WARNING, "Disabling the luajit compiler processes for this build", e);
+        close();
+    }
+
+    private static Result readResult(Server server) throws IOException {
+        String line = server.in.readLine();
+        if (line == null) {
+            throw new IOException("The luajit compiler process exited unexpectedly");
+        }
+        try {
+            Result result = new Result();
+            if (line.startsWith("OK ")) {
+                result.bytecode = Hex.decodeHex(line.substring(3).toCharArray());
+            } else if (line.startsWith("ERR ")) {
+                result.error = new String(Hex.decodeHex(line.substring(4).toCharArray()), StandardCharsets.UTF_8);
+            } else {
+                throw new IOException("Unexpected output from the luajit compiler process: " + line);
+            }
+            return result;
+        } catch (DecoderException e) {
+            throw new IOException("Invalid output from the luajit compiler process", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Worker> stopped;
+        synchronized (this) {
+            closed = true;
+            // Busy workers are stopped when released
+            stopped = new ArrayList<Worker>(idle);
+            idle.clear();
+        }
+        for (Worker worker : stopped) {
+            discard(worker);
+        }
+    }
+}
@@ -13,7 +13,6 @@
 package com.dynamo.bob.pipeline;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,37 +25,19 @@ import com.dynamo.bob.pipeline.LuaScanner.Property.Status;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.gameobject.proto.GameObject.PropertyType;
 
+/**
+ * Scanner of Lua source collecting required modules and go.property declarations.
+ * The source is tokenized in a single pass, which also produces the source with
+ * comments and property declarations removed. Line numbers are preserved.
+ *
+ * Since comments are found by the tokenizer, and not line by line, all comments are
+ * removed from the stripped source, including trailing comments after code. Comment
+ * markers inside strings are left untouched. A go.property declaration must start its
+ * line and end it, optionally followed by a semicolon or a comment, but its arguments
+ * may span several lines.
+ */
 public class LuaScanner {
 
-    private static Pattern multiLineCommentPattern = Pattern.compile("--\\[\\[.*?--\\]\\]",
-            Pattern.DOTALL | Pattern.MULTILINE);
-
-    private static String comment = "\\s*?(-{2,}.*?)?$";
-    private static String identifier = "[_\\p{L}][_\\p{L}0-9]*";
-    private static String beforeRequire = ".*?";
-    private static String afterRequire = "\\s*(,{0,1}|\\." + identifier + ",{0,1})" + comment;
-    
-    
-    private static Pattern requirePattern1 = Pattern.compile(beforeRequire + "require\\s*?\"(.*?)\"" + afterRequire,
-             Pattern.DOTALL | Pattern.MULTILINE);
-
-    private static Pattern requirePattern2 = Pattern.compile(beforeRequire + "require\\s*?\\(\\s*?\"(.*?)\"\\s*?\\)" + afterRequire,
-             Pattern.DOTALL | Pattern.MULTILINE);
-
-    private static Pattern requirePattern3 = Pattern.compile(beforeRequire + "require\\s*?'(.*?)'" + afterRequire,
-             Pattern.DOTALL | Pattern.MULTILINE);
-
-    /**
-     * Note: we need four different patterns here to match the same beginning and ending character for
-     * a string (eg " or '). We can't match on [\"']. If we do we'd have a false positive for the
-     * following line:
-     * 
-     * local s = 'require "should_not_match"'
-     */
-    private static Pattern requirePattern4 = Pattern.compile(beforeRequire + "require\\s*?\\(\\s*?'(.*?)'\\s*?\\)" + afterRequire,
-             Pattern.DOTALL | Pattern.MULTILINE);
-
-    private static Pattern propertyDeclPattern = Pattern.compile("go.property\\s*?\\((.*?)\\);?(\\s*?--.*?)?$");
     private static Pattern propertyArgsPattern = Pattern.compile("[\"'](.*?)[\"']\\s*,(.*)");
 
     // http://docs.python.org/dev/library/re.html#simulating-scanf
@@ -71,62 +52,361 @@ public class LuaScanner {
     private static Pattern[] patterns = new Pattern[] { numPattern, hashPattern, urlPattern,
             vec3Pattern, vec4Pattern, quatPattern, boolPattern, resourcePattern};
 
+    private enum TokenType {
+        NAME,
+        STRING,
+        OTHER
+    }
+
+    private static class Token {
+        TokenType type;
+        // Identifier, string content without quotes or the token text
+        String text;
+        // 0-based line number
+        int line;
+        // Offsets in the source
+        int start;
+        int end;
+        // Offset in the stripped source
+        int strippedEnd;
+    }
+
+    private final String source;
+    private final StringBuilder stripped;
+    // Only needed while scanning, released once done
+    private List<Token> tokens = new ArrayList<Token>();
+    private final List<String> modules = new ArrayList<String>();
+    private final List<Property> properties = new ArrayList<Property>();
+
+    /**
+     * Scan Lua source
+     * @param source Lua source
+     */
+    public LuaScanner(String source) {
+        this.source = source;
+        this.stripped = new StringBuilder(source.length());
+        tokenize();
+        findModules();
+        findProperties();
+        tokens = null;
+    }
+
+    /**
+     * Get the required modules, in order of appearance
+     * @return module names, e.g. "a.b"
+     */
+    public List<String> getModules() {
+        return modules;
+    }
+
+    /**
+     * Get the go.property declarations, in order of appearance
+     * @return properties
+     */
+    public List<Property> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Get the source with comments and property declarations removed. Line numbers are preserved.
+     * @return stripped source
+     */
+    public String getStrippedSource() {
+        return stripped.toString();
+    }
+
+    public static List<String> scan(String str) {
+        return new LuaScanner(str).getModules();
+    }
+
+    public static List<Property> scanProperties(String str) {
+        return new LuaScanner(str).getProperties();
+    }
+
+    public static String stripProperties(String str) {
+        return new LuaScanner(str).getStrippedSource();
+    }
+
+    // Level of a long bracket starting at i, e.g. 0 for "[[" and 2 for "[==[", or -1
+    private int longBracketLevel(int i) {
+        int n = source.length();
+        if (i >= n || source.charAt(i) != '[') {
+            return -1;
+        }
+        int level = 0;
+        ++i;
+        while (i < n && source.charAt(i) == '=') {
+            ++level;
+            ++i;
+        }
+        return (i < n && source.charAt(i) == '[') ? level : -1;
+    }
 
-    private static String stripSingleLineComments(String str) {
-        str = str.replace("\r", "");
-        StringBuffer sb = new StringBuffer();
-        String[] lines = str.split("\n");
-        for (String line : lines) {
-            String lineTrimmed = line.trim();
-            // Strip single line comments but preserve "pure" multi-line comments
-            // Note that ---[[ is a single line comment
-            // You can enable a block in Lua by adding a hyphen, e.g.
-            /*
-             ---[[
-             The block is enabled
-             --]]
-             */
-            if (!lineTrimmed.startsWith("--") || lineTrimmed.startsWith("--[[") || lineTrimmed.startsWith("--]]")) {
-                sb.append(line);
+    // Offset after the long bracket closing "]=*]" of the given level, starting the search at i
+    private int skipLongBracket(int i, int level) {
+        int n = source.length();
+        while (i < n) {
+            if (source.charAt(i) == ']') {
+                int j = i + 1;
+                while (j < n && source.charAt(j) == '=') {
+                    ++j;
+                }
+                if (j < n && source.charAt(j) == ']' && j - i - 1 == level) {
+                    return j + 1;
+                }
+                i = j;
+            } else {
+                ++i;
             }
-            sb.append("\n");
         }
-        return sb.toString();
+        return n;
+    }
+
+    private static boolean isNameStart(char c) {
+        return c == '_' || Character.isLetter(c);
+    }
+
+    private static boolean isNamePart(char c) {
+        return c == '_' || Character.isLetter(c) || (c >= '0' && c <= '9');
     }
 
-    private static String stripComments(String str) {
-        str = stripSingleLineComments(str);
-        Matcher matcher = multiLineCommentPattern.matcher(str);
-
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            // Replace comment with n lines in order to preserve line indices
-            int n = matcher.group().split("\n").length;
-            StringBuffer lines = new StringBuffer(n);
-            for (int i = 0; i < n-1; ++i) lines.append('\n');
-            matcher.appendReplacement(sb, lines.toString());
+    // Append source to the stripped source, counting lines and removing carriage returns
+    private int appendSource(int start, int end, int line) {
+        for (int i = start; i < end; ++i) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                ++line;
+            }
+            if (c != '\r') {
+                stripped.append(c);
+            }
         }
-        matcher.appendTail(sb);
-        return sb.toString();
+        return line;
     }
 
-    public static List<String> scan(String str) {
-        String strStripped = stripComments(str);
-        List<Pattern> requirePatterns = Arrays.asList(requirePattern1, requirePattern2, requirePattern3, requirePattern4);
-
-        ArrayList<String> modules = new ArrayList<String>();
-        String[] lines = strStripped.split("\n");
-        for (String line : lines) {
-            line = line.trim();
-            // NOTE: At some point we should have a proper lua parser
-            for(Pattern requirePattern : requirePatterns) {
-                Matcher propMatcher = requirePattern.matcher(line);
-                if (propMatcher.matches()) {
-                    modules.add(propMatcher.group(1));
+    private void tokenize() {
+        int n = source.length();
+        int line = 0;
+        int i = 0;
+        while (i < n) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                stripped.append(c);
+                ++line;
+                ++i;
+                continue;
+            }
+            if (c == '\r') {
+                ++i;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                stripped.append(c);
+                ++i;
+                continue;
+            }
+            if (c == '-' && i + 1 < n && source.charAt(i + 1) == '-') {
+                // Comments are replaced by the line breaks they contain, or a space to keep tokens apart
+                int level = longBracketLevel(i + 2);
+                if (level >= 0) {
+                    int end = skipLongBracket(i + 2 + level + 2, level);
+                    stripped.append(' ');
+                    for (int j = i; j < end; ++j) {
+                        if (source.charAt(j) == '\n') {
+                            stripped.append('\n');
+                            ++line;
+                        }
+                    }
+                    i = end;
+                } else {
+                    while (i < n && source.charAt(i) != '\n') {
+                        ++i;
+                    }
+                }
+                continue;
+            }
+
+            Token token = new Token();
+            token.line = line;
+            token.start = i;
+            int level = longBracketLevel(i);
+            if (level >= 0) {
+                int contentStart = i + level + 2;
+                i = skipLongBracket(contentStart, level);
+                token.type = TokenType.STRING;
+                token.text = source.substring(contentStart, Math.max(contentStart, i - level - 2));
+            } else if (c == '"' || c == '\'') {
+                ++i;
+                while (i < n) {
+                    char sc = source.charAt(i);
+                    if (sc == c || sc == '\n') {
+                        break;
+                    }
+                    if (sc == '\\' && i + 1 < n) {
+                        ++i;
+                    }
+                    ++i;
                 }
+                token.type = TokenType.STRING;
+                token.text = source.substring(token.start + 1, Math.min(i, n));
+                if (i < n && source.charAt(i) == c) {
+                    ++i;
+                }
+            } else if (isNameStart(c)) {
+                while (i < n && isNamePart(source.charAt(i))) {
+                    ++i;
+                }
+                token.type = TokenType.NAME;
+                token.text = source.substring(token.start, i);
+            } else if ((c >= '0' && c <= '9') || (c == '.' && i + 1 < n && Character.isDigit(source.charAt(i + 1)))) {
+                while (i < n) {
+                    char nc = source.charAt(i);
+                    if ((nc == '+' || nc == '-') && "eEpP".indexOf(source.charAt(i - 1)) != -1) {
+                        ++i;
+                    } else if (isNamePart(nc) || nc == '.') {
+                        ++i;
+                    } else {
+                        break;
+                    }
+                }
+                token.type = TokenType.OTHER;
+                token.text = source.substring(token.start, i);
+            } else {
+                ++i;
+                while (c == '.' && i < n && source.charAt(i) == '.' && i - token.start < 3) {
+                    ++i;
+                }
+                token.type = TokenType.OTHER;
+                token.text = source.substring(token.start, i);
             }
+            token.end = i;
+            line = appendSource(token.start, token.end, line);
+            token.strippedEnd = stripped.length();
+            tokens.add(token);
+        }
+    }
+
+    private Token getToken(int i) {
+        return i < tokens.size() ? tokens.get(i) : null;
+    }
+
+    private boolean isToken(int i, TokenType type, String text) {
+        Token token = getToken(i);
+        return token != null && token.type == type && (text == null || token.text.equals(text));
+    }
+
+    // True if token i is the last one on its line
+    private boolean isLastOnLine(int i) {
+        Token next = getToken(i + 1);
+        return next == null || next.line > tokens.get(i).line;
+    }
+
+    // Index of the token closing the parenthesis opened at token i, or -1
+    private int findClosingParenthesis(int i) {
+        int depth = 0;
+        for (; i < tokens.size(); ++i) {
+            Token token = tokens.get(i);
+            if (token.type != TokenType.OTHER) {
+                continue;
+            }
+            if (token.text.equals("(")) {
+                ++depth;
+            } else if (token.text.equals(")")) {
+                if (--depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Modules are found from require calls with a string literal, e.g. require "a.b" or require("a.b").
+     * The call must end the line, optionally followed by a comma or a field access, which covers
+     * plain statements, assignments and table fields:
+     *
+     * local b = require("a.b").b,
+     */
+    private void findModules() {
+        for (int i = 0; i < tokens.size(); ++i) {
+            if (!isToken(i, TokenType.NAME, "require")) {
+                continue;
+            }
+            int last;
+            String module;
+            if (isToken(i + 1, TokenType.STRING, null)) {
+                module = tokens.get(i + 1).text;
+                last = i + 1;
+            } else if (isToken(i + 1, TokenType.OTHER, "(") && isToken(i + 2, TokenType.STRING, null) && isToken(i + 3, TokenType.OTHER, ")")) {
+                module = tokens.get(i + 2).text;
+                last = i + 3;
+            } else {
+                continue;
+            }
+            if (!isLastOnLine(last) && isToken(last + 1, TokenType.OTHER, ".") && isToken(last + 2, TokenType.NAME, null)) {
+                last += 2;
+            }
+            if (!isLastOnLine(last) && isToken(last + 1, TokenType.OTHER, ",")) {
+                last += 1;
+            }
+            if (isLastOnLine(last)) {
+                modules.add(module);
+            }
+        }
+    }
+
+    /*
+     * Properties are declared on lines of their own, with arguments possibly spanning several lines:
+     *
+     * go.property("name", value)
+     */
+    private void findProperties() {
+        for (int i = 0; i < tokens.size(); ++i) {
+            Token first = tokens.get(i);
+            if (first.type != TokenType.NAME || !first.text.equals("go") || (i > 0 && tokens.get(i - 1).line == first.line)) {
+                continue;
+            }
+            if (!isToken(i + 1, TokenType.OTHER, ".") || !isToken(i + 2, TokenType.NAME, "property") || !isToken(i + 3, TokenType.OTHER, "(")) {
+                continue;
+            }
+            int close = findClosingParenthesis(i + 3);
+            if (close == -1) {
+                continue;
+            }
+            int last = close;
+            if (!isLastOnLine(last) && isToken(last + 1, TokenType.OTHER, ";")) {
+                last += 1;
+            }
+            if (!isLastOnLine(last)) {
+                continue;
+            }
+
+            Property property = new Property(first.line);
+            String args = source.substring(tokens.get(i + 3).end, tokens.get(close).start).replace("\r", "").replace('\n', ' ');
+            Matcher propArgsMatcher = propertyArgsPattern.matcher(args.trim());
+            if (!propArgsMatcher.matches()) {
+                property.status = Status.INVALID_ARGS;
+            } else {
+                property.name = propArgsMatcher.group(1).trim();
+                property.rawValue = propArgsMatcher.group(2).trim();
+                if (parseProperty(property.rawValue, property)) {
+                    property.status = Status.OK;
+                } else {
+                    property.status = Status.INVALID_VALUE;
+                }
+            }
+            properties.add(property);
+
+            // Remove the declaration from the stripped source, keeping the line breaks
+            int start = stripped.lastIndexOf("\n", tokens.get(i).strippedEnd - 1) + 1;
+            int end = tokens.get(last).strippedEnd;
+            for (int j = start; j < end; ++j) {
+                if (stripped.charAt(j) != '\n') {
+                    stripped.setCharAt(j, ' ');
+                }
+            }
+            i = last;
         }
-        return modules;
     }
 
     public static class Property {
@@ -154,55 +434,6 @@ public class LuaScanner {
         }
     }
 
-    public static String stripProperties(String str) {
-        str = stripComments(str);
-        str = str.replace("\r", "");
-        StringBuffer sb = new StringBuffer();
-        String[] lines = str.split("\n");
-        for (String line : lines) {
-            Matcher propDeclMatcher = propertyDeclPattern.matcher(line.trim());
-            if (!propDeclMatcher.matches()) {
-                sb.append(line);
-            } else {
-                for (int i = 0; i < line.length(); ++i) {
-                    sb.append(" ");
-                }
-            }
-            sb.append("\n");
-        }
-        return sb.toString();
-    }
-
-    public static List<Property> scanProperties(String str) {
-        String strStripped = stripComments(str);
-
-        List<Property> properties = new ArrayList<Property>();
-        String[] lines = strStripped.split("\n");
-        int l = 0; // 0-based line number
-        for (String line : lines) {
-            line = line.trim();
-            Matcher propDeclMatcher = propertyDeclPattern.matcher(line);
-            if (propDeclMatcher.matches()) {
-                Property property = new Property(l);
-                Matcher propArgsMatcher = propertyArgsPattern.matcher(propDeclMatcher.group(1).trim());
-                if (!propArgsMatcher.matches()) {
-                    property.status = Status.INVALID_ARGS;
-                } else {
-                    property.name = propArgsMatcher.group(1).trim();
-                    property.rawValue = propArgsMatcher.group(2).trim();
-                    if (parseProperty(property.rawValue, property)) {
-                        property.status = Status.OK;
-                    } else {
-                        property.status = Status.INVALID_VALUE;
-                    }
-                }
-                properties.add(property);
-            }
-            ++l;
-        }
-        return properties;
-    }
-
     private static boolean parseProperty(String rawValue, Property property) {
         boolean result = false;
         for (Pattern pattern : patterns) {
@@ -16,16 +16,31 @@ import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.binary.Hex;
+
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.cache.MemoryCache;
+import com.dynamo.bob.fs.DigestUtil;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.CacheStatistics;
+import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.TextFormat;
 
 public class ProtoUtil {
 
+    public static final String MESSAGE_CACHE = "proto-messages";
+    // Bound on the total size of the source files, parsed messages use a few times more memory
+    static final long MESSAGE_CACHE_SIZE = 64 * 1024 * 1024;
+
     public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
+        merge(input, input.getContent(), builder);
+    }
+
+    private static void merge(IResource input, byte[] content, Builder builder) throws IOException, CompileExceptionError {
         try {
-            TextFormat.merge(new String(input.getContent()), builder);
+            TextFormat.merge(new String(content), builder);
         } catch (TextFormat.ParseException e) {
             // 1:7: String missing ending quote.
             Pattern pattern = Pattern.compile("(\\d+):(\\d+): (.*)");
@@ -37,4 +52,68 @@ public class ProtoUtil {
             }
         }
     }
+
+    private static String getCacheKey(IResource resource, byte[] content, Message prototype, String format) {
+        String sha1 = new String(Hex.encodeHex(DigestUtil.newSha1().digest(content)));
+        return String.format("%s:%s:%s:%s", prototype.getDescriptorForType().getFullName(), format, resource.getPath(), sha1);
+    }
+
+    /**
+     * Merge a text format resource into a builder, through the build wide message cache so that
+     * a file is only parsed once per build even if it is read by several builders, or several
+     * times by the same builder. The cached messages are immutable and shared between tasks.
+     * @param project project
+     * @param input text format resource
+     * @param builder builder to merge the message into
+     */
+    public static void merge(Project project, IResource input, Builder builder) throws IOException, CompileExceptionError {
+        long start = System.nanoTime();
+        CacheStatistics stats = project.getStatistics(MESSAGE_CACHE);
+        MemoryCache<String, Message> cache = project.getMemoryCache(MESSAGE_CACHE, MESSAGE_CACHE_SIZE);
+        Message prototype = builder.getDefaultInstanceForType();
+        byte[] content = input.getContent();
+        String key = getCacheKey(input, content, prototype, "text");
+        Message message = cache.get(key);
+        if (message != null) {
+            builder.mergeFrom(message);
+            stats.hit(System.nanoTime() - start);
+            return;
+        }
+        Builder messageBuilder = prototype.newBuilderForType();
+        merge(input, content, messageBuilder);
+        // Required fields are checked by the caller when it builds its message
+        message = messageBuilder.buildPartial();
+        cache.put(key, message, content.length);
+        builder.mergeFrom(message);
+        stats.miss(System.nanoTime() - start);
+    }
+
+    /**
+     * Parse a binary resource, typically a build output, through the build wide message cache.
+     * See {@link #merge(Project, IResource, Builder)}.
+     * @param project project
+     * @param input binary resource
+     * @param prototype default instance of the message type
+     * @return parsed message or null if the resource has no content
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Message> T parseBinary(Project project, IResource input, T prototype) throws IOException {
+        long start = System.nanoTime();
+        CacheStatistics stats = project.getStatistics(MESSAGE_CACHE);
+        MemoryCache<String, Message> cache = project.getMemoryCache(MESSAGE_CACHE, MESSAGE_CACHE_SIZE);
+        final byte[] content = input.getContent();
+        if (content == null) {
+            return null;
+        }
+        String key = getCacheKey(input, content, prototype, "binary");
+        Message message = cache.get(key);
+        if (message != null) {
+            stats.hit(System.nanoTime() - start);
+            return (T) message;
+        }
+        message = prototype.newBuilderForType().mergeFrom(content).build();
+        cache.put(key, message, content.length);
+        stats.miss(System.nanoTime() - start);
+        return (T) message;
+    }
 }
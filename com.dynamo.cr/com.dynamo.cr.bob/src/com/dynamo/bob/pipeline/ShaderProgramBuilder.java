@@ -25,6 +25,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Locale;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
@@ -38,6 +39,7 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
@@ -46,16 +48,22 @@ import com.dynamo.bob.Builder;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Task;
+import com.dynamo.bob.cache.MemoryCache;
+import com.dynamo.bob.fs.DigestUtil;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.ShaderUtil.ES2ToES3Converter;
 import com.dynamo.bob.pipeline.ShaderUtil.SPIRVReflector;
 import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.Exec.Result;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.ByteString;
 
 public abstract class ShaderProgramBuilder extends Builder<Void> {
 
+    public static final String SPIRV_CACHE = "spirv-modules";
+    static final long SPIRV_CACHE_SIZE = 32 * 1024 * 1024;
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
 
@@ -188,6 +196,97 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         }
     }
 
+    /**
+     * SPIR-V module and its reflection data, as generated by glslc and spirv-cross.
+     * Modules are shared through the build cache and must not be modified.
+     */
+    static private class SPIRVModule {
+        final byte[] source;
+        final SPIRVReflector reflector;
+
+        SPIRVModule(byte[] source, SPIRVReflector reflector) {
+            this.source = source;
+            this.reflector = reflector;
+        }
+    }
+
+    private SPIRVModule compileSPIRVModule(String glsl, String shaderStage, String shaderStd, IResource resource, String resourceOutput, boolean soft_fail) throws IOException, CompileExceptionError {
+        File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
+        File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
+        File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
+        try {
+            FileUtils.writeByteArrayToFile(file_in_glsl, glsl.getBytes());
+
+            Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
+                    "-w",
+                    "-fauto-bind-uniforms",
+                    "-fauto-map-locations",
+                    "-std=" + shaderStd,
+                    "-fshader-stage=" + shaderStage,
+                    "-o", file_out_spv.getAbsolutePath(),
+                    file_in_glsl.getAbsolutePath()
+                    );
+
+            String result_string = getResultString(result);
+            if (soft_fail && result_string != null) {
+                System.err.println("\nWarning! Compatability issue: " + result_string);
+                return null;
+            } else {
+                checkResult(result_string, resource, resourceOutput);
+            }
+
+            // Generate reflection data
+            result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
+                file_out_spv.getAbsolutePath(),
+                "--output",file_out_refl.getAbsolutePath(),
+                "--reflect");
+
+            result_string = getResultString(result);
+            if (soft_fail && result_string != null) {
+                System.err.println("\nWarning! Unable to get reflection data: " + result_string);
+                return null;
+            } else {
+                checkResult(result_string, resource, resourceOutput);
+            }
+
+            String result_json = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
+            return new SPIRVModule(FileUtils.readFileToByteArray(file_out_spv), new SPIRVReflector(result_json));
+        } finally {
+            file_in_glsl.delete();
+            file_out_spv.delete();
+            file_out_refl.delete();
+        }
+    }
+
+    // Identical shader sources, e.g. the same program used by several materials, are only
+    // compiled once per build. Failed compilations are not cached so that warnings are
+    // reported for each resource.
+    private SPIRVModule getSPIRVModule(String glsl, String shaderStage, String shaderStd, IResource resource, String resourceOutput, boolean soft_fail) throws IOException, CompileExceptionError {
+        if (project == null) {
+            return compileSPIRVModule(glsl, shaderStage, shaderStd, resource, resourceOutput, soft_fail);
+        }
+
+        long start = System.nanoTime();
+        CacheStatistics stats = project.getStatistics(SPIRV_CACHE);
+        MemoryCache<String, SPIRVModule> cache = project.getMemoryCache(SPIRV_CACHE, SPIRV_CACHE_SIZE);
+        byte[] glslBytes = glsl.getBytes(StandardCharsets.UTF_8);
+        MessageDigest sha1 = DigestUtil.newSha1();
+        sha1.update(glslBytes);
+        String key = new String(Hex.encodeHex(sha1.digest())) + ":" + shaderStage + ":" + shaderStd;
+
+        SPIRVModule module = cache.get(key);
+        if (module != null) {
+            stats.hit(System.nanoTime() - start);
+            return module;
+        }
+        module = compileSPIRVModule(glsl, shaderStage, shaderStd, resource, resourceOutput, soft_fail);
+        if (module != null) {
+            cache.put(key, module, glslBytes.length + module.source.length);
+        }
+        stats.miss(System.nanoTime() - start);
+        return module;
+    }
+
     private ShaderDesc.Shader.Builder compileGLSLToSPIRV(ByteArrayInputStream is, ES2ToES3Converter.ShaderType shaderType, IResource resource, String resourceOutput, String targetProfile, boolean isDebug, boolean soft_fail)  throws IOException, CompileExceptionError {
         InputStreamReader isr = new InputStreamReader(is);
 
@@ -211,52 +310,14 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         }
 
         // compile GLSL (ES3 or Desktop 140) to SPIR-V
-        File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
-        file_in_glsl.deleteOnExit();
-        FileUtils.writeByteArrayToFile(file_in_glsl, es3Result.output.getBytes());
-
-        File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        file_out_spv.deleteOnExit();
-
         String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
-
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
-                "-w",
-                "-fauto-bind-uniforms",
-                "-fauto-map-locations",
-                "-std=" + es3Result.shaderVersion + es3Result.shaderProfile,
-                "-fshader-stage=" + spirvShaderStage,
-                "-o", file_out_spv.getAbsolutePath(),
-                file_in_glsl.getAbsolutePath()
-                );
-
-        String result_string = getResultString(result);
-        if (soft_fail && result_string != null) {
-            System.err.println("\nWarning! Compatability issue: " + result_string);
+        String spirvShaderStd = es3Result.shaderVersion + es3Result.shaderProfile;
+        SPIRVModule module = getSPIRVModule(es3Result.output, spirvShaderStage, spirvShaderStd, resource, resourceOutput, soft_fail);
+        if (module == null) {
             return null;
-        } else {
-            checkResult(result_string, resource, resourceOutput);
-        }
-
-        // Generate reflection data
-        File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
-        file_out_refl.deleteOnExit();
-
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-            file_out_spv.getAbsolutePath(),
-            "--output",file_out_refl.getAbsolutePath(),
-            "--reflect");
-
-        result_string = getResultString(result);
-        if (soft_fail && result_string != null) {
-            System.err.println("\nWarning! Unable to get reflection data: " + result_string);
-            return null;
-        } else {
-            checkResult(result_string, resource, resourceOutput);
         }
 
-        String result_json                = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
-        SPIRVReflector reflector          = new SPIRVReflector(result_json);
+        SPIRVReflector reflector          = module.reflector;
         ArrayList<String> shaderIssues    = new ArrayList<String>();
         ShaderDesc.Shader.Builder builder = ShaderDesc.Shader.newBuilder();
 
@@ -412,8 +473,7 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         }
 
         builder.setLanguage(ShaderDesc.Language.LANGUAGE_SPIRV);
-        byte[] spv_data = FileUtils.readFileToByteArray(file_out_spv);
-        builder.setSource(ByteString.copyFrom(spv_data));
+        builder.setSource(ByteString.copyFrom(module.source));
 
         return builder;
     }
@@ -26,8 +26,12 @@ import com.dynamo.bob.CompileExceptionError;
 
 public class ShaderUtil {
 
+    /**
+     * Reflection data of a SPIR-V module, as generated by spirv-cross. The parsed
+     * data is never modified after construction so a reflector can be shared between threads.
+     */
     public static class SPIRVReflector {
-        private static JsonNode root;
+        private final JsonNode root;
 
         public SPIRVReflector(String json) throws IOException
         {
@@ -47,7 +51,7 @@ public class ShaderUtil {
             public ArrayList<Resource> uniforms;
         }
 
-        public static ArrayList<UniformBlock> getUniformBlocks()
+        public ArrayList<UniformBlock> getUniformBlocks()
         {
             ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
 
@@ -90,7 +94,7 @@ public class ShaderUtil {
             return uniformBlocks;
         }
 
-        public static ArrayList<Resource> getTextures() {
+        public ArrayList<Resource> getTextures() {
             ArrayList<Resource> textures = new ArrayList<Resource>();
 
             JsonNode texturesNode = root.get("textures");
@@ -112,7 +116,7 @@ public class ShaderUtil {
             return textures;
         }
 
-        public static ArrayList<Resource> getInputs() {
+        public ArrayList<Resource> getInputs() {
             ArrayList<Resource> inputs = new ArrayList<Resource>();
 
             JsonNode inputsNode = root.get("inputs");
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -68,6 +69,11 @@ import com.google.protobuf.Message;
 @BuilderParams(name="SpineScene", inExts=".spinescene", outExt=".rigscenec")
 public class SpineSceneBuilder extends Builder<Void> {
 
+    @Override
+    public void signature(MessageDigest digest) {
+        digest.update(project.option("compress-animations", "false").getBytes());
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -76,7 +82,7 @@ public class SpineSceneBuilder extends Builder<Void> {
                 .addOutput(input.changeExt(params.outExt()));
 
         SpineSceneDesc.Builder builder = SpineSceneDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         BuilderUtil.checkResource(this.project, input, "spine_json", builder.getSpineJson());
         BuilderUtil.checkResource(this.project, input, "atlas", builder.getAtlas());
 
@@ -370,7 +376,7 @@ public class SpineSceneBuilder extends Builder<Void> {
             IOException {
 
         SpineSceneDesc.Builder builder = SpineSceneDesc.newBuilder();
-        ProtoUtil.merge(task.input(0), builder);
+        ProtoUtil.merge(project, task.input(0), builder);
 
         // Load previously created atlas textureset
         TextureSet.Builder resultBuilder = TextureSet.newBuilder();
@@ -427,6 +433,9 @@ public class SpineSceneBuilder extends Builder<Void> {
             for (Map.Entry<String, RigUtil.Animation> entry : scene.animations.entrySet()) {
                 animationToDDF(scene, entry.getKey(), entry.getValue(), animSetBuilder, builder.getSampleRate());
             }
+            if (project.option("compress-animations", "false").equals("true")) {
+                RigUtil.compressTracks(animSetBuilder, RigUtil.TrackTolerances.DEFAULT);
+            }
             out = new ByteArrayOutputStream(64 * 1024);
             animSetBuilder.build().writeTo(out);
             out.close();
@@ -58,7 +58,7 @@ public class TextureBuilder extends Builder<Void> {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(is, texProfile, compress);
+            texture = TextureGenerator.generate(is, texProfile, compress, project.getTextureCache());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
@@ -0,0 +1,110 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.ResourceCache;
+import com.dynamo.bob.fs.DigestUtil;
+import com.dynamo.bob.util.CacheStatistics;
+import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
+import com.dynamo.graphics.proto.Graphics.TextureImage;
+import com.dynamo.graphics.proto.Graphics.TextureImage.TextureFormat;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Cache of transcoded texture images, keyed by the source pixels and all settings
+ * used when transcoding. The same image used by several atlases, tile sources or
+ * textures is only transcoded once, also across builds when the underlying cache
+ * is stored on disk. Entries are invalidated when the engine version changes.
+ */
+public class TextureCache {
+
+    private final ResourceCache cache;
+    private final CacheStatistics statistics;
+
+    /**
+     * Constructor
+     * @param cache cache to store the encoded images in
+     * @param statistics hit/miss statistics to update
+     */
+    public TextureCache(ResourceCache cache, CacheStatistics statistics) {
+        this.cache = cache;
+        this.statistics = statistics;
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Calculate the digest of the source pixels of a texture
+     * @param pixels RGBA pixels, the position of the buffer is not changed
+     * @param width width of the image
+     * @param height height of the image
+     * @return sha1 digest
+     */
+    public static byte[] calculatePixelsDigest(ByteBuffer pixels, int width, int height) {
+        MessageDigest digest = DigestUtil.newSha1();
+        digest.update(String.format("%dx%d", width, height).getBytes());
+        digest.update(pixels.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * Calculate the cache key of a transcoded image
+     * @param pixelsDigest digest of the source pixels, see {@link #calculatePixelsDigest(ByteBuffer, int, int)}
+     * @return hex encoded key
+     */
+    public static String calculateKey(byte[] pixelsDigest, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) {
+        MessageDigest digest = DigestUtil.newSha1();
+        digest.update(EngineVersion.sha1.getBytes());
+        digest.update(pixelsDigest);
+        String settings = String.format("%s:%s:%s:%b:%d:%b:%b:%s", textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+        digest.update(settings.getBytes());
+        return new String(Hex.encodeHex(digest.digest()));
+    }
+
+    /**
+     * Get a cached image
+     * @param key entry key
+     * @return image or null if not found
+     */
+    public TextureImage.Image get(String key) {
+        byte[] content = cache.get(key);
+        if (content == null) {
+            return null;
+        }
+        try {
+            return TextureImage.Image.parseFrom(content);
+        } catch (InvalidProtocolBufferException e) {
+            // Written by an incompatible version, replaced when the image is transcoded again
+            return null;
+        }
+    }
+
+    /**
+     * Store an image in the cache
+     * @param key entry key
+     * @param image image to store
+     */
+    public void put(String key, TextureImage.Image image) {
+        cache.put(key, image.toByteArray());
+    }
+}
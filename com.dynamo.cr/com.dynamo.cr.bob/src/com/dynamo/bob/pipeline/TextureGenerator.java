@@ -15,6 +15,9 @@ package com.dynamo.bob.pipeline;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
@@ -22,7 +25,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.EnumSet;
@@ -37,6 +44,7 @@ import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.bob.util.TextureUtil;
+import com.dynamo.bob.util.WorkerPool;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureImage.TextureFormat;
@@ -150,33 +158,57 @@ public class TextureGenerator {
         return targetFormat;
     }
 
-    private static TextureImage.Image generateFromColorAndFormat(BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-
+    // Copy the pixels of an image to a direct buffer in RGBA order, one scan line at a time.
+    // The image must be backed by a byte raster, such as TYPE_4BYTE_ABGR.
+    private static ByteBuffer getRGBAPixels(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int componentCount = colorModel.getNumComponents();
-        Integer pixelFormat = PixelFormat.R8G8B8A8;
-        int texcCompressionLevel;
-        int texcCompressionType;
 
-        int dataSize = width * height * 4;
-        ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
-
-        // On Linux we run out of memory while trying to load a 4K texture.
-        // We split the pixel read out into blocks with 512 scan lines per block.
-        for (int y = 0; y < height; y+=512) {
-
-            int count = Math.min(height - y, 512);
-
-            int[] rasterData = new int[count*width*4];
-            image.getRaster().getPixels(0, y, width, count, rasterData);
-            for (int i = 0; i < rasterData.length; ++i) {
-                buffer.put((byte) (rasterData[i] & 0xff));
+        WritableRaster raster = image.getRaster();
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int base = dataBuffer.getOffset()
+                - raster.getSampleModelTranslateY() * scanlineStride
+                - raster.getSampleModelTranslateX() * pixelStride;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4);
+        boolean isRGBA = pixelStride == 4 && bandOffsets[0] == 0 && bandOffsets[1] == 1 && bandOffsets[2] == 2 && bandOffsets[3] == 3;
+        byte[] row = new byte[width * 4];
+        for (int y = 0; y < height; ++y) {
+            int rowOffset = base + y * scanlineStride;
+            if (isRGBA) {
+                buffer.put(data, rowOffset, width * 4);
+                continue;
+            }
+            for (int x = 0, i = 0; x < width; ++x) {
+                int pixelOffset = rowOffset + x * pixelStride;
+                row[i++] = data[pixelOffset + bandOffsets[0]];
+                row[i++] = data[pixelOffset + bandOffsets[1]];
+                row[i++] = data[pixelOffset + bandOffsets[2]];
+                row[i++] = data[pixelOffset + bandOffsets[3]];
             }
+            buffer.put(row);
         }
 
         buffer.flip();
-        Pointer texture = TexcLibrary.TEXC_Create(width, height, PixelFormat.R8G8B8A8, ColorSpace.SRGB, buffer);
+        return buffer;
+    }
+
+    private static TextureImage.Image generateFromColorAndFormat(ByteBuffer pixels, int width, int height, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+
+        int componentCount = colorModel.getNumComponents();
+        Integer pixelFormat = PixelFormat.R8G8B8A8;
+        int texcCompressionLevel;
+        int texcCompressionType;
+        int dataSize;
+        ByteBuffer buffer;
+
+        // The source pixels are shared by all alternatives, texc copies them on create
+        Pointer texture = TexcLibrary.TEXC_Create(width, height, PixelFormat.R8G8B8A8, ColorSpace.SRGB, pixels.duplicate());
 
         // convert from protobuf specified compressionlevel to texc int
         texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
@@ -205,8 +237,8 @@ public class TextureGenerator {
 
         try {
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            int newWidth  = width;
+            int newHeight = height;
 
             newWidth = TextureUtil.closestPOT(newWidth);
             newHeight = TextureUtil.closestPOT(newHeight);
@@ -310,6 +342,24 @@ public class TextureGenerator {
 
     }
 
+    private static TextureImage.Image generateFromColorAndFormat(TextureCache cache, byte[] pixelsDigest, ByteBuffer pixels, int width, int height, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        if (cache == null) {
+            return generateFromColorAndFormat(pixels, width, height, colorModel, textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+        }
+
+        long start = System.nanoTime();
+        String key = TextureCache.calculateKey(pixelsDigest, textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+        TextureImage.Image raw = cache.get(key);
+        if (raw != null) {
+            cache.getStatistics().hit(System.nanoTime() - start);
+            return raw;
+        }
+        raw = generateFromColorAndFormat(pixels, width, height, colorModel, textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+        cache.put(key, raw);
+        cache.getStatistics().miss(System.nanoTime() - start);
+        return raw;
+    }
+
     // For convenience, some methods without the flipAxis and/or compress argument.
     // It will always try to flip on Y axis since this is the byte order that OpenGL expects for regular/most textures,
     // for those methods without this argument.
@@ -326,26 +376,43 @@ public class TextureGenerator {
     }
 
     public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress) throws TextureGeneratorException, IOException {
+        return generate(inputStream, texProfile, compress, (TextureCache) null);
+    }
+
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, TextureCache cache) throws TextureGeneratorException, IOException {
         BufferedImage origImage = ImageIO.read(inputStream);
         inputStream.close();
         if (origImage == null) {
             throw new TextureGeneratorException("Unknown texture format.");
         }
-        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
+        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), cache);
     }
 
     public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(inputStream, texProfile, compress, flipAxis, null);
+    }
+
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, TextureCache cache) throws TextureGeneratorException, IOException {
         BufferedImage origImage = ImageIO.read(inputStream);
         inputStream.close();
-        return generate(origImage, texProfile, compress, flipAxis);
+        return generate(origImage, texProfile, compress, flipAxis, cache);
     }
 
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress) throws TextureGeneratorException, IOException {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
-    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, TextureCache cache) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), cache);
+    }
+
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, flipAxis, null);
+    }
+
+    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
+    // Transcoded images are looked up in, and added to, the cache if one is supplied.
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, final boolean compress, final EnumSet<FlipAxis> flipAxis, final TextureCache cache) throws TextureGeneratorException, IOException {
         // Convert image into readable format
         // Always convert to ABGR since the texc lib demands that for resizing etc
         BufferedImage image;
@@ -354,33 +421,47 @@ public class TextureGenerator {
         } else {
             image = origImage;
         }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final ByteBuffer pixels = getRGBAPixels(image);
+        final byte[] pixelsDigest = cache != null ? TextureCache.calculatePixelsDigest(pixels, width, height) : null;
 
         // Setup texture format and settings
-        ColorModel colorModel = origImage.getColorModel();
+        final ColorModel colorModel = origImage.getColorModel();
         int componentCount = colorModel.getNumComponents();
         TextureImage.Builder textureBuilder = TextureImage.newBuilder();
 
         if (texProfile != null) {
 
-            // Generate an image for each format specified in the profile
-            for (PlatformProfile platformProfile : texProfile.getPlatformsList()) {
-                for (int i = 0; i < platformProfile.getFormatsList().size(); ++i) {
-                    TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
-                    TextureFormatAlternative.CompressionLevel compressionLevel = platformProfile.getFormats(i).getCompressionLevel();
-                    TextureFormat textureFormat = platformProfile.getFormats(i).getFormat();
-
-                    // We pick a "new" format based on the input image component count and a "target" format.
-                    // For example we would rather have a texture format with 3 channels if the input
-                    // image has 3 channels, even if the texture profile specified a format with 4 channels.
-                    textureFormat = pickOptimalFormat(componentCount, textureFormat);
-
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
+            // Generate an image for each format specified in the profile.
+            // The alternatives are transcoded concurrently but added in profile order.
+            List<Future<TextureImage.Image>> alternatives = new ArrayList<Future<TextureImage.Image>>();
+            try {
+                for (final PlatformProfile platformProfile : texProfile.getPlatformsList()) {
+                    for (int i = 0; i < platformProfile.getFormatsList().size(); ++i) {
+                        final TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
+                        final TextureFormatAlternative.CompressionLevel compressionLevel = platformProfile.getFormats(i).getCompressionLevel();
+
+                        // We pick a "new" format based on the input image component count and a "target" format.
+                        // For example we would rather have a texture format with 3 channels if the input
+                        // image has 3 channels, even if the texture profile specified a format with 4 channels.
+                        final TextureFormat textureFormat = pickOptimalFormat(componentCount, platformProfile.getFormats(i).getFormat());
+
+                        alternatives.add(WorkerPool.submit(new Callable<TextureImage.Image>() {
+                            @Override
+                            public TextureImage.Image call() throws Exception {
+                                return generateFromColorAndFormat(cache, pixelsDigest, pixels, width, height, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
+                            }
+                        }));
                     }
+                }
 
+                for (Future<TextureImage.Image> alternative : alternatives) {
+                    textureBuilder.addAlternatives(WorkerPool.get(alternative, TextureGeneratorException.class, IOException.class));
+                }
+            } finally {
+                for (Future<TextureImage.Image> alternative : alternatives) {
+                    alternative.cancel(false);
                 }
             }
 
@@ -395,7 +476,7 @@ public class TextureGenerator {
 
             // Guess texture format based on number color components of input image
             TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
+            TextureImage.Image raw = generateFromColorAndFormat(cache, pixelsDigest, pixels, width, height, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
             textureBuilder.addAlternatives(raw);
             textureBuilder.setCount(1);
 
@@ -16,7 +16,6 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 import javax.imageio.ImageIO;
 
@@ -36,7 +35,6 @@ import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.tile.proto.Tile.TileSet;
-import com.google.protobuf.TextFormat;
 
 @BuilderParams(name = "TileSet", inExts = {".tileset", ".tilesource"}, outExt = ".texturesetc")
 public class TileSetBuilder extends Builder<Void>  {
@@ -44,7 +42,7 @@ public class TileSetBuilder extends Builder<Void>  {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         TileSet.Builder builder = TileSet.newBuilder();
-        TextFormat.merge(new InputStreamReader(new ByteArrayInputStream(input.getContent())), builder);
+        ProtoUtil.merge(project, input, builder);
         TileSet tileSet = builder.build();
         String imgPath = tileSet.getImage();
         String collisionPath = tileSet.getCollision();
@@ -94,7 +92,7 @@ public class TileSetBuilder extends Builder<Void>  {
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
 
         TileSet.Builder builder = TileSet.newBuilder();
-        ProtoUtil.merge(task.input(0), builder);
+        ProtoUtil.merge(project, task.input(0), builder);
         TileSet tileSet = builder.build();
 
         String imgPath = tileSet.getImage();
@@ -142,7 +140,7 @@ public class TileSetBuilder extends Builder<Void>  {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(result.image, texProfile, compress);
+            texture = TextureGenerator.generate(result.image, texProfile, compress, project.getTextureCache());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
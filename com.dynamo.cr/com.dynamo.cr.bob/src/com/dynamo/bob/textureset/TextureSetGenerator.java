@@ -22,6 +22,7 @@ import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 import com.dynamo.bob.tile.ConvexHull2D;
 import com.dynamo.bob.tile.TileSetUtil;
 import com.dynamo.bob.util.TextureUtil;
+import com.dynamo.bob.util.WorkerPool;
 import com.dynamo.textureset.proto.TextureSetProto;
 import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
@@ -32,6 +33,7 @@ import com.google.protobuf.ByteString;
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
@@ -45,6 +47,8 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 // For debugging image output
@@ -175,6 +179,27 @@ public class TextureSetGenerator {
         }
     }
 
+    /**
+     * Build the convex hulls of a list of images in parallel
+     * @param images original images (no padding or extrude borders), null entries are skipped
+     * @param hullVertexCounts hull vertex count of each image
+     * @return hull of each image, in image order, or null for the skipped images
+     */
+    public static List<SpriteGeometry> buildConvexHulls(List<BufferedImage> images, List<Integer> hullVertexCounts) {
+        List<Callable<SpriteGeometry>> tasks = new ArrayList<Callable<SpriteGeometry>>(images.size());
+        for (int i = 0; i < images.size(); ++i) {
+            final BufferedImage image = images.get(i);
+            final int hullVertexCount = hullVertexCounts.get(i);
+            tasks.add(new Callable<SpriteGeometry>() {
+                @Override
+                public SpriteGeometry call() {
+                    return image != null ? buildConvexHull(image, hullVertexCount) : null;
+                }
+            });
+        }
+        return WorkerPool.invokeAll(tasks);
+    }
+
     // Pass in the original image (no padding or extrude borders)
     public static SpriteGeometry buildConvexHull(BufferedImage image, int hullVertexCount) {
         SpriteGeometry.Builder geometryBuilder = TextureSetProto.SpriteGeometry.newBuilder();
@@ -195,11 +220,13 @@ public class TextureSetGenerator {
         if (raster != null && hullVertexCount != 0) {
             int dilateCount = 2; // a pixel boundary to avoid filtering issues
 
-            points = TileSetUtil.calculateConvexHull(raster, hullVertexCount, dilateCount);
+            // Read the alpha once, for both the hull and the fallback rect
+            int[] alpha = raster.getPixels(0, 0, width, height, (int[]) null);
+            points = TileSetUtil.calculateConvexHull(alpha, width, height, hullVertexCount, dilateCount);
 
             // If the hull wasn't valid, let's calculate a tight rect (slightly inflated)
             if (points == null) {
-                points = TileSetUtil.calculateRect(raster, dilateCount);
+                points = TileSetUtil.calculateRect(alpha, width, height, dilateCount);
             }
         }
 
@@ -299,6 +326,20 @@ public class TextureSetGenerator {
                                                 AnimIterator iterator,
                                                int margin, int innerPadding, int extrudeBorders,
                                                boolean rotate, boolean useTileGrid, Grid gridSize) {
+        return calculateLayout(images, imageHulls, use_geometries, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, null);
+    }
+
+    /**
+     * Same as {@link #calculateLayout(List, List, int, AnimIterator, int, int, int, boolean, boolean, Grid)},
+     * but reuses the rectangles of a previous layout instead of packing the images, if all
+     * image sizes are unchanged. The previous layout must have been calculated with the same settings.
+     *
+     * @param previousLayout layout from a previous call, or null
+     */
+    public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
+                                                AnimIterator iterator,
+                                               int margin, int innerPadding, int extrudeBorders,
+                                               boolean rotate, boolean useTileGrid, Grid gridSize, Layout previousLayout) {
 
         int totalSizeIncrease = 2 * (innerPadding + extrudeBorders);
 
@@ -311,11 +352,15 @@ public class TextureSetGenerator {
                 .map(i -> new Rect(i.id, i.index, i.width + totalSizeIncrease, i.height + totalSizeIncrease))
                 .collect(Collectors.toList());
 
-        Layout layout;
-        if (useTileGrid) {
-            layout = TextureSetLayout.gridLayout(margin, resizedImages, gridSize);
-        } else {
-            layout = TextureSetLayout.packedLayout(margin, resizedImages, rotate);
+        // The layout only depends on the image sizes and settings, so reusing the previous
+        // layout gives the same result as packing the images again
+        Layout layout = reuseLayout(previousLayout, resizedImages);
+        if (layout == null) {
+            if (useTileGrid) {
+                layout = TextureSetLayout.gridLayout(margin, resizedImages, gridSize);
+            } else {
+                layout = TextureSetLayout.packedLayout(margin, resizedImages, rotate);
+            }
         }
 
         layout.getRectangles().sort(Comparator.comparing(o -> o.index));
@@ -337,6 +382,94 @@ public class TextureSetGenerator {
         return new TextureSetResult(vertexData.left, vertexData.right, new LayoutResult(layout, innerPadding, extrudeBorders));
     }
 
+    private static Layout reuseLayout(Layout previousLayout, List<Rect> rects) {
+        if (previousLayout == null || previousLayout.getRectangles().size() != rects.size()) {
+            return null;
+        }
+
+        List<Rect> previousRects = new ArrayList<Rect>(previousLayout.getRectangles());
+        previousRects.sort(Comparator.comparing(o -> o.index));
+        for (int i = 0; i < rects.size(); ++i) {
+            Rect previous = previousRects.get(i);
+            Rect rect = rects.get(i);
+            int width = previous.rotated ? previous.height : previous.width;
+            int height = previous.rotated ? previous.width : previous.height;
+            // A rect that holds another image than before must be packed and drawn again
+            if (previous.index != rect.index || !Objects.equals(previous.id, rect.id) || width != rect.width || height != rect.height) {
+                return null;
+            }
+        }
+
+        for (int i = 0; i < rects.size(); ++i) {
+            Rect previous = previousRects.get(i);
+            Rect rect = rects.get(i);
+            rect.x = previous.x;
+            rect.y = previous.y;
+            rect.width = previous.width;
+            rect.height = previous.height;
+            rect.rotated = previous.rotated;
+        }
+        return new Layout(previousLayout.getWidth(), previousLayout.getHeight(), rects);
+    }
+
+    /**
+     * Check if two layouts place all rectangles, with the same ids, in the same place
+     */
+    public static boolean isSameLayout(Layout a, Layout b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight() || a.getRectangles().size() != b.getRectangles().size()) {
+            return false;
+        }
+        for (int i = 0; i < a.getRectangles().size(); ++i) {
+            Rect ra = a.getRectangles().get(i);
+            Rect rb = b.getRectangles().get(i);
+            if (ra.index != rb.index || !Objects.equals(ra.id, rb.id) || ra.x != rb.x || ra.y != rb.y || ra.width != rb.width || ra.height != rb.height || ra.rotated != rb.rotated) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draw images into their rectangles of a texture set image, replacing the previous contents
+     * of the rectangles. Drawing all images into an empty image gives the same result as
+     * {@link #generate}, and drawing only the changed images into the image of a previous build with the
+     * same layout updates it.
+     *
+     * @param image texture set image, updated in place
+     * @param layoutResult layout, with the rectangles in image order
+     * @param images original images (no padding or extrude borders), null for images that should be kept
+     */
+    public static void drawImages(BufferedImage image, LayoutResult layoutResult, List<BufferedImage> images) {
+        Graphics2D g = image.createGraphics();
+        int i = 0;
+        for (Rect r : layoutResult.layout.getRectangles()) {
+            BufferedImage rectImage = images.get(i++);
+            if (rectImage == null) {
+                continue;
+            }
+            rectImage = prepareImage(rectImage, layoutResult.innerPadding, layoutResult.extrudeBorders, r.rotated);
+
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(r.x, r.y, r.width, r.height);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.drawImage(rectImage, r.x, r.y, null);
+        }
+        g.dispose();
+    }
+
+    private static BufferedImage prepareImage(BufferedImage image, int innerPadding, int extrudeBorders, boolean rotated) {
+        if (innerPadding > 0) {
+            image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
+        }
+        if (extrudeBorders > 0) {
+            image = TextureUtil.extrudeBorders(image, extrudeBorders);
+        }
+        if (rotated) {
+            image = rotateImage(image);
+        }
+        return image;
+    }
+
     public static BufferedImage layoutImages(LayoutResult layoutResult, Map<String, BufferedImage> images) {
         Layout layout = layoutResult.layout;
 
@@ -392,12 +525,10 @@ public class TextureSetGenerator {
 
         // if all sizes are 0, we still need to generate hull (or rect) data
         // since it will still be part of the new code path if there is another atlas with trimming enabled
-        List<SpriteGeometry> imageHulls = new ArrayList<SpriteGeometry>();
+        List<SpriteGeometry> imageHulls = buildConvexHulls(images, imageHullSizes);
         int use_geometries = 0;
         for (int i = 0; i < images.size(); ++i) {
-            BufferedImage image = images.get(i);
             use_geometries |= imageHullSizes.get(i) > 0 ? 1 : 0;
-            imageHulls.add(buildConvexHull(image, imageHullSizes.get(i)));
         }
 
         // The layout step will expand the rect, and possibly rotate them
@@ -405,19 +536,8 @@ public class TextureSetGenerator {
                                                         margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize);
 
         for (int i = 0; i < images.size(); ++i) {
-            BufferedImage image = images.get(i);
             Rect rect = result.layoutResult.layout.getRectangles().get(i);
-
-            if (innerPadding > 0) {
-                image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
-            }
-            if (extrudeBorders > 0) {
-                image = TextureUtil.extrudeBorders(image, extrudeBorders);
-            }
-            if (rect.rotated) {
-                image = rotateImage(image);
-            }
-            images.set(i, image);
+            images.set(i, prepareImage(images.get(i), innerPadding, extrudeBorders, rect.rotated));
         }
 
         result.image = composite(images, result.layoutResult.layout);
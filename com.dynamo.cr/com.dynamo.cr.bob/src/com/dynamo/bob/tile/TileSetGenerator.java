@@ -14,8 +14,10 @@ package com.dynamo.bob.tile;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
@@ -25,6 +27,7 @@ import com.dynamo.bob.textureset.TextureSetLayout.Grid;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 import com.dynamo.bob.tile.TileSetUtil.ConvexHulls;
 import com.dynamo.bob.util.TextureUtil;
+import com.dynamo.bob.util.WorkerPool;
 import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.tile.proto.Tile;
@@ -34,6 +37,9 @@ import com.dynamo.tile.proto.Tile.TileSet;
 
 public class TileSetGenerator {
 
+    // Max number of tiles of a row that are calculated by one task
+    private static final int HULL_TILES_PER_TASK = 64;
+
     public static class IndexedAnimDesc extends AnimDesc {
         int start;
         int end;
@@ -185,9 +191,63 @@ public class TileSetGenerator {
         return iterator;
     }
 
+    // Calculates the hulls of the tiles [firstCol, lastCol) of a row. The alpha of the tiles
+    // is read with a single copy from the raster.
+    private static void calculateRowConvexHulls(Raster alphaRaster, int hullTargetVertexCount,
+            int row, int firstCol, int lastCol, int tilesPerRow, int tileWidth, int tileHeight,
+            int tileMargin, int tileSpacing, ConvexHull2D.Point[][] points) {
+        int tileStrideX = 2 * tileMargin + tileSpacing + tileWidth;
+        int x = tileMargin + firstCol * tileStrideX;
+        int y = tileMargin + row * (2 * tileMargin + tileSpacing + tileHeight);
+        int alphaWidth = (lastCol - firstCol - 1) * tileStrideX + tileWidth;
+        int[] alpha = alphaRaster.getPixels(x, y, alphaWidth, tileHeight, (int[]) null);
+        int[] mask = new int[tileWidth * tileHeight];
+
+        for (int col = firstCol; col < lastCol; ++col) {
+            int offset = (col - firstCol) * tileStrideX;
+            for (int ty = 0; ty < tileHeight; ++ty) {
+                System.arraycopy(alpha, ty * alphaWidth + offset, mask, ty * tileWidth, tileWidth);
+            }
+            points[col + row * tilesPerRow] = TileSetUtil.calculateTileConvexHull(mask, tileWidth, tileHeight, hullTargetVertexCount);
+        }
+    }
+
+    /**
+     * Calculate the collision hulls of all tiles on the shared worker pool, in chunks of
+     * a row. Gives the same result as {@link TileSetUtil#calculateConvexHulls}.
+     */
+    public static ConvexHulls calculateConvexHulls(final Raster alphaRaster, final int hullTargetVertexCount,
+            int width, int height, final int tileWidth, final int tileHeight,
+            final int tileMargin, final int tileSpacing) {
+        final int tilesPerRow = TileSetUtil.calculateTileCount(tileWidth, width, tileMargin, tileSpacing);
+        int tilesPerColumn = TileSetUtil.calculateTileCount(tileHeight, height, tileMargin, tileSpacing);
+        final ConvexHull2D.Point[][] points = new ConvexHull2D.Point[tilesPerRow * tilesPerColumn][];
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int row = 0; row < tilesPerColumn; ++row) {
+            for (int col = 0; col < tilesPerRow; col += HULL_TILES_PER_TASK) {
+                final int taskRow = row;
+                final int firstCol = col;
+                final int lastCol = Math.min(tilesPerRow, col + HULL_TILES_PER_TASK);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        calculateRowConvexHulls(alphaRaster, hullTargetVertexCount, taskRow, firstCol, lastCol,
+                                tilesPerRow, tileWidth, tileHeight, tileMargin, tileSpacing, points);
+                        return null;
+                    }
+                });
+            }
+        }
+        WorkerPool.invokeAll(tasks);
+
+        // The hulls are laid out in tile order, independently of the order the tasks finished in
+        return TileSetUtil.createConvexHulls(points);
+    }
+
     private static void buildCollisionConvexHulls(TileSet tileSet, BufferedImage image, TextureSet.Builder textureSet) {
         if (image != null) {
-            ConvexHulls convexHulls = TileSetUtil.calculateConvexHulls(image.getAlphaRaster(), 16,
+            ConvexHulls convexHulls = calculateConvexHulls(image.getAlphaRaster(), 16,
                     image.getWidth(), image.getHeight(), tileSet.getTileWidth(),
                     tileSet.getTileHeight(), tileSet.getTileMargin(), tileSet.getTileSpacing());
 
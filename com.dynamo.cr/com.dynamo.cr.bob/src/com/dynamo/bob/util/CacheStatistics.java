@@ -0,0 +1,76 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe hit/miss counters for a build cache, including the accumulated
+ * time spent looking up or computing values. Included in the build report.
+ */
+public class CacheStatistics {
+
+    private final String name;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public CacheStatistics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a cache hit
+     * @param elapsedNanos time spent on the lookup
+     */
+    public void hit(long elapsedNanos) {
+        hits.incrementAndGet();
+        nanos.addAndGet(elapsedNanos);
+    }
+
+    /**
+     * Record a cache miss, i.e. the value had to be computed
+     * @param elapsedNanos time spent on the lookup and computation
+     */
+    public void miss(long elapsedNanos) {
+        misses.incrementAndGet();
+        nanos.addAndGet(elapsedNanos);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getTimeMillis() {
+        return nanos.get() / 1000000L;
+    }
+
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        nanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d hits, %d misses, %d ms", name, getHits(), getMisses(), getTimeMillis());
+    }
+}
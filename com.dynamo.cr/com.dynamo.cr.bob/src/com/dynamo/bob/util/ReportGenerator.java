@@ -24,6 +24,7 @@ import java.io.BufferedWriter;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.CacheStatistics;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ArchiveEntry;
@@ -224,6 +225,22 @@ public class ReportGenerator {
             }
             generator.writeEndArray();
 
+            // Build cache statistics
+            generator.writeFieldName("statistics");
+            generator.writeStartObject();
+            for (CacheStatistics stats : project.getAllStatistics()) {
+                generator.writeFieldName(stats.getName());
+                generator.writeStartObject();
+                generator.writeFieldName("hits");
+                generator.writeNumber(stats.getHits());
+                generator.writeFieldName("misses");
+                generator.writeNumber(stats.getMisses());
+                generator.writeFieldName("time_ms");
+                generator.writeNumber(stats.getTimeMillis());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+
             generator.writeEndObject();
         }
         finally {
@@ -25,6 +25,7 @@ import javax.vecmath.Vector3d;
 
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
 import com.dynamo.bob.util.RigUtil.AnimationCurve.CurveIntepolation;
+import com.dynamo.rig.proto.Rig;
 import com.dynamo.rig.proto.Rig.MeshAnimationTrack;
 
 /**
@@ -768,4 +769,153 @@ public class RigUtil {
         // Create duplicate of last keyframe
         propertyBuilder.duplicateLast();
     }
+
+    /**
+     * Error bounds used when compressing sampled bone tracks, see {@link #compressTracks(Rig.AnimationSet.Builder, TrackTolerances)}.
+     */
+    public static class TrackTolerances {
+        public static final TrackTolerances DEFAULT = new TrackTolerances(0.001, 0.0005, 0.0001);
+
+        /** Max difference of each position component, in bone space units */
+        public final double position;
+        /** Max rotation angle, in radians */
+        public final double rotation;
+        /** Max difference of each scale component */
+        public final double scale;
+
+        public TrackTolerances(double position, double rotation, double scale) {
+            this.position = position;
+            this.rotation = rotation;
+            this.scale = scale;
+        }
+    }
+
+    private static final float[] IDENTITY_POSITION = {0.0f, 0.0f, 0.0f};
+    private static final float[] IDENTITY_ROTATION = {0.0f, 0.0f, 0.0f, 1.0f};
+    private static final float[] IDENTITY_SCALE = {1.0f, 1.0f, 1.0f};
+
+    /**
+     * Check if a sample is within tolerance of a value
+     * @param samples sampled values
+     * @param index index of the first component of the sample
+     * @param value value to compare with
+     * @param tolerance max difference per component, or max angle for rotations
+     * @param rotation if the samples are quaternions
+     */
+    static boolean isWithinTolerance(List<Float> samples, int index, float[] value, double tolerance, boolean rotation) {
+        if (rotation) {
+            double dot = 0.0;
+            double sampleLength = 0.0;
+            double valueLength = 0.0;
+            for (int c = 0; c < 4; ++c) {
+                double v = samples.get(index + c);
+                dot += v * value[c];
+                sampleLength += v * v;
+                valueLength += value[c] * value[c];
+            }
+            double cosHalfAngle = Math.abs(dot) / Math.sqrt(sampleLength * valueLength);
+            return 2.0 * Math.acos(Math.min(1.0, cosHalfAngle)) <= tolerance;
+        }
+        for (int c = 0; c < value.length; ++c) {
+            if (Math.abs(samples.get(index + c) - value[c]) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compress the samples of one property of a track.
+     * @return null if every sample is within tolerance of the identity, the first sample repeated
+     * for every sample if all samples are within tolerance of it, otherwise the samples unchanged
+     */
+    private static List<Float> compressSamples(List<Float> samples, float[] identity, double tolerance, boolean rotation) {
+        int stride = identity.length;
+        boolean isIdentity = true;
+        boolean isConstant = true;
+        float[] first = new float[stride];
+        for (int c = 0; c < stride; ++c) {
+            first[c] = samples.get(c);
+        }
+        for (int i = 0; i < samples.size() && (isIdentity || isConstant); i += stride) {
+            isIdentity = isIdentity && isWithinTolerance(samples, i, identity, tolerance, rotation);
+            isConstant = isConstant && isWithinTolerance(samples, i, first, tolerance, rotation);
+        }
+        if (isIdentity) {
+            return null;
+        }
+        if (isConstant) {
+            List<Float> constant = new ArrayList<Float>(samples.size());
+            for (int i = 0; i < samples.size(); ++i) {
+                constant.add(first[i % stride]);
+            }
+            return constant;
+        }
+        return samples;
+    }
+
+    /**
+     * Compress a sampled bone track in place. The runtime indexes the samples directly by
+     * frame, so the sample layout of a property is kept as long as it is animated:
+     * properties that stay within tolerance of the bind pose are removed, the same as for
+     * properties without keys, and properties that stay within tolerance of a constant value
+     * repeat that value exactly, which makes them compress well in the archive.
+     * @param track track to compress
+     * @param tolerances error bounds
+     * @return true if the track still animates any property
+     */
+    public static boolean compressTrack(Rig.AnimationTrack.Builder track, TrackTolerances tolerances) {
+        if (track.getPositionsCount() > 0) {
+            List<Float> samples = track.getPositionsList();
+            List<Float> positions = compressSamples(samples, IDENTITY_POSITION, tolerances.position, false);
+            if (positions != samples) {
+                track.clearPositions();
+                if (positions != null) {
+                    track.addAllPositions(positions);
+                }
+            }
+        }
+        if (track.getRotationsCount() > 0) {
+            List<Float> samples = track.getRotationsList();
+            List<Float> rotations = compressSamples(samples, IDENTITY_ROTATION, tolerances.rotation, true);
+            if (rotations != samples) {
+                track.clearRotations();
+                if (rotations != null) {
+                    track.addAllRotations(rotations);
+                }
+            }
+        }
+        if (track.getScaleCount() > 0) {
+            List<Float> samples = track.getScaleList();
+            List<Float> scale = compressSamples(samples, IDENTITY_SCALE, tolerances.scale, false);
+            if (scale != samples) {
+                track.clearScale();
+                if (scale != null) {
+                    track.addAllScale(scale);
+                }
+            }
+        }
+        return track.getPositionsCount() > 0 || track.getRotationsCount() > 0 || track.getScaleCount() > 0;
+    }
+
+    /**
+     * Compress the sampled bone tracks of all animations, see {@link #compressTrack(Rig.AnimationTrack.Builder, TrackTolerances)}.
+     * Tracks that no longer animate any property are removed.
+     * @param animationSet animation set to compress
+     * @param tolerances error bounds
+     */
+    public static void compressTracks(Rig.AnimationSet.Builder animationSet, TrackTolerances tolerances) {
+        List<Rig.RigAnimation> animations = new ArrayList<Rig.RigAnimation>(animationSet.getAnimationsList());
+        animationSet.clearAnimations();
+        for (Rig.RigAnimation animation : animations) {
+            Rig.RigAnimation.Builder animationBuilder = animation.toBuilder().clearTracks();
+            for (Rig.AnimationTrack track : animation.getTracksList()) {
+                Rig.AnimationTrack.Builder trackBuilder = track.toBuilder();
+                if (compressTrack(trackBuilder, tolerances)) {
+                    animationBuilder.addTracks(trackBuilder);
+                }
+            }
+            animationSet.addAnimations(animationBuilder);
+        }
+    }
 }
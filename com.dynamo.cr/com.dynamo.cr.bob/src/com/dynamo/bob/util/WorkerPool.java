@@ -0,0 +1,167 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker threads shared by all builders, for work that a single task splits into parts,
+ * e.g. texture alternatives, font glyphs or convex hulls. There is one thread per
+ * processor by default, independently of the number of build jobs, and since the pool
+ * is shared the number of worker threads doesn't grow with the number of jobs. With a
+ * single thread, and for work submitted from a worker thread, the work runs on the
+ * calling thread.
+ */
+public class WorkerPool {
+
+    private static class WorkerThread extends Thread {
+        WorkerThread(Runnable r, String name) {
+            super(r, name);
+            setDaemon(true);
+        }
+    }
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new WorkerThread(r, "bob-worker-" + count.incrementAndGet());
+        }
+    };
+
+    public static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static int threadCount = DEFAULT_THREAD_COUNT;
+    private static ExecutorService executor;
+
+    /**
+     * Set the number of worker threads. Work already submitted still finishes.
+     * @param count number of threads, 1 or less runs all work on the calling thread
+     */
+    public static synchronized void setThreadCount(int count) {
+        count = Math.max(1, count);
+        if (count == threadCount) {
+            return;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        threadCount = count;
+    }
+
+    public static synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (threadCount <= 1) {
+            return null;
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threadCount, threadFactory);
+        }
+        return executor;
+    }
+
+    /**
+     * Submit work to the pool
+     * @param task work to run
+     * @return future result, already done if the work ran on the calling thread
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        // Work submitted by a worker runs directly, waiting for it could otherwise
+        // take up all the workers
+        ExecutorService executor = Thread.currentThread() instanceof WorkerThread ? null : getExecutor();
+        if (executor == null) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            future.run();
+            return future;
+        }
+        return executor.submit(task);
+    }
+
+    /**
+     * Wait for the result of submitted work. Exceptions of the expected types, runtime
+     * exceptions and errors thrown by the work are rethrown as is.
+     * @param future future result
+     * @param exceptionClass checked exception type thrown by the work
+     * @return result
+     */
+    public static <T, E extends Exception> T get(Future<T> future, Class<E> exceptionClass) throws E {
+        return get(future, exceptionClass, exceptionClass);
+    }
+
+    /**
+     * Wait for the result of submitted work. Exceptions of the expected types, runtime
+     * exceptions and errors thrown by the work are rethrown as is.
+     * @param future future result
+     * @param exceptionClass1 checked exception type thrown by the work
+     * @param exceptionClass2 other checked exception type thrown by the work
+     * @return result
+     */
+    public static <T, E1 extends Exception, E2 extends Exception> T get(Future<T> future, Class<E1> exceptionClass1, Class<E2> exceptionClass2) throws E1, E2 {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a worker", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (exceptionClass1.isInstance(cause)) {
+                throw exceptionClass1.cast(cause);
+            } else if (exceptionClass2.isInstance(cause)) {
+                throw exceptionClass2.cast(cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Run work in the pool and wait for all of it. Work not yet started is cancelled
+     * if any of it fails.
+     * @param tasks work that only throws runtime exceptions
+     * @return results, in task order
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(submit(task));
+            }
+            List<T> results = new ArrayList<T>(tasks.size());
+            for (Future<T> future : futures) {
+                results.add(get(future, RuntimeException.class));
+            }
+            return results;
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+}
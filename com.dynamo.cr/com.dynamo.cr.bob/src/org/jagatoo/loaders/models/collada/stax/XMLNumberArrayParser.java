@@ -0,0 +1,281 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package org.jagatoo.loaders.models.collada.stax;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * DYNAMO: Streaming parser for the whitespace separated numbers of array elements.
+ * The numbers are parsed directly from the character windows of the StAX parser
+ * into a primitive array, instead of first gathering the whole element into a string.
+ * Only numbers split between two windows are copied.
+ * Numbers are separated the same way as by the default StringTokenizer.
+ */
+abstract class XMLNumberArrayParser {
+
+    private char[] token = new char[32];
+    private int tokenLength = 0;
+    protected int size = 0;
+
+    /**
+     * Parse the current CHARACTERS event of a parser
+     * @param parser parser
+     */
+    void characters(XMLStreamReader parser) {
+        characters(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+    }
+
+    /**
+     * Parse a window of characters. A number at the end of the window is continued
+     * by the next window.
+     * @param ch characters
+     * @param start start of the window
+     * @param length length of the window
+     */
+    void characters(char[] ch, int start, int length) {
+        int end = start + length;
+        int i = start;
+        // Continue a number split by the previous window
+        if (tokenLength > 0) {
+            while (i < end && !isSeparator(ch[i])) {
+                appendToken(ch[i++]);
+            }
+            if (i == end) {
+                return;
+            }
+            add(token, 0, tokenLength);
+            tokenLength = 0;
+        }
+        while (i < end) {
+            while (i < end && isSeparator(ch[i])) {
+                ++i;
+            }
+            int tokenStart = i;
+            while (i < end && !isSeparator(ch[i])) {
+                ++i;
+            }
+            if (i == tokenStart) {
+                break;
+            }
+            if (i == end) {
+                // Might continue in the next window
+                while (tokenStart < end) {
+                    appendToken(ch[tokenStart++]);
+                }
+                break;
+            }
+            add(ch, tokenStart, i - tokenStart);
+        }
+    }
+
+    /**
+     * Parse a number that wasn't terminated by a separator
+     */
+    protected void finish() {
+        if (tokenLength > 0) {
+            add(token, 0, tokenLength);
+            tokenLength = 0;
+        }
+    }
+
+    protected abstract void add(char[] ch, int start, int length);
+
+    private void appendToken(char c) {
+        if (tokenLength == token.length) {
+            token = Arrays.copyOf(token, token.length * 2);
+        }
+        token[tokenLength++] = c;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    static int initialCapacity(int count) {
+        return count > 0 ? count : 16;
+    }
+
+    static class Floats extends XMLNumberArrayParser {
+
+        // Powers of ten that are exactly representable as floats
+        private static final float[] POW10 = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+        };
+        // Integers below this are exactly representable as floats
+        private static final long MAX_MANTISSA = 1 << 24;
+
+        private float[] floats;
+
+        /**
+         * @param count expected number of floats, or a negative number if unknown
+         */
+        Floats(int count) {
+            floats = new float[initialCapacity(count)];
+        }
+
+        @Override
+        protected void add(char[] ch, int start, int length) {
+            if (size == floats.length) {
+                floats = Arrays.copyOf(floats, size * 2);
+            }
+            floats[size++] = parseFloat(ch, start, length);
+        }
+
+        /**
+         * Get the parsed floats
+         * @return floats, with one entry per number
+         */
+        float[] toArray() {
+            finish();
+            return size == floats.length ? floats : Arrays.copyOf(floats, size);
+        }
+
+        /**
+         * Parse a float. Plain decimal numbers whose digits form an integer below 2^24, with
+         * a decimal exponent of at most 10, are converted with a single float multiply or
+         * divide. Both operands are exact floats, so the result is the same as from
+         * Float.parseFloat. All other numbers are left to Float.parseFloat.
+         */
+        static float parseFloat(char[] ch, int start, int length) {
+            int i = start;
+            int end = start + length;
+            boolean negative = false;
+            if (i < end && (ch[i] == '-' || ch[i] == '+')) {
+                negative = ch[i] == '-';
+                ++i;
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            boolean hasDigits = false;
+            for (; i < end && ch[i] >= '0' && ch[i] <= '9'; ++i) {
+                hasDigits = true;
+                mantissa = mantissa * 10 + (ch[i] - '0');
+                if (mantissa >= MAX_MANTISSA) {
+                    return parseFloatSlow(ch, start, length);
+                }
+            }
+            if (i < end && ch[i] == '.') {
+                ++i;
+                for (; i < end && ch[i] >= '0' && ch[i] <= '9'; ++i) {
+                    hasDigits = true;
+                    mantissa = mantissa * 10 + (ch[i] - '0');
+                    if (mantissa >= MAX_MANTISSA) {
+                        return parseFloatSlow(ch, start, length);
+                    }
+                    --exponent;
+                }
+            }
+            if (hasDigits && i < end && (ch[i] == 'e' || ch[i] == 'E')) {
+                ++i;
+                boolean negativeExponent = false;
+                if (i < end && (ch[i] == '-' || ch[i] == '+')) {
+                    negativeExponent = ch[i] == '-';
+                    ++i;
+                }
+                int exponentStart = i;
+                int e = 0;
+                for (; i < end && ch[i] >= '0' && ch[i] <= '9' && e < 1000; ++i) {
+                    e = e * 10 + (ch[i] - '0');
+                }
+                if (i == exponentStart) {
+                    hasDigits = false;
+                }
+                exponent += negativeExponent ? -e : e;
+            }
+            if (hasDigits && i == end) {
+                float value;
+                if (mantissa == 0) {
+                    value = 0.0f;
+                } else if (exponent == 0) {
+                    value = mantissa;
+                } else if (exponent < 0 && exponent >= -10) {
+                    value = mantissa / POW10[-exponent];
+                } else if (exponent > 0 && exponent <= 10) {
+                    value = mantissa * POW10[exponent];
+                } else {
+                    return parseFloatSlow(ch, start, length);
+                }
+                return negative ? -value : value;
+            }
+            return parseFloatSlow(ch, start, length);
+        }
+
+        private static float parseFloatSlow(char[] ch, int start, int length) {
+            try {
+                return Float.parseFloat(new String(ch, start, length));
+            } catch (NumberFormatException e) {
+                // Defold-fix:
+                // Some Collada exporters (such the default one in Maya) sometimes output "-1.#IND00" as float entries.
+                // We need to catch the format exception and simply "parse" it as a zero.
+                // In the future we might want to log a build (and Editor 2) warning here, issue; DEF-2917
+                return 0.0f;
+            }
+        }
+    }
+
+    static class Ints extends XMLNumberArrayParser {
+
+        private int[] ints;
+
+        /**
+         * @param count expected number of ints, or a negative number if unknown
+         */
+        Ints(int count) {
+            ints = new int[initialCapacity(count)];
+        }
+
+        @Override
+        protected void add(char[] ch, int start, int length) {
+            if (size == ints.length) {
+                ints = Arrays.copyOf(ints, size * 2);
+            }
+            ints[size++] = parseInt(ch, start, length);
+        }
+
+        /**
+         * Get the parsed ints
+         * @return ints, with one entry per number
+         */
+        int[] toArray() {
+            finish();
+            return size == ints.length ? ints : Arrays.copyOf(ints, size);
+        }
+
+        /**
+         * Parse an int. Numbers that might not fit an int, and malformed numbers,
+         * are left to Integer.parseInt which throws a NumberFormatException
+         * the same way as before.
+         */
+        static int parseInt(char[] ch, int start, int length) {
+            int i = start;
+            int end = start + length;
+            boolean negative = false;
+            if (i < end && (ch[i] == '-' || ch[i] == '+')) {
+                negative = ch[i] == '-';
+                ++i;
+            }
+            if (i < end && end - i <= 9) {
+                int value = 0;
+                for (; i < end && ch[i] >= '0' && ch[i] <= '9'; ++i) {
+                    value = value * 10 + (ch[i] - '0');
+                }
+                if (i == end) {
+                    return negative ? -value : value;
+                }
+            }
+            return Integer.parseInt(new String(ch, start, length));
+        }
+    }
+}
@@ -95,11 +95,11 @@ public class XMLTriangles
             }
         }
 
-        // DYNAMO: Buffering fix
+        // DYNAMO: Buffering fix, parse the indices as they are streamed
         boolean parsing_triangles = false;
         boolean parsing_vcount = false;
-        StringBuffer triangles_buffer = new StringBuffer();
-        StringBuffer vcount_buffer = new StringBuffer();
+        XMLNumberArrayParser.Ints triangles_parser = new XMLNumberArrayParser.Ints(-1);
+        XMLNumberArrayParser.Ints vcount_parser = new XMLNumberArrayParser.Ints(polyList ? count : -1);
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -134,9 +134,9 @@ public class XMLTriangles
                 case XMLStreamConstants.CHARACTERS:
                 {
                     if (parsing_triangles)
-                        triangles_buffer.append(parser.getText());
+                        triangles_parser.characters(parser);
                     else if (parsing_vcount)
-                        vcount_buffer.append(parser.getText());
+                        vcount_parser.characters(parser);
                     break;
                 }
 
@@ -144,13 +144,13 @@ public class XMLTriangles
                 {
                     if ( parser.getLocalName().equals( "triangles" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
+                        p = triangles_parser.toArray();
                         return;
                     }
                     else if ( parser.getLocalName().equals( "polylist" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
-                        int[] vcount = XMLIntArray.toArray(vcount_buffer.toString());
+                        p = triangles_parser.toArray();
+                        int[] vcount = vcount_parser.toArray();
                         int totalVertexCount = 0;
                         for (int vc : vcount) {
                             totalVertexCount += vc;
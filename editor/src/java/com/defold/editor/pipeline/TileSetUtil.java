@@ -178,7 +178,11 @@ public class TileSetUtil {
         int height = alphaRaster.getHeight();
         int[] alpha = new int[width * height];
         alpha = alphaRaster.getPixels(0, 0, width, height, alpha);
+        return calculateRect(alpha, width, height, inflate);
+    }
 
+    // returns a tight rect with CW winding
+    public static ConvexHull2D.PointF[] calculateRect(int[] alpha, int width, int height, int inflate) {
         ConvexHull2D.Point ipoints[] = calcRect(alpha, width, height, inflate);
         ConvexHull2D.PointF points[] = new ConvexHull2D.PointF[4];
 
@@ -195,7 +199,11 @@ public class TileSetUtil {
         int height = alphaRaster.getHeight();
         int[] alpha = new int[width * height];
         alpha = alphaRaster.getPixels(0, 0, width, height, alpha);
+        return calculateConvexHull(alpha, width, height, hullTargetVertexCount, dilateCount);
+    }
 
+    // the alpha mask is left unchanged
+    public static ConvexHull2D.PointF[] calculateConvexHull(int[] alpha, int width, int height, int hullTargetVertexCount, int dilateCount) {
         if (isEmpty(alpha, width, height))
             return null;
 
@@ -212,6 +220,36 @@ public class TileSetUtil {
         return points;
     }
 
+    // returns the hull of a single tile, or its tight rect if the hull is outside of the tile
+    public static ConvexHull2D.Point[] calculateTileConvexHull(int[] mask, int tileWidth, int tileHeight, int hullTargetVertexCount) {
+        ConvexHull2D.Point[] points = ConvexHull2D.imageConvexHull(mask, tileWidth, tileHeight, hullTargetVertexCount);
+
+        // Check the vertices, and if they're outside of the rectangle, fallback to the tight rect
+        if (!isHullValid(points, tileWidth, tileHeight)) {
+            points = calcRect(mask, tileWidth, tileHeight, 0);
+        }
+        return points;
+    }
+
+    // packs the tile hulls, indexed by tile, into a single point array
+    public static ConvexHulls createConvexHulls(ConvexHull2D.Point[][] points) {
+        ConvexHull[] convexHulls = new ConvexHull[points.length];
+        int pointCount = 0;
+        for (int index = 0; index < points.length; ++index) {
+            convexHulls[index] = new ConvexHull(null, pointCount, points[index].length);
+            pointCount += points[index].length;
+        }
+        float[] convexHullPoints = new float[pointCount * 2];
+        int totalIndex = 0;
+        for (int index = 0; index < points.length; ++index) {
+            for (int i = 0; i < points[index].length; ++i) {
+                convexHullPoints[totalIndex++] = points[index][i].getX();
+                convexHullPoints[totalIndex++] = points[index][i].getY();
+            }
+        }
+        return new ConvexHulls(convexHulls, convexHullPoints);
+    }
+
     // for the physics collision hulls
     public static ConvexHulls calculateConvexHulls(
             Raster alphaRaster, int hullTargetVertexCount,
@@ -221,40 +259,17 @@ public class TileSetUtil {
         int tilesPerRow = TileSetUtil.calculateTileCount(tileWidth, width, tileMargin, tileSpacing);
         int tilesPerColumn = TileSetUtil.calculateTileCount(tileHeight, height, tileMargin, tileSpacing);
         ConvexHull2D.Point[][] points = new ConvexHull2D.Point[tilesPerRow * tilesPerColumn][];
-        int pointCount = 0;
         int[] mask = new int[tileWidth * tileHeight];
 
-        ConvexHull[] convexHulls = new ConvexHull[tilesPerColumn * tilesPerRow];
-
         for (int row = 0; row < tilesPerColumn; ++row) {
             for (int col = 0; col < tilesPerRow; ++col) {
                 int x = tileMargin + col * (2 * tileMargin + tileSpacing + tileWidth);
                 int y = tileMargin + row * (2 * tileMargin + tileSpacing + tileHeight);
                 mask = alphaRaster.getPixels(x, y, tileWidth, tileHeight, mask);
                 int index = col + row * tilesPerRow;
-                points[index] = ConvexHull2D.imageConvexHull(mask, tileWidth, tileHeight, hullTargetVertexCount);
-
-                // Check the vertices, and if they're outside of the rectangle, fallback to the tight rect
-                if (!isHullValid(points[index], tileWidth, tileHeight)) {
-                    points[index] = calcRect(mask, tileWidth, tileHeight, 0);
-                }
-                ConvexHull convexHull = new ConvexHull(null, pointCount, points[index].length);
-                convexHulls[index] = convexHull;
-                pointCount += points[index].length;
-            }
-        }
-        float[] convexHullPoints = new float[pointCount * 2];
-        int totalIndex = 0;
-        for (int row = 0; row < tilesPerColumn; ++row) {
-            for (int col = 0; col < tilesPerRow; ++col) {
-                int index = col + row * tilesPerRow;
-                for (int i = 0; i < points[index].length; ++i) {
-                    convexHullPoints[totalIndex++] = points[index][i].getX();
-                    convexHullPoints[totalIndex++] = points[index][i].getY();
-                }
+                points[index] = calculateTileConvexHull(mask, tileWidth, tileHeight, hullTargetVertexCount);
             }
         }
-
-        return new ConvexHulls(convexHulls, convexHullPoints);
+        return createConvexHulls(points);
     }
 }